@@ -14,9 +14,127 @@
  * limitations under the License.
  */
 
+/* Exposes sched_getcpu on Linux, must precede all includes. */
+#define _GNU_SOURCE
 #include <net_lizalab_util_RdRandUtil.h>
 #include <rdrand.h>
 #include <stdio.h>
+#include <string.h>
+#ifdef __linux__
+#include <sched.h>
+#endif
+
+/*
+ * Size of the stack buffer used to stage random bytes before copying
+ * them into the Java array. Larger requests are filled in chunks so the
+ * native stack usage stays fixed regardless of the requested size.
+ */
+#define CHUNK_SIZE 4096
+
+/*
+ * Number of times a failed 64 bit RdRand is retried by the word path,
+ * the limit recommended by Intel and used by librdrand.
+ */
+#define RETRY_LIMIT 10
+
+/*
+ * Number of bytes the word path fills per pinning of the Java array,
+ * bounding the time the garbage collector is held off.
+ */
+#define CRITICAL_CHUNK_SIZE (16 * 1024)
+
+/*
+ * Size up to which the word path fills an aligned stack buffer and
+ * copies it out, cheaper for small fills than pinning the Java array.
+ */
+#define SMALL_FILL_SIZE 256
+
+/*
+ * Exported by librdrand but not declared in its header, caches the
+ * CPUID check for RdRand support.
+ */
+int RdRand_isSupported();
+
+#if defined(__x86_64__)
+
+/*
+ * Issues a single 64 bit RdRand, returning non-zero if a value was
+ * delivered. Encoded as bytes like librdrand to build with old assemblers.
+ */
+static inline int rdrand64_step(uint64_t *x) {
+	unsigned char ok;
+	__asm__ volatile(".byte 0x48; .byte 0x0f; .byte 0xc7; .byte 0xf0; setc %1" : "=a" (*x), "=qm" (ok));
+	return ok;
+}
+
+/*
+ * Issues a 64 bit RdRand, retrying up to RETRY_LIMIT times until a value
+ * is delivered.
+ */
+static int rdrand64_retry(uint64_t *x) {
+	int i;
+	for ( i = 0; i < RETRY_LIMIT; i++ ) {
+		if ( rdrand64_step(x) ) {
+			return RDRAND_SUCCESS;
+		}
+	}
+	return RDRAND_NOT_READY;
+}
+
+/*
+ * Fills the buffer with 64 bit RdRand values written as aligned words.
+ * Only the unaligned head and the tail shorter than a word are copied
+ * out of a separate value.
+ */
+static int fill_words(unsigned char *dest, jint size) {
+	uint64_t value;
+	uint64_t *words;
+	jint head = (jint) ((sizeof(uint64_t) - ((uintptr_t) dest & (sizeof(uint64_t) - 1))) & (sizeof(uint64_t) - 1));
+	jint count;
+	jint tail;
+	jint i;
+	if ( head > size ) {
+		head = size;
+	}
+	if ( head > 0 ) {
+		if ( rdrand64_retry(&value) != RDRAND_SUCCESS ) {
+			return RDRAND_NOT_READY;
+		}
+		memcpy(dest, &value, head);
+	}
+	words = (uint64_t *) (dest + head);
+	count = (size - head) / (jint) sizeof(uint64_t);
+	tail = (size - head) % (jint) sizeof(uint64_t);
+	/* Unrolled by 4, a failed step falls back to retrying that word. */
+	for ( i = 0; i + 4 <= count; i += 4 ) {
+		if ( !rdrand64_step(&words[i]) && rdrand64_retry(&words[i]) != RDRAND_SUCCESS ) {
+			return RDRAND_NOT_READY;
+		}
+		if ( !rdrand64_step(&words[i + 1]) && rdrand64_retry(&words[i + 1]) != RDRAND_SUCCESS ) {
+			return RDRAND_NOT_READY;
+		}
+		if ( !rdrand64_step(&words[i + 2]) && rdrand64_retry(&words[i + 2]) != RDRAND_SUCCESS ) {
+			return RDRAND_NOT_READY;
+		}
+		if ( !rdrand64_step(&words[i + 3]) && rdrand64_retry(&words[i + 3]) != RDRAND_SUCCESS ) {
+			return RDRAND_NOT_READY;
+		}
+	}
+	for ( ; i < count; i++ ) {
+		if ( rdrand64_retry(&words[i]) != RDRAND_SUCCESS ) {
+			return RDRAND_NOT_READY;
+		}
+	}
+	if ( tail > 0 ) {
+		if ( rdrand64_retry(&value) != RDRAND_SUCCESS ) {
+			return RDRAND_NOT_READY;
+		}
+		memcpy(words + count, &value, tail);
+	}
+	return RDRAND_SUCCESS;
+}
+
+#endif
 
 /*
  * Class:     net_lizalab_util_RdRandUtil
@@ -33,33 +151,205 @@ JNIEXPORT jint JNICALL Java_net_lizalab_util_RdRandUtil_verifyNative
 /*
  * Class:     net_lizalab_util_RdRandUtil
  * Method:    nextBytesNative
- * Signature: ([BI)I
+ * Signature: ([BII)I
  */
 JNIEXPORT jint JNICALL Java_net_lizalab_util_RdRandUtil_nextBytesNative
-  (JNIEnv *env, jclass cls, jbyteArray bytes, jint size) {
-	unsigned char buffer[size];
-	int r = rdrand_get_bytes(size, buffer);
-	if ( r == RDRAND_SUCCESS ) {
-		(*env)->SetByteArrayRegion(env, bytes, 0, size, (jbyte*) buffer);
+  (JNIEnv *env, jclass cls, jbyteArray bytes, jint offset, jint size) {
+	unsigned char buffer[CHUNK_SIZE];
+	jint filled = 0;
+	int r = RDRAND_SUCCESS;
+	while ( filled < size ) {
+		jint len = size - filled < CHUNK_SIZE ? size - filled : CHUNK_SIZE;
+		r = rdrand_get_bytes(len, buffer);
+		if ( r != RDRAND_SUCCESS ) {
+			break;
+		}
+		(*env)->SetByteArrayRegion(env, bytes, offset + filled, len, (jbyte*) buffer);
+		filled += len;
 	}
 	return r;
 }
 
 /*
  * Class:     net_lizalab_util_RdRandUtil
- * Method:    nextInt
- * Signature: ([II)I
- */
-JNIEXPORT jint JNICALL Java_net_lizalab_util_RdRandUtil_nextInt
-  (JNIEnv *env, jclass cls, jintArray num, jint bits) {
-	union {
-		unsigned char buffer[bits];
-		int i;
-	} number;
-	int r = rdrand_get_bytes(bits, number.buffer);
-	if ( r == RDRAND_SUCCESS ) {
-		int numArr[1] = {number.i};
-		(*env)->SetIntArrayRegion(env, num, 0, 1, (jint*) numArr);
+ * Method:    nextWordsNative
+ * Signature: ([BII)I
+ *
+ * Fills a range of the Java array in place with 64 bit RdRand values, pinning it in
+ * chunks for all but small fills, instead of staging through librdrand's byte oriented
+ * rdrand_get_bytes. Falls back to the librdrand path off x86-64.
+ */
+JNIEXPORT jint JNICALL Java_net_lizalab_util_RdRandUtil_nextWordsNative
+  (JNIEnv *env, jclass cls, jbyteArray bytes, jint offset, jint size) {
+#if defined(__x86_64__)
+	jint filled = 0;
+	int r = RDRAND_SUCCESS;
+	if ( !RdRand_isSupported() ) {
+		return RDRAND_UNSUPPORTED;
+	}
+	if ( size <= SMALL_FILL_SIZE ) {
+		uint64_t buffer[SMALL_FILL_SIZE / sizeof(uint64_t)];
+		r = fill_words((unsigned char *) buffer, size);
+		if ( r == RDRAND_SUCCESS ) {
+			(*env)->SetByteArrayRegion(env, bytes, offset, size, (jbyte*) buffer);
+		}
+		return r;
+	}
+	while ( filled < size ) {
+		jint len = size - filled < CRITICAL_CHUNK_SIZE ? size - filled : CRITICAL_CHUNK_SIZE;
+		unsigned char *array = (*env)->GetPrimitiveArrayCritical(env, bytes, NULL);
+		if ( array == NULL ) {
+			/* Out of memory error pending in the JVM. */
+			return RDRAND_NOT_READY;
+		}
+		r = fill_words(array + offset + filled, len);
+		(*env)->ReleasePrimitiveArrayCritical(env, bytes, array, 0);
+		if ( r != RDRAND_SUCCESS ) {
+			break;
+		}
+		filled += len;
 	}
 	return r;
+#else
+	return Java_net_lizalab_util_RdRandUtil_nextBytesNative(env, cls, bytes, offset, size);
+#endif
+}
+
+/*
+ * Class:     net_lizalab_util_RdRandUtil
+ * Method:    nextDirectNative
+ * Signature: (Ljava/nio/ByteBuffer;IIZ)I
+ *
+ * Fills a range of a direct buffer in place in a single call, with 64 bit
+ * RdRand values or through librdrand. Direct buffer memory does not move,
+ * so no pinning or staging is needed. Buffers without a native address,
+ * which the Java caller rules out, are reported as RDRAND_SUPPORT_UNKNOWN
+ * rather than as a transient failure callers would retry. Never calls back
+ * into Java, so native images need no JNI configuration.
+ */
+JNIEXPORT jint JNICALL Java_net_lizalab_util_RdRandUtil_nextDirectNative
+  (JNIEnv *env, jclass cls, jobject buffer, jint offset, jint size, jboolean librdrand) {
+	unsigned char *address = (*env)->GetDirectBufferAddress(env, buffer);
+	if ( address == NULL ) {
+		return RDRAND_SUPPORT_UNKNOWN;
+	}
+#if defined(__x86_64__)
+	if ( !librdrand ) {
+		if ( !RdRand_isSupported() ) {
+			return RDRAND_UNSUPPORTED;
+		}
+		return fill_words(address + offset, size);
+	}
+#endif
+	return rdrand_get_bytes(size, address + offset);
+}
+
+/*
+ * Class:     net_lizalab_util_RdRandUtil
+ * Method:    nextIntNative
+ * Signature: ()J
+ *
+ * Returns the RdRand status in the high 32 bits and the random
+ * value in the low 32 bits so no Java array is needed to carry it.
+ */
+JNIEXPORT jlong JNICALL Java_net_lizalab_util_RdRandUtil_nextIntNative
+  (JNIEnv *env, jclass cls) {
+	uint32_t u32 = 0;
+	int r = rdrand_32(&u32, 1);
+	return (jlong) (((uint64_t) (uint32_t) r << 32) | u32);
+}
+
+/*
+ * Class:     net_lizalab_util_RdRandUtil
+ * Method:    currentCpuNative
+ * Signature: ()I
+ *
+ * Returns the CPU the calling thread is running on, or -1 where the
+ * platform cannot tell.
+ */
+JNIEXPORT jint JNICALL Java_net_lizalab_util_RdRandUtil_currentCpuNative
+  (JNIEnv *env, jclass cls) {
+#ifdef __linux__
+	return sched_getcpu();
+#else
+	return -1;
+#endif
+}
+
+/*
+ * Class:     net_lizalab_util_RdRandUtil
+ * Method:    loadNative
+ * Signature: (Ljava/nio/ByteBuffer;J)J
+ *
+ * Reads a 64 bit value shared with other processes through a mapped
+ * file, ordering later reads after it.
+ */
+JNIEXPORT jlong JNICALL Java_net_lizalab_util_RdRandUtil_loadNative
+  (JNIEnv *env, jclass cls, jobject buffer, jlong offset) {
+	unsigned char *address = (*env)->GetDirectBufferAddress(env, buffer);
+	return __atomic_load_n((int64_t *) (address + offset), __ATOMIC_ACQUIRE);
+}
+
+/*
+ * Class:     net_lizalab_util_RdRandUtil
+ * Method:    storeNative
+ * Signature: (Ljava/nio/ByteBuffer;JJ)V
+ *
+ * Writes a 64 bit value shared with other processes through a mapped
+ * file, ordering earlier writes before it.
+ */
+JNIEXPORT void JNICALL Java_net_lizalab_util_RdRandUtil_storeNative
+  (JNIEnv *env, jclass cls, jobject buffer, jlong offset, jlong value) {
+	unsigned char *address = (*env)->GetDirectBufferAddress(env, buffer);
+	__atomic_store_n((int64_t *) (address + offset), value, __ATOMIC_RELEASE);
+}
+
+/*
+ * Class:     net_lizalab_util_RdRandUtil
+ * Method:    compareAndSetNative
+ * Signature: (Ljava/nio/ByteBuffer;JJJ)Z
+ *
+ * Atomically replaces a 64 bit value shared with other processes through
+ * a mapped file if it holds the expected value.
+ */
+JNIEXPORT jboolean JNICALL Java_net_lizalab_util_RdRandUtil_compareAndSetNative
+  (JNIEnv *env, jclass cls, jobject buffer, jlong offset, jlong expected, jlong value) {
+	unsigned char *address = (*env)->GetDirectBufferAddress(env, buffer);
+	int64_t current = expected;
+	return __atomic_compare_exchange_n((int64_t *) (address + offset), &current, value, 0,
+			__ATOMIC_ACQ_REL, __ATOMIC_ACQUIRE) ? JNI_TRUE : JNI_FALSE;
+}
+
+/*
+ * Class:     net_lizalab_util_RdRandUtil
+ * Method:    publishNative
+ * Signature: (Ljava/nio/ByteBuffer;JJ[BII)V
+ *
+ * Copies bytes from the Java array into the mapped memory following a
+ * stamp, then stamps them so other processes see them once stamped.
+ */
+JNIEXPORT void JNICALL Java_net_lizalab_util_RdRandUtil_publishNative
+  (JNIEnv *env, jclass cls, jobject buffer, jlong stampOffset, jlong stamp, jbyteArray bytes, jint offset,
+		jint size) {
+	unsigned char *address = (unsigned char *) (*env)->GetDirectBufferAddress(env, buffer) + stampOffset;
+	(*env)->GetByteArrayRegion(env, bytes, offset, size, (jbyte *) (address + sizeof(int64_t)));
+	__atomic_store_n((int64_t *) address, stamp, __ATOMIC_RELEASE);
+}
+
+/*
+ * Class:     net_lizalab_util_RdRandUtil
+ * Method:    takeNative
+ * Signature: (Ljava/nio/ByteBuffer;JJ[BII)V
+ *
+ * Copies the bytes following a stamp in the mapped memory into the Java
+ * array and zeroes them, then stamps them so other processes only reuse
+ * them once zeroed.
+ */
+JNIEXPORT void JNICALL Java_net_lizalab_util_RdRandUtil_takeNative
+  (JNIEnv *env, jclass cls, jobject buffer, jlong stampOffset, jlong stamp, jbyteArray bytes, jint offset,
+		jint size) {
+	unsigned char *address = (unsigned char *) (*env)->GetDirectBufferAddress(env, buffer) + stampOffset;
+	(*env)->SetByteArrayRegion(env, bytes, offset, size, (jbyte *) (address + sizeof(int64_t)));
+	memset(address + sizeof(int64_t), 0, size);
+	__atomic_store_n((int64_t *) address, stamp, __ATOMIC_RELEASE);
 }
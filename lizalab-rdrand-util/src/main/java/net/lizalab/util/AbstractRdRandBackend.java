@@ -0,0 +1,77 @@
+/*
+ * Copyright 2013 Hemant Padmanabhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.lizalab.util;
+
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.util.Arrays;
+
+/**
+ * Base {@link RdRandBackend} implementing the draws that can be derived
+ * from <code>next</code>, so implementations only need to provide
+ * <code>verify</code>, <code>nextBytes(byte[])</code> and <code>next</code> and
+ * override the rest where they can do better.
+ *
+ * @author Hemant Padmanabhan
+ * @since 1.2
+ */
+public abstract class AbstractRdRandBackend implements RdRandBackend {
+
+	/**
+	 * Fills the buffer from <code>nextBytes(byte[])</code>, drawing into a
+	 * scratch array that is zeroed once copied so the random bytes are not
+	 * left behind on the heap.
+	 * @param buffer The buffer to fill with random bytes.
+	 */
+	@Override
+	public void nextBytes(ByteBuffer buffer) {
+		if (buffer.isReadOnly()) {
+			throw new ReadOnlyBufferException();
+		}
+		byte[] bytes = new byte[buffer.remaining()];
+		try {
+			nextBytes(bytes);
+			buffer.put(bytes);
+		} finally {
+			Arrays.fill(bytes, (byte) 0);
+		}
+	}
+
+	/**
+	 * Draws a bounded integer from <code>next(31)</code> exactly as
+	 * <code>java.util.Random</code> does, so the bits drawn for a given
+	 * bound are the same.
+	 * @param bound The upper bound (exclusive), must be positive.
+	 * @return The next value in range.
+	 */
+	@Override
+	public int nextInt(int bound) {
+		if (bound <= 0) {
+			throw new IllegalArgumentException("Bound must be positive!");
+		}
+		if ((bound & -bound) == bound) {
+			return (int) ((bound * (long) next(31)) >> 31);
+		}
+		int unbiased;
+		int value;
+		do {
+			unbiased = next(31);
+			value = unbiased % bound;
+		} while (unbiased - value + (bound - 1) < 0);
+		return value;
+	}
+}
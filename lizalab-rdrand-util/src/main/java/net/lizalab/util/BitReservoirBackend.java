@@ -0,0 +1,206 @@
+/*
+ * Copyright 2013 Hemant Padmanabhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.lizalab.util;
+
+/**
+ * {@link RdRandBackend} wrapper handing out exactly the number of bits
+ * requested. The wrapped backend is drawn from in bulk, a buffer of 64 bit
+ * words at a time, and bits left over from one draw are carried into the
+ * next, so <code>next(1)</code>, as used by <code>nextBoolean</code>,
+ * consumes a single bit rather than a whole native draw.
+ *
+ * <p>Small bounded integers are also drawn bit-exactly, including those
+ * of {@link RdRandRandom#nextInt(int)}, see {@link #nextInt(int)}. Bits drawn from the
+ * wrapped backend and bits handed out are counted, the difference being
+ * the bits held in the reservoir and those discarded by rejection
+ * sampling.</p>
+ *
+ * @author Hemant Padmanabhan
+ * @since 1.2
+ */
+public final class BitReservoirBackend extends AbstractRdRandBackend {
+
+	/**
+	 * Default number of 64 bit words drawn from the wrapped backend at a time.
+	 */
+	public static final int DEFAULT_WORDS = 8;
+
+	/**
+	 * Largest bound drawn by rejection sampling on the bits of
+	 * <code>bound - 1</code>. Expecting fewer than twice that many bits
+	 * per draw, these use fewer than the 31 bits drawn for larger bounds.
+	 */
+	static final int MAX_SMALL_BOUND = 1 << 15;
+
+	private final RdRandBackend delegate;
+
+	/**
+	 * Words drawn from the wrapped backend, served from <code>position</code> on.
+	 */
+	private final byte[] buffer;
+
+	private int position;
+
+	/**
+	 * Reservoir of unused bits, right justified.
+	 */
+	private long reservoir;
+
+	/**
+	 * Number of unused bits in the reservoir.
+	 */
+	private int available;
+
+	private long bitsDrawn;
+
+	private long bitsUsed;
+
+	/**
+	 * Constructs a backend serving bits drawn from the specified backend
+	 * the default number of words at a time.
+	 * @param delegate The backend drawn from.
+	 */
+	public BitReservoirBackend(RdRandBackend delegate) {
+		this(delegate, DEFAULT_WORDS);
+	}
+
+	/**
+	 * Constructs a backend serving bits drawn from the specified backend
+	 * the specified number of words at a time.
+	 * @param delegate The backend drawn from.
+	 * @param words Number of 64 bit words drawn at a time, at least 1.
+	 */
+	public BitReservoirBackend(RdRandBackend delegate, int words) {
+		if (delegate == null) {
+			throw new IllegalArgumentException("Missing rdrand backend!");
+		}
+		if (words < 1) {
+			throw new IllegalArgumentException("Must draw at least one word at a time!");
+		}
+		this.delegate = delegate;
+		buffer = new byte[words * 8];
+		position = buffer.length;
+	}
+
+	@Override
+	public RdRandStatus verify() {
+		return delegate.verify();
+	}
+
+	/**
+	 * Fills the array directly from the wrapped backend, whole bytes gain
+	 * nothing from the reservoir.
+	 * @param bytes The byte array to fill with random bytes.
+	 */
+	@Override
+	public void nextBytes(byte[] bytes) {
+		delegate.nextBytes(bytes);
+		synchronized (this) {
+			bitsDrawn += bytes.length * 8L;
+			bitsUsed += bytes.length * 8L;
+		}
+	}
+
+	@Override
+	public synchronized int next(int bits) {
+		if (bits <= 0) {
+			return 0;
+		}
+		if (bits <= available) {
+			available -= bits;
+			bitsUsed += bits;
+			return (int) (reservoir >>> available) & (int) ((1L << bits) - 1);
+		}
+		// Take what is left, then the rest from a fresh word.
+		int missing = bits - available;
+		long high = available == 0 ? 0 : reservoir & ((1L << available) - 1);
+		// Leaves the reservoir and counters untouched if the draw fails.
+		reservoir = nextWord();
+		available = 64 - missing;
+		bitsUsed += bits;
+		return (int) ((high << missing) | (reservoir >>> available));
+	}
+
+	/**
+	 * Returns a uniformly distributed value between 0 (inclusive) and the
+	 * specified bound (exclusive). Powers of two take exactly as many bits
+	 * as needed. Other bounds up to <code>MAX_SMALL_BOUND</code> draw as
+	 * many bits as <code>bound - 1</code> has, rejecting values out of
+	 * range. Larger bounds follow <code>java.util.Random</code>, drawing
+	 * 31 bits at a time.
+	 * @param bound The upper bound (exclusive), must be positive.
+	 * @return The next value in range.
+	 */
+	@Override
+	public synchronized int nextInt(int bound) {
+		if (bound <= 0) {
+			throw new IllegalArgumentException("Bound must be positive!");
+		}
+		if ((bound & -bound) == bound) {
+			return next(31 - Integer.numberOfLeadingZeros(bound));
+		}
+		if (bound <= MAX_SMALL_BOUND) {
+			int bits = 32 - Integer.numberOfLeadingZeros(bound - 1);
+			int value = next(bits);
+			while (value >= bound) {
+				// Rejected bits are discarded rather than used.
+				bitsUsed -= bits;
+				value = next(bits);
+			}
+			return value;
+		}
+		int value;
+		int unbiased = next(31);
+		while (unbiased - (value = unbiased % bound) + (bound - 1) < 0) {
+			bitsUsed -= 31;
+			unbiased = next(31);
+		}
+		return value;
+	}
+
+	/**
+	 * Returns the next 64 bit word, drawing a new buffer when exhausted.
+	 * @return The next word.
+	 */
+	private long nextWord() {
+		if (position == buffer.length) {
+			delegate.nextBytes(buffer);
+			bitsDrawn += buffer.length * 8L;
+			position = 0;
+		}
+		long word = 0;
+		for (int i = 0; i < 8; i++) {
+			word = (word << 8) | (buffer[position + i] & 0xFF);
+		}
+		position += 8;
+		return word;
+	}
+
+	/**
+	 * @return Number of bits drawn from the wrapped backend.
+	 */
+	public synchronized long getBitsDrawn() {
+		return bitsDrawn;
+	}
+
+	/**
+	 * @return Number of bits handed out.
+	 */
+	public synchronized long getBitsUsed() {
+		return bitsUsed;
+	}
+}
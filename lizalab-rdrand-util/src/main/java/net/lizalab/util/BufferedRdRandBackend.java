@@ -0,0 +1,225 @@
+/*
+ * Copyright 2013 Hemant Padmanabhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.lizalab.util;
+
+/**
+ * {@link RdRandBackend} wrapper serving small draws from buffers filled by
+ * bulk draws on the wrapped backend, amortizing the cost of a native call
+ * over many draws.
+ *
+ * <p>Buffers are kept in pools according to the {@link Pooling} mode.
+ * With <code>PER_NODE</code> or <code>PER_CPU</code> pooling every draw is
+ * routed to the pool of the NUMA node or CPU the calling thread runs on,
+ * as reported by <code>sched_getcpu</code> through
+ * {@link RdRandUtil#currentCpu()}. A pool is only refilled by threads
+ * routed to it, so the refilling RDRAND executes on the local socket and
+ * the buffer is read where it was written, rather than bouncing between
+ * sockets. Draws larger than the buffer go to the wrapped backend
+ * directly.</p>
+ *
+ * @author Hemant Padmanabhan
+ * @since 1.2
+ */
+public final class BufferedRdRandBackend extends AbstractRdRandBackend {
+
+	/**
+	 * Default size of each pool's buffer.
+	 */
+	public static final int DEFAULT_BUFFER_SIZE = 4096;
+
+	/**
+	 * How buffers are pooled across the threads drawing from the backend.
+	 */
+	public enum Pooling {
+		/**
+		 * A single buffer shared by all threads.
+		 */
+		SHARED,
+		/**
+		 * One buffer per NUMA node, used by the threads running on it.
+		 */
+		PER_NODE,
+		/**
+		 * One buffer per CPU, used by the threads running on it.
+		 */
+		PER_CPU
+	}
+
+	private final RdRandBackend delegate;
+
+	private final Pooling pooling;
+
+	private final NumaTopology topology;
+
+	private final Pool[] pools;
+
+	/**
+	 * Constructs a backend buffering draws on the specified backend in a
+	 * single shared buffer of the default size.
+	 * @param delegate The backend filling the buffers.
+	 */
+	public BufferedRdRandBackend(RdRandBackend delegate) {
+		this(delegate, Pooling.SHARED, DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * Constructs a backend buffering draws on the specified backend,
+	 * pooling buffers as specified.
+	 * @param delegate The backend filling the buffers.
+	 * @param pooling How buffers are pooled.
+	 * @param bufferSize Size of each pool's buffer, at least 4 bytes.
+	 */
+	public BufferedRdRandBackend(RdRandBackend delegate, Pooling pooling, int bufferSize) {
+		this(delegate, pooling, bufferSize, NumaTopology.read());
+	}
+
+	/**
+	 * Constructs a backend pooling buffers according to the specified topology.
+	 * @param delegate The backend filling the buffers.
+	 * @param pooling How buffers are pooled.
+	 * @param bufferSize Size of each pool's buffer, at least 4 bytes.
+	 * @param topology The host topology.
+	 */
+	BufferedRdRandBackend(RdRandBackend delegate, Pooling pooling, int bufferSize, NumaTopology topology) {
+		if (delegate == null || pooling == null) {
+			throw new IllegalArgumentException("Missing rdrand backend or pooling mode!");
+		}
+		if (bufferSize < 4) {
+			throw new IllegalArgumentException("Buffer size must be at least 4 bytes!");
+		}
+		this.delegate = delegate;
+		this.pooling = pooling;
+		this.topology = topology;
+		int count;
+		switch (pooling) {
+		case PER_NODE:
+			count = topology.getNodeCount();
+			break;
+		case PER_CPU:
+			count = Math.max(topology.getCpuCount(), Runtime.getRuntime().availableProcessors());
+			break;
+		default:
+			count = 1;
+		}
+		pools = new Pool[count];
+		for (int i = 0; i < count; i++) {
+			pools[i] = new Pool(bufferSize);
+		}
+	}
+
+	/**
+	 * @return How buffers are pooled.
+	 */
+	public Pooling getPooling() {
+		return pooling;
+	}
+
+	/**
+	 * @return Number of pools.
+	 */
+	public int getPoolCount() {
+		return pools.length;
+	}
+
+	/**
+	 * Returns the pool local to the calling thread.
+	 * @return The local pool.
+	 */
+	private Pool localPool() {
+		if (pools.length == 1) {
+			return pools[0];
+		}
+		int cpu = RdRandUtil.currentCpu();
+		if (cpu < 0) {
+			return pools[0];
+		}
+		int index = pooling == Pooling.PER_NODE ? topology.nodeOf(cpu) : cpu;
+		return pools[index % pools.length];
+	}
+
+	@Override
+	public RdRandStatus verify() {
+		return delegate.verify();
+	}
+
+	@Override
+	public void nextBytes(byte[] bytes) {
+		Pool pool = localPool();
+		if (bytes.length > pool.buffer.length) {
+			delegate.nextBytes(bytes);
+			return;
+		}
+		synchronized (pool) {
+			int offset = 0;
+			while (offset < bytes.length) {
+				if (pool.position == pool.buffer.length) {
+					pool.refill();
+				}
+				int len = Math.min(bytes.length - offset, pool.buffer.length - pool.position);
+				System.arraycopy(pool.buffer, pool.position, bytes, offset, len);
+				pool.position += len;
+				offset += len;
+			}
+		}
+	}
+
+	@Override
+	public int next(int bits) {
+		Pool pool = localPool();
+		int next;
+		synchronized (pool) {
+			if (pool.buffer.length - pool.position < 4) {
+				pool.refill();
+			}
+			byte[] buffer = pool.buffer;
+			int position = pool.position;
+			next = ((buffer[position] & 0xFF) << 24) | ((buffer[position + 1] & 0xFF) << 16)
+					| ((buffer[position + 2] & 0xFF) << 8) | (buffer[position + 3] & 0xFF);
+			pool.position = position + 4;
+		}
+		return (int) ((next & 0xFFFFFFFFL) >>> (32 - bits));
+	}
+
+	/**
+	 * Buffer of random bytes served from <code>position</code> on,
+	 * guarded by the pool.
+	 */
+	private final class Pool {
+
+		private final byte[] buffer;
+
+		private int position;
+
+		private Pool(int size) {
+			buffer = new byte[size];
+			position = size;
+		}
+
+		/**
+		 * Refills the whole buffer from the wrapped backend.
+		 */
+		private void refill() {
+			RdRandMonitor monitor = RdRandMonitor.active();
+			Object event = monitor != null ? monitor.beginRefill() : null;
+			delegate.nextBytes(buffer);
+			position = 0;
+			if (monitor != null) {
+				monitor.endRefill(event, "BufferedRdRandBackend", buffer.length);
+			}
+		}
+	}
+}
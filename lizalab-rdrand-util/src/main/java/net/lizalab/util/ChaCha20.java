@@ -0,0 +1,167 @@
+/*
+ * Copyright 2013 Hemant Padmanabhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.lizalab.util;
+
+/**
+ * The ChaCha20 block function of RFC 7539 and the HChaCha20 key
+ * derivation function of XChaCha20, on keys and nonces held as little
+ * endian 32 bit words.
+ *
+ * @author Hemant Padmanabhan
+ * @since 1.2
+ */
+final class ChaCha20 {
+
+	/**
+	 * Size of a key in bytes.
+	 */
+	static final int KEY_SIZE = 32;
+
+	/**
+	 * Size of a keystream block in bytes.
+	 */
+	static final int BLOCK_SIZE = 64;
+
+	/**
+	 * "expand 32-byte k" as little endian words.
+	 */
+	private static final int C0 = 0x61707865, C1 = 0x3320646e, C2 = 0x79622d32, C3 = 0x6b206574;
+
+	/**
+	 * Hidden constructor for utility class.
+	 */
+	private ChaCha20() {
+	}
+
+	/**
+	 * Writes the keystream block for the specified key, counter and nonce.
+	 * @param key The 8 key words.
+	 * @param counter The block counter.
+	 * @param nonce The 3 nonce words.
+	 * @param out The array to write the 64 byte block to.
+	 * @param offset Offset in the array to write the block at.
+	 */
+	static void block(int[] key, int counter, int[] nonce, byte[] out, int offset) {
+		int k0 = key[0], k1 = key[1], k2 = key[2], k3 = key[3], k4 = key[4], k5 = key[5], k6 = key[6], k7 = key[7];
+		int n0 = nonce[0], n1 = nonce[1], n2 = nonce[2];
+		int x0 = C0, x1 = C1, x2 = C2, x3 = C3;
+		int x4 = k0, x5 = k1, x6 = k2, x7 = k3, x8 = k4, x9 = k5, x10 = k6, x11 = k7;
+		int x12 = counter, x13 = n0, x14 = n1, x15 = n2;
+		for (int i = 0; i < 10; i++) {
+			// Column rounds.
+			x0 += x4; x12 = Integer.rotateLeft(x12 ^ x0, 16); x8 += x12; x4 = Integer.rotateLeft(x4 ^ x8, 12);
+			x0 += x4; x12 = Integer.rotateLeft(x12 ^ x0, 8); x8 += x12; x4 = Integer.rotateLeft(x4 ^ x8, 7);
+			x1 += x5; x13 = Integer.rotateLeft(x13 ^ x1, 16); x9 += x13; x5 = Integer.rotateLeft(x5 ^ x9, 12);
+			x1 += x5; x13 = Integer.rotateLeft(x13 ^ x1, 8); x9 += x13; x5 = Integer.rotateLeft(x5 ^ x9, 7);
+			x2 += x6; x14 = Integer.rotateLeft(x14 ^ x2, 16); x10 += x14; x6 = Integer.rotateLeft(x6 ^ x10, 12);
+			x2 += x6; x14 = Integer.rotateLeft(x14 ^ x2, 8); x10 += x14; x6 = Integer.rotateLeft(x6 ^ x10, 7);
+			x3 += x7; x15 = Integer.rotateLeft(x15 ^ x3, 16); x11 += x15; x7 = Integer.rotateLeft(x7 ^ x11, 12);
+			x3 += x7; x15 = Integer.rotateLeft(x15 ^ x3, 8); x11 += x15; x7 = Integer.rotateLeft(x7 ^ x11, 7);
+			// Diagonal rounds.
+			x0 += x5; x15 = Integer.rotateLeft(x15 ^ x0, 16); x10 += x15; x5 = Integer.rotateLeft(x5 ^ x10, 12);
+			x0 += x5; x15 = Integer.rotateLeft(x15 ^ x0, 8); x10 += x15; x5 = Integer.rotateLeft(x5 ^ x10, 7);
+			x1 += x6; x12 = Integer.rotateLeft(x12 ^ x1, 16); x11 += x12; x6 = Integer.rotateLeft(x6 ^ x11, 12);
+			x1 += x6; x12 = Integer.rotateLeft(x12 ^ x1, 8); x11 += x12; x6 = Integer.rotateLeft(x6 ^ x11, 7);
+			x2 += x7; x13 = Integer.rotateLeft(x13 ^ x2, 16); x8 += x13; x7 = Integer.rotateLeft(x7 ^ x8, 12);
+			x2 += x7; x13 = Integer.rotateLeft(x13 ^ x2, 8); x8 += x13; x7 = Integer.rotateLeft(x7 ^ x8, 7);
+			x3 += x4; x14 = Integer.rotateLeft(x14 ^ x3, 16); x9 += x14; x4 = Integer.rotateLeft(x4 ^ x9, 12);
+			x3 += x4; x14 = Integer.rotateLeft(x14 ^ x3, 8); x9 += x14; x4 = Integer.rotateLeft(x4 ^ x9, 7);
+		}
+		putInt(out, offset, x0 + C0);
+		putInt(out, offset + 4, x1 + C1);
+		putInt(out, offset + 8, x2 + C2);
+		putInt(out, offset + 12, x3 + C3);
+		putInt(out, offset + 16, x4 + k0);
+		putInt(out, offset + 20, x5 + k1);
+		putInt(out, offset + 24, x6 + k2);
+		putInt(out, offset + 28, x7 + k3);
+		putInt(out, offset + 32, x8 + k4);
+		putInt(out, offset + 36, x9 + k5);
+		putInt(out, offset + 40, x10 + k6);
+		putInt(out, offset + 44, x11 + k7);
+		putInt(out, offset + 48, x12 + counter);
+		putInt(out, offset + 52, x13 + n0);
+		putInt(out, offset + 56, x14 + n1);
+		putInt(out, offset + 60, x15 + n2);
+	}
+
+	/**
+	 * Derives a new key from the specified key and 16 byte input with
+	 * HChaCha20, the ChaCha20 permutation without the final addition,
+	 * keeping the first and last row.
+	 * @param key The 8 key words, replaced by the derived key.
+	 * @param input The input bytes.
+	 * @param offset Offset of the 16 input bytes in the array.
+	 */
+	static void hchacha(int[] key, byte[] input, int offset) {
+		int x0 = C0, x1 = C1, x2 = C2, x3 = C3;
+		int x4 = key[0], x5 = key[1], x6 = key[2], x7 = key[3];
+		int x8 = key[4], x9 = key[5], x10 = key[6], x11 = key[7];
+		int x12 = getInt(input, offset), x13 = getInt(input, offset + 4);
+		int x14 = getInt(input, offset + 8), x15 = getInt(input, offset + 12);
+		for (int i = 0; i < 10; i++) {
+			x0 += x4; x12 = Integer.rotateLeft(x12 ^ x0, 16); x8 += x12; x4 = Integer.rotateLeft(x4 ^ x8, 12);
+			x0 += x4; x12 = Integer.rotateLeft(x12 ^ x0, 8); x8 += x12; x4 = Integer.rotateLeft(x4 ^ x8, 7);
+			x1 += x5; x13 = Integer.rotateLeft(x13 ^ x1, 16); x9 += x13; x5 = Integer.rotateLeft(x5 ^ x9, 12);
+			x1 += x5; x13 = Integer.rotateLeft(x13 ^ x1, 8); x9 += x13; x5 = Integer.rotateLeft(x5 ^ x9, 7);
+			x2 += x6; x14 = Integer.rotateLeft(x14 ^ x2, 16); x10 += x14; x6 = Integer.rotateLeft(x6 ^ x10, 12);
+			x2 += x6; x14 = Integer.rotateLeft(x14 ^ x2, 8); x10 += x14; x6 = Integer.rotateLeft(x6 ^ x10, 7);
+			x3 += x7; x15 = Integer.rotateLeft(x15 ^ x3, 16); x11 += x15; x7 = Integer.rotateLeft(x7 ^ x11, 12);
+			x3 += x7; x15 = Integer.rotateLeft(x15 ^ x3, 8); x11 += x15; x7 = Integer.rotateLeft(x7 ^ x11, 7);
+			x0 += x5; x15 = Integer.rotateLeft(x15 ^ x0, 16); x10 += x15; x5 = Integer.rotateLeft(x5 ^ x10, 12);
+			x0 += x5; x15 = Integer.rotateLeft(x15 ^ x0, 8); x10 += x15; x5 = Integer.rotateLeft(x5 ^ x10, 7);
+			x1 += x6; x12 = Integer.rotateLeft(x12 ^ x1, 16); x11 += x12; x6 = Integer.rotateLeft(x6 ^ x11, 12);
+			x1 += x6; x12 = Integer.rotateLeft(x12 ^ x1, 8); x11 += x12; x6 = Integer.rotateLeft(x6 ^ x11, 7);
+			x2 += x7; x13 = Integer.rotateLeft(x13 ^ x2, 16); x8 += x13; x7 = Integer.rotateLeft(x7 ^ x8, 12);
+			x2 += x7; x13 = Integer.rotateLeft(x13 ^ x2, 8); x8 += x13; x7 = Integer.rotateLeft(x7 ^ x8, 7);
+			x3 += x4; x14 = Integer.rotateLeft(x14 ^ x3, 16); x9 += x14; x4 = Integer.rotateLeft(x4 ^ x9, 12);
+			x3 += x4; x14 = Integer.rotateLeft(x14 ^ x3, 8); x9 += x14; x4 = Integer.rotateLeft(x4 ^ x9, 7);
+		}
+		key[0] = x0;
+		key[1] = x1;
+		key[2] = x2;
+		key[3] = x3;
+		key[4] = x12;
+		key[5] = x13;
+		key[6] = x14;
+		key[7] = x15;
+	}
+
+	/**
+	 * Reads a little endian word.
+	 * @param bytes The array to read from.
+	 * @param offset Offset of the word.
+	 * @return The word.
+	 */
+	static int getInt(byte[] bytes, int offset) {
+		return (bytes[offset] & 0xFF) | ((bytes[offset + 1] & 0xFF) << 8)
+				| ((bytes[offset + 2] & 0xFF) << 16) | (bytes[offset + 3] << 24);
+	}
+
+	/**
+	 * Writes a little endian word.
+	 * @param bytes The array to write to.
+	 * @param offset Offset of the word.
+	 * @param value The word.
+	 */
+	private static void putInt(byte[] bytes, int offset, int value) {
+		bytes[offset] = (byte) value;
+		bytes[offset + 1] = (byte) (value >>> 8);
+		bytes[offset + 2] = (byte) (value >>> 16);
+		bytes[offset + 3] = (byte) (value >>> 24);
+	}
+}
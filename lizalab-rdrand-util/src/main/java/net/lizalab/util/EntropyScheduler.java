@@ -0,0 +1,389 @@
+/*
+ * Copyright 2013 Hemant Padmanabhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.lizalab.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Shares a single {@link RdRandBackend} between named consumer groups,
+ * keeping bulk consumers from saturating the DRNG at the expense of
+ * latency sensitive ones. Each group is itself an RdRandBackend, used
+ * through <code>new RdRandRandom(scheduler.register(...))</code>.
+ *
+ * <p>Every group draws against a token bucket quota of bytes per second
+ * with a burst allowance, draws beyond the quota wait for it to refill.
+ * Groups also belong to a {@link Priority} class. Draws of a lower class
+ * are deferred while draws of a higher class are in progress, and bulk
+ * fills by lower classes are drawn in chunks so a latency critical draw
+ * never waits behind more than one chunk per drawing thread.</p>
+ *
+ * <p>Per group metrics on bytes served, throttling by the quota and
+ * deferral by priority are kept in the group.</p>
+ *
+ * @author Hemant Padmanabhan
+ * @since 1.2
+ */
+public final class EntropyScheduler {
+
+	/**
+	 * Quota rate leaving a group unthrottled.
+	 */
+	public static final long UNLIMITED = Long.MAX_VALUE;
+
+	/**
+	 * Size of the chunks bulk fills by lower priority classes are drawn in.
+	 */
+	static final int CHUNK_SIZE = 4096;
+
+	/**
+	 * Interval at which a deferred draw checks whether higher priority draws have completed.
+	 */
+	private static final long DEFER_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(10);
+
+	/**
+	 * Priority classes of consumer groups, highest first.
+	 */
+	public enum Priority {
+		/**
+		 * Draws are never deferred, for example token or key issuance on a request path.
+		 */
+		LATENCY_CRITICAL,
+		/**
+		 * Draws are deferred while latency critical draws are in progress.
+		 */
+		NORMAL,
+		/**
+		 * Draws are deferred while any higher priority draws are in progress.
+		 */
+		BULK
+	}
+
+	/**
+	 * Backend shared by all groups.
+	 */
+	private final RdRandBackend backend;
+
+	/**
+	 * Number of draws in progress per priority class, indexed by ordinal.
+	 */
+	private final AtomicIntegerArray active = new AtomicIntegerArray(Priority.values().length);
+
+	/**
+	 * Registered groups by name.
+	 */
+	private final Map<String, Group> groups = new LinkedHashMap<String, Group>();
+
+	/**
+	 * Constructs a scheduler sharing the specified backend.
+	 * @param backend The backend serving random data to all groups.
+	 */
+	public EntropyScheduler(RdRandBackend backend) {
+		if (backend == null) {
+			throw new IllegalArgumentException("Missing rdrand backend!");
+		}
+		this.backend = backend;
+	}
+
+	/**
+	 * Registers a consumer group.
+	 * @param name Unique name of the group.
+	 * @param priority Priority class of the group.
+	 * @param bytesPerSecond Quota refill rate in bytes per second, or <code>UNLIMITED</code>.
+	 * @param burstBytes Maximum number of bytes the group may draw at once
+	 * before being throttled, ignored for unlimited groups.
+	 * @return Backend serving the group.
+	 */
+	public synchronized Group register(String name, Priority priority, long bytesPerSecond, long burstBytes) {
+		if (name == null || priority == null) {
+			throw new IllegalArgumentException("Missing group name or priority!");
+		}
+		if (bytesPerSecond <= 0 || (bytesPerSecond != UNLIMITED && burstBytes <= 0)) {
+			throw new IllegalArgumentException("Quota rate and burst must be positive!");
+		}
+		if (groups.containsKey(name)) {
+			throw new IllegalArgumentException("Group " + name + " already registered!");
+		}
+		Group group = new Group(name, priority, bytesPerSecond, burstBytes);
+		groups.put(name, group);
+		return group;
+	}
+
+	/**
+	 * Returns the group registered under the specified name.
+	 * @param name Name of the group.
+	 * @return The group, or null if none is registered under the name.
+	 */
+	public synchronized Group getGroup(String name) {
+		return groups.get(name);
+	}
+
+	/**
+	 * Returns all registered groups in registration order.
+	 * @return The registered groups.
+	 */
+	public synchronized Collection<Group> getGroups() {
+		return Collections.unmodifiableList(new ArrayList<Group>(groups.values()));
+	}
+
+	/**
+	 * Consumer group drawing from the shared backend under its quota and
+	 * priority class, and keeping its metrics.
+	 */
+	public final class Group extends AbstractRdRandBackend {
+
+		private final String name;
+
+		private final Priority priority;
+
+		/**
+		 * Quota refill rate in bytes per second.
+		 */
+		private final long rate;
+
+		/**
+		 * Maximum number of tokens the bucket holds.
+		 */
+		private final long burst;
+
+		/**
+		 * Bytes the group may draw before waiting, guarded by the group.
+		 */
+		private double tokens;
+
+		/**
+		 * Time the bucket was last refilled, guarded by the group.
+		 */
+		private long refilled;
+
+		private final AtomicLong draws = new AtomicLong();
+
+		private final AtomicLong bytesServed = new AtomicLong();
+
+		private final AtomicLong throttledDraws = new AtomicLong();
+
+		private final AtomicLong throttledNanos = new AtomicLong();
+
+		private final AtomicLong deferredDraws = new AtomicLong();
+
+		private final AtomicLong deferredNanos = new AtomicLong();
+
+		private Group(String name, Priority priority, long rate, long burst) {
+			this.name = name;
+			this.priority = priority;
+			this.rate = rate;
+			this.burst = burst;
+			tokens = burst;
+			refilled = System.nanoTime();
+		}
+
+		@Override
+		public RdRandStatus verify() {
+			return backend.verify();
+		}
+
+		@Override
+		public void nextBytes(byte[] bytes) {
+			if (priority == Priority.LATENCY_CRITICAL || bytes.length <= CHUNK_SIZE) {
+				acquire(bytes.length);
+				enter();
+				try {
+					backend.nextBytes(bytes);
+				} finally {
+					exit();
+				}
+			} else {
+				byte[] chunk = new byte[CHUNK_SIZE];
+				for (int offset = 0; offset < bytes.length; offset += CHUNK_SIZE) {
+					int len = Math.min(CHUNK_SIZE, bytes.length - offset);
+					if (len < CHUNK_SIZE) {
+						chunk = new byte[len];
+					}
+					acquire(len);
+					enter();
+					try {
+						backend.nextBytes(chunk);
+					} finally {
+						exit();
+					}
+					System.arraycopy(chunk, 0, bytes, offset, len);
+				}
+			}
+			draws.incrementAndGet();
+			bytesServed.addAndGet(bytes.length);
+		}
+
+		@Override
+		public int next(int bits) {
+			acquire(4);
+			enter();
+			int next;
+			try {
+				next = backend.next(bits);
+			} finally {
+				exit();
+			}
+			draws.incrementAndGet();
+			bytesServed.addAndGet(4);
+			return next;
+		}
+
+		/**
+		 * Takes the specified number of bytes from the quota, waiting for
+		 * the bucket to refill if needed. Draws larger than the burst
+		 * allowance are taken in burst sized installments.
+		 * @param bytes Number of bytes to take.
+		 */
+		private void acquire(long bytes) {
+			if (rate == UNLIMITED) {
+				return;
+			}
+			long waited = 0;
+			while (bytes > 0) {
+				long take = Math.min(bytes, burst);
+				long wait;
+				synchronized (this) {
+					long now = System.nanoTime();
+					tokens = Math.min(burst, tokens + (now - refilled) * (double) rate / TimeUnit.SECONDS.toNanos(1));
+					refilled = now;
+					if (tokens >= take) {
+						tokens -= take;
+						bytes -= take;
+						continue;
+					}
+					wait = (long) Math.ceil((take - tokens) * TimeUnit.SECONDS.toNanos(1) / rate);
+				}
+				long start = System.nanoTime();
+				LockSupport.parkNanos(wait);
+				waited += System.nanoTime() - start;
+			}
+			if (waited > 0) {
+				throttledDraws.incrementAndGet();
+				throttledNanos.addAndGet(waited);
+			}
+		}
+
+		/**
+		 * Registers a draw of this group's class as in progress, first
+		 * waiting for draws of higher classes to complete.
+		 */
+		private void enter() {
+			int ordinal = priority.ordinal();
+			active.incrementAndGet(ordinal);
+			if (!higherActive(ordinal)) {
+				return;
+			}
+			long start = System.nanoTime();
+			do {
+				LockSupport.parkNanos(DEFER_PARK_NANOS);
+			} while (higherActive(ordinal));
+			deferredDraws.incrementAndGet();
+			deferredNanos.addAndGet(System.nanoTime() - start);
+		}
+
+		/**
+		 * Checks whether draws of a class higher than the specified one are in progress.
+		 * @param ordinal Ordinal of the class.
+		 * @return True if higher priority draws are in progress.
+		 */
+		private boolean higherActive(int ordinal) {
+			for (int i = 0; i < ordinal; i++) {
+				if (active.get(i) > 0) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * Registers the completion of a draw of this group's class.
+		 */
+		private void exit() {
+			active.decrementAndGet(priority.ordinal());
+		}
+
+		/**
+		 * @return Name of the group.
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @return Priority class of the group.
+		 */
+		public Priority getPriority() {
+			return priority;
+		}
+
+		/**
+		 * @return Number of draws served, counting each fill or <code>next</code> call once.
+		 */
+		public long getDraws() {
+			return draws.get();
+		}
+
+		/**
+		 * @return Number of bytes served, counting 4 bytes per <code>next</code> call.
+		 */
+		public long getBytesServed() {
+			return bytesServed.get();
+		}
+
+		/**
+		 * @return Number of draws or chunks that waited for the quota to refill.
+		 */
+		public long getThrottledDraws() {
+			return throttledDraws.get();
+		}
+
+		/**
+		 * @return Total time in nanoseconds draws waited for the quota to refill.
+		 */
+		public long getThrottledNanos() {
+			return throttledNanos.get();
+		}
+
+		/**
+		 * @return Number of draws or chunks deferred behind higher priority draws.
+		 */
+		public long getDeferredDraws() {
+			return deferredDraws.get();
+		}
+
+		/**
+		 * @return Total time in nanoseconds draws were deferred behind higher priority draws.
+		 */
+		public long getDeferredNanos() {
+			return deferredNanos.get();
+		}
+
+		@Override
+		public String toString() {
+			return name + " [" + priority + ", draws=" + getDraws() + ", bytes=" + getBytesServed()
+					+ ", throttled=" + getThrottledDraws() + "/" + TimeUnit.NANOSECONDS.toMillis(getThrottledNanos())
+					+ "ms, deferred=" + getDeferredDraws() + "/" + TimeUnit.NANOSECONDS.toMillis(getDeferredNanos()) + "ms]";
+		}
+	}
+}
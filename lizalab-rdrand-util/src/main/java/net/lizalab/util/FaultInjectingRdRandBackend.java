@@ -0,0 +1,300 @@
+/*
+ * Copyright 2013 Hemant Padmanabhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.lizalab.util;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * {@link RdRandBackend} wrapper injecting failures and latency spikes,
+ * standing in for the native calls to exercise how callers cope with
+ * RdRand underflow, for example in a soak test. Draws that are not
+ * failed are served by the wrapped backend.
+ *
+ * <p>Failures are thrown as {@link RdRandException} with the configured
+ * status, typically <code>NOT_READY</code> or <code>UNSUPPORTED</code>,
+ * and can be injected at random at a given rate, in bursts of
+ * consecutive draws at a fixed period, or for every draw once a number of
+ * draws was served. Latency spikes park the drawing thread. All injection
+ * is off until configured and may be reconfigured while in use, each
+ * setter taking effect atomically. Random injection is driven by one
+ * generator per drawing thread, so injection adds no contention to the
+ * latencies measured. The generators are seeded from the configured seed
+ * in the order threads first draw, so single threaded runs are
+ * reproducible, multi-threaded runs only if threads start drawing in the
+ * same order.</p>
+ *
+ * @author Hemant Padmanabhan
+ * @since 1.2
+ */
+public final class FaultInjectingRdRandBackend extends AbstractRdRandBackend {
+
+	/**
+	 * Increment separating the seeds of the per-thread generators.
+	 */
+	private static final long SEED_INCREMENT = 0x9E3779B97F4A7C15L;
+
+	private final RdRandBackend delegate;
+
+	private final long seed;
+
+	/**
+	 * Number of threads that have drawn, numbering their generators.
+	 */
+	private final AtomicLong threads = new AtomicLong();
+
+	/**
+	 * Generator driving random injection for each drawing thread.
+	 */
+	private final ThreadLocal<Random> random = new ThreadLocal<Random>() {
+		@Override
+		protected Random initialValue() {
+			return new Random(seed + threads.getAndIncrement() * SEED_INCREMENT);
+		}
+	};
+
+	/**
+	 * Current configuration, replaced as a whole so draws never see it half applied.
+	 */
+	private volatile Faults faults = new Faults(null, 0, null, 1, 0, null, Long.MAX_VALUE, 0, 0);
+
+	private final AtomicLong draws = new AtomicLong();
+
+	private final AtomicLong failures = new AtomicLong();
+
+	private final AtomicLong spikes = new AtomicLong();
+
+	/**
+	 * Constructs a backend injecting faults into draws from the native backend.
+	 * @param seed Seed of the generators driving random injection.
+	 */
+	public FaultInjectingRdRandBackend(long seed) {
+		this(new NativeRdRandBackend(), seed);
+	}
+
+	/**
+	 * Constructs a backend injecting faults into draws from the specified backend.
+	 * @param delegate The backend serving draws that are not failed.
+	 * @param seed Seed of the generators driving random injection.
+	 */
+	public FaultInjectingRdRandBackend(RdRandBackend delegate, long seed) {
+		if (delegate == null) {
+			throw new IllegalArgumentException("Missing rdrand backend!");
+		}
+		this.delegate = delegate;
+		this.seed = seed;
+	}
+
+	/**
+	 * Checks a status can be injected as a failure.
+	 * @param status The status.
+	 */
+	private static void checkFailure(RdRandStatus status) {
+		if (status == null || status == RdRandStatus.SUCCESS) {
+			throw new IllegalArgumentException("Injected status must be a failure!");
+		}
+	}
+
+	/**
+	 * Checks a rate is a probability.
+	 * @param rate The rate.
+	 */
+	private static void checkRate(double rate) {
+		if (!(rate >= 0 && rate <= 1)) {
+			throw new IllegalArgumentException("Rate must be between 0 and 1!");
+		}
+	}
+
+	/**
+	 * Fails draws at random.
+	 * @param status The status to fail with.
+	 * @param rate Probability of failing each draw, 0 to stop.
+	 */
+	public synchronized void setFailureRate(RdRandStatus status, double rate) {
+		checkFailure(status);
+		checkRate(rate);
+		Faults f = faults;
+		faults = new Faults(status, rate, f.burstStatus, f.burstPeriod, f.burstLength, f.afterStatus, f.afterDraws,
+				f.spikeRate, f.spikeNanos);
+	}
+
+	/**
+	 * Fails bursts of consecutive draws, the last <code>length</code>
+	 * draws of every <code>period</code> draws.
+	 * @param status The status to fail with.
+	 * @param period Number of draws from the start of one burst to the next.
+	 * @param length Number of draws failed in each burst, 0 to stop.
+	 */
+	public synchronized void setFailureBursts(RdRandStatus status, long period, long length) {
+		checkFailure(status);
+		if (period < 1 || length < 0 || length > period) {
+			throw new IllegalArgumentException("Burst length must be between 0 and a positive period!");
+		}
+		Faults f = faults;
+		faults = new Faults(f.randomStatus, f.failureRate, status, period, length, f.afterStatus, f.afterDraws,
+				f.spikeRate, f.spikeNanos);
+	}
+
+	/**
+	 * Fails every draw once the specified number of draws was made, as
+	 * when a host loses RdRand.
+	 * @param status The status to fail with.
+	 * @param draws Number of draws made before failing, <code>Long.MAX_VALUE</code> to stop.
+	 */
+	public synchronized void setFailureAfter(RdRandStatus status, long draws) {
+		checkFailure(status);
+		if (draws < 0) {
+			throw new IllegalArgumentException("Draws must not be negative!");
+		}
+		Faults f = faults;
+		faults = new Faults(f.randomStatus, f.failureRate, f.burstStatus, f.burstPeriod, f.burstLength, status,
+				draws, f.spikeRate, f.spikeNanos);
+	}
+
+	/**
+	 * Delays draws at random.
+	 * @param rate Probability of delaying each draw, 0 to stop.
+	 * @param nanos Duration of each delay.
+	 */
+	public synchronized void setLatencySpikes(double rate, long nanos) {
+		checkRate(rate);
+		if (nanos < 0) {
+			throw new IllegalArgumentException("Delay must not be negative!");
+		}
+		Faults f = faults;
+		faults = new Faults(f.randomStatus, f.failureRate, f.burstStatus, f.burstPeriod, f.burstLength,
+				f.afterStatus, f.afterDraws, rate, nanos);
+	}
+
+	/**
+	 * Injects the configured faults into the next draw.
+	 * @throws RdRandException If the draw is failed.
+	 */
+	private void inject() {
+		Faults f = faults;
+		long draw = draws.getAndIncrement();
+		if (f.spikeRate > 0 && random.get().nextDouble() < f.spikeRate) {
+			spikes.incrementAndGet();
+			LockSupport.parkNanos(f.spikeNanos);
+		}
+		RdRandStatus status = null;
+		if (draw >= f.afterDraws) {
+			status = f.afterStatus;
+		} else if (f.burstLength > 0 && draw % f.burstPeriod >= f.burstPeriod - f.burstLength) {
+			status = f.burstStatus;
+		} else if (f.failureRate > 0 && random.get().nextDouble() < f.failureRate) {
+			status = f.randomStatus;
+		}
+		if (status != null) {
+			failures.incrementAndGet();
+			throw new RdRandException(status);
+		}
+	}
+
+	/**
+	 * Verifies the wrapped backend, or reports the failure status once
+	 * every draw fails.
+	 * @return SUCCESS if draws can be served, otherwise the status explaining
+	 * why they cannot.
+	 */
+	@Override
+	public RdRandStatus verify() {
+		Faults f = faults;
+		if (draws.get() >= f.afterDraws) {
+			return f.afterStatus;
+		}
+		return delegate.verify();
+	}
+
+	@Override
+	public void nextBytes(byte[] bytes) {
+		inject();
+		delegate.nextBytes(bytes);
+	}
+
+	@Override
+	public int next(int bits) {
+		inject();
+		return delegate.next(bits);
+	}
+
+	/**
+	 * @return Number of draws made.
+	 */
+	public long getDraws() {
+		return draws.get();
+	}
+
+	/**
+	 * @return Number of draws failed.
+	 */
+	public long getFailures() {
+		return failures.get();
+	}
+
+	/**
+	 * @return Number of draws delayed.
+	 */
+	public long getSpikes() {
+		return spikes.get();
+	}
+
+	@Override
+	public String toString() {
+		return "FaultInjectingRdRandBackend[" + delegate + ", " + draws.get() + " draws, "
+				+ failures.get() + " failed]";
+	}
+
+	/**
+	 * Immutable injection configuration, published through a single
+	 * volatile field.
+	 */
+	private static final class Faults {
+
+		private final RdRandStatus randomStatus;
+
+		private final double failureRate;
+
+		private final RdRandStatus burstStatus;
+
+		private final long burstPeriod;
+
+		private final long burstLength;
+
+		private final RdRandStatus afterStatus;
+
+		private final long afterDraws;
+
+		private final double spikeRate;
+
+		private final long spikeNanos;
+
+		private Faults(RdRandStatus randomStatus, double failureRate, RdRandStatus burstStatus, long burstPeriod,
+				long burstLength, RdRandStatus afterStatus, long afterDraws, double spikeRate, long spikeNanos) {
+			this.randomStatus = randomStatus;
+			this.failureRate = failureRate;
+			this.burstStatus = burstStatus;
+			this.burstPeriod = burstPeriod;
+			this.burstLength = burstLength;
+			this.afterStatus = afterStatus;
+			this.afterDraws = afterDraws;
+			this.spikeRate = spikeRate;
+			this.spikeNanos = spikeNanos;
+		}
+	}
+}
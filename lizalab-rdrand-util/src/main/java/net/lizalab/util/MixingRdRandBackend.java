@@ -0,0 +1,311 @@
+/*
+ * Copyright 2013 Hemant Padmanabhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.lizalab.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link RdRandBackend} mixing RdRand output with operating system entropy,
+ * for uses such as key generation that must not rely on RdRand alone.
+ *
+ * <p>Output is ChaCha20 keystream. Before every <code>CHUNK_SIZE</code>
+ * bytes of output, 32 bytes of RdRand, drawn in bulk, are absorbed into
+ * the key with HChaCha20. At least once per reseed interval, one second
+ * by default, 32 bytes of <code>/dev/urandom</code> are absorbed as well.
+ * After each chunk the key is replaced by the first keystream block, so
+ * a later compromise of the state does not reveal earlier output, and
+ * served bytes are wiped from the buffer.</p>
+ *
+ * <p>The output stays unpredictable as long as either input is. If RdRand
+ * is compromised, the key still carries the operating system entropy,
+ * and HChaCha20 under a secret key is a pseudo-random function of the
+ * RdRand input. If the operating system entropy is compromised, every
+ * chunk is keyed by fresh RdRand output. After a full compromise of the
+ * state, either input restores it, at the next chunk or the next reseed.</p>
+ *
+ * <p>Operating system entropy is read from <code>/dev/urandom</code>,
+ * or from the default <code>SecureRandom</code> where it does not exist.
+ * Instances are safe for use by multiple threads, serializing draws.
+ * Threads drawing heavily should use an instance each.</p>
+ *
+ * @author Hemant Padmanabhan
+ * @since 1.2
+ */
+public final class MixingRdRandBackend extends AbstractRdRandBackend {
+
+	/**
+	 * Bytes of output generated per key.
+	 */
+	public static final int CHUNK_SIZE = 4096;
+
+	/**
+	 * Default interval between absorbing operating system entropy.
+	 */
+	public static final long DEFAULT_RESEED_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+	/**
+	 * Source of operating system entropy on Unix hosts.
+	 */
+	public static final File URANDOM = new File("/dev/urandom");
+
+	/**
+	 * Bytes of each input absorbed at a time.
+	 */
+	private static final int ABSORB_SIZE = ChaCha20.KEY_SIZE;
+
+	/**
+	 * Number of chunks of RdRand input drawn in a single bulk draw.
+	 */
+	private static final int RDRAND_BATCH = 64;
+
+	private final RdRandBackend rdrand;
+
+	private final RdRandBackend system;
+
+	private final long reseedNanos;
+
+	/**
+	 * The current key, guarded by this.
+	 */
+	private final int[] key = new int[8];
+
+	/**
+	 * ChaCha20 nonce, always zero as every key is used once.
+	 */
+	private final int[] nonce = new int[3];
+
+	/**
+	 * Block the next key is taken from.
+	 */
+	private final byte[] keyBlock = new byte[ChaCha20.BLOCK_SIZE];
+
+	/**
+	 * Output served from <code>position</code> on.
+	 */
+	private final byte[] buffer = new byte[CHUNK_SIZE];
+
+	private int position = CHUNK_SIZE;
+
+	/**
+	 * RdRand input absorbed from <code>rdrandPosition</code> on.
+	 */
+	private final byte[] rdrandBuffer = new byte[RDRAND_BATCH * ABSORB_SIZE];
+
+	private int rdrandPosition = rdrandBuffer.length;
+
+	private final byte[] systemBuffer = new byte[ABSORB_SIZE];
+
+	private boolean seeded;
+
+	private long reseeded;
+
+	private long chunks;
+
+	private long reseeds;
+
+	/**
+	 * Constructs a backend mixing RdRand with operating system entropy.
+	 */
+	public MixingRdRandBackend() {
+		this(new NativeRdRandBackend());
+	}
+
+	/**
+	 * Constructs a backend mixing the output of the specified backend with
+	 * operating system entropy.
+	 * @param rdrand The backend serving RdRand output.
+	 */
+	public MixingRdRandBackend(RdRandBackend rdrand) {
+		this(rdrand, new SystemEntropy(), DEFAULT_RESEED_NANOS);
+	}
+
+	/**
+	 * Constructs a backend mixing the specified sources.
+	 * @param rdrand The backend serving RdRand output.
+	 * @param system The backend serving operating system entropy.
+	 * @param reseedNanos Interval between absorbing operating system entropy.
+	 */
+	MixingRdRandBackend(RdRandBackend rdrand, RdRandBackend system, long reseedNanos) {
+		if (rdrand == null || system == null) {
+			throw new IllegalArgumentException("Missing rdrand or system entropy backend!");
+		}
+		if (reseedNanos < 0) {
+			throw new IllegalArgumentException("Reseed interval must not be negative!");
+		}
+		this.rdrand = rdrand;
+		this.system = system;
+		this.reseedNanos = reseedNanos;
+	}
+
+	@Override
+	public RdRandStatus verify() {
+		RdRandStatus status = rdrand.verify();
+		return status == RdRandStatus.SUCCESS ? system.verify() : status;
+	}
+
+	@Override
+	public synchronized void nextBytes(byte[] bytes) {
+		int offset = serve(bytes, 0);
+		// Whole chunks go straight into the array.
+		while (bytes.length - offset >= CHUNK_SIZE) {
+			generate(bytes, offset);
+			offset += CHUNK_SIZE;
+		}
+		if (offset < bytes.length) {
+			generate(buffer, 0);
+			position = 0;
+			serve(bytes, offset);
+		}
+	}
+
+	@Override
+	public synchronized int next(int bits) {
+		if (CHUNK_SIZE - position < 4) {
+			generate(buffer, 0);
+			position = 0;
+		}
+		int next = ((buffer[position] & 0xFF) << 24) | ((buffer[position + 1] & 0xFF) << 16)
+				| ((buffer[position + 2] & 0xFF) << 8) | (buffer[position + 3] & 0xFF);
+		Arrays.fill(buffer, position, position + 4, (byte) 0);
+		position += 4;
+		return (int) ((next & 0xFFFFFFFFL) >>> (32 - bits));
+	}
+
+	/**
+	 * Copies buffered output into the array, wiping it from the buffer.
+	 * @param bytes The array to fill.
+	 * @param offset Offset to fill from.
+	 * @return Offset following the bytes filled.
+	 */
+	private int serve(byte[] bytes, int offset) {
+		int len = Math.min(bytes.length - offset, CHUNK_SIZE - position);
+		System.arraycopy(buffer, position, bytes, offset, len);
+		Arrays.fill(buffer, position, position + len, (byte) 0);
+		position += len;
+		return offset + len;
+	}
+
+	/**
+	 * Absorbs fresh input into the key, writes a chunk of output and
+	 * replaces the key.
+	 * @param out The array to write the chunk to.
+	 * @param offset Offset to write the chunk at.
+	 */
+	private void generate(byte[] out, int offset) {
+		if (!seeded || System.nanoTime() - reseeded >= reseedNanos) {
+			system.nextBytes(systemBuffer);
+			absorb(systemBuffer, 0);
+			Arrays.fill(systemBuffer, (byte) 0);
+			seeded = true;
+			reseeded = System.nanoTime();
+			reseeds++;
+		}
+		if (rdrandPosition == rdrandBuffer.length) {
+			rdrand.nextBytes(rdrandBuffer);
+			rdrandPosition = 0;
+		}
+		absorb(rdrandBuffer, rdrandPosition);
+		Arrays.fill(rdrandBuffer, rdrandPosition, rdrandPosition + ABSORB_SIZE, (byte) 0);
+		rdrandPosition += ABSORB_SIZE;
+
+		ChaCha20.block(key, 0, nonce, keyBlock, 0);
+		for (int i = 0; i < CHUNK_SIZE / ChaCha20.BLOCK_SIZE; i++) {
+			ChaCha20.block(key, i + 1, nonce, out, offset + i * ChaCha20.BLOCK_SIZE);
+		}
+		for (int i = 0; i < key.length; i++) {
+			key[i] = ChaCha20.getInt(keyBlock, i * 4);
+		}
+		Arrays.fill(keyBlock, (byte) 0);
+		chunks++;
+	}
+
+	/**
+	 * Absorbs 32 bytes of input into the key.
+	 * @param input The input array.
+	 * @param offset Offset of the input.
+	 */
+	private void absorb(byte[] input, int offset) {
+		ChaCha20.hchacha(key, input, offset);
+		ChaCha20.hchacha(key, input, offset + 16);
+	}
+
+	/**
+	 * @return Number of chunks of output generated.
+	 */
+	public synchronized long getChunks() {
+		return chunks;
+	}
+
+	/**
+	 * @return Number of times operating system entropy was absorbed.
+	 */
+	public synchronized long getReseeds() {
+		return reseeds;
+	}
+
+	/**
+	 * Operating system entropy from <code>/dev/urandom</code>, or the
+	 * default <code>SecureRandom</code> where it does not exist.
+	 */
+	private static final class SystemEntropy extends AbstractRdRandBackend {
+
+		private final SecureRandom fallback = URANDOM.exists() ? null : new SecureRandom();
+
+		@Override
+		public RdRandStatus verify() {
+			return RdRandStatus.SUCCESS;
+		}
+
+		@Override
+		public void nextBytes(byte[] bytes) {
+			if (fallback != null) {
+				fallback.nextBytes(bytes);
+				return;
+			}
+			try {
+				InputStream in = new FileInputStream(URANDOM);
+				try {
+					int offset = 0;
+					while (offset < bytes.length) {
+						int read = in.read(bytes, offset, bytes.length - offset);
+						if (read < 0) {
+							throw new IOException("Unexpected end of " + URANDOM);
+						}
+						offset += read;
+					}
+				} finally {
+					in.close();
+				}
+			} catch (IOException e) {
+				throw new IllegalStateException("Failed to read system entropy from " + URANDOM, e);
+			}
+		}
+
+		@Override
+		public int next(int bits) {
+			byte[] bytes = new byte[4];
+			nextBytes(bytes);
+			return (int) ((ChaCha20.getInt(bytes, 0) & 0xFFFFFFFFL) >>> (32 - bits));
+		}
+	}
+}
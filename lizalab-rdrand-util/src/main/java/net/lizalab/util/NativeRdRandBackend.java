@@ -0,0 +1,58 @@
+/*
+ * Copyright 2013 Hemant Padmanabhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.lizalab.util;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+
+/**
+ * {@link RdRandBackend} calling the RdRand instruction through the
+ * native methods of {@link RdRandUtil}. Stateless, a single instance
+ * can be shared freely.
+ * 
+ * @author Hemant Padmanabhan
+ * @since 1.2
+ */
+public final class NativeRdRandBackend extends AbstractRdRandBackend implements Serializable {
+
+	private static final long serialVersionUID = -6126381279637366020L;
+
+	@Override
+	public RdRandStatus verify() {
+		return RdRandUtil.verify();
+	}
+
+	@Override
+	public void nextBytes(byte[] bytes) {
+		RdRandUtil.nextBytes(bytes);
+	}
+
+	@Override
+	public void nextBytes(ByteBuffer buffer) {
+		RdRandUtil.nextBytes(buffer);
+	}
+
+	@Override
+	public int next(int bits) {
+		return RdRandUtil.next(bits);
+	}
+
+	@Override
+	public String toString() {
+		return "net.lizalab.util.RdRandUtil";
+	}
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2013 Hemant Padmanabhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.lizalab.util;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Mapping of CPUs to NUMA nodes, as read from the <code>cpulist</code>
+ * files under <code>/sys/devices/system/node</code>. Hosts without the
+ * node directory, such as non-Linux hosts, are treated as a single node
+ * holding all available processors.
+ *
+ * @author Hemant Padmanabhan
+ * @since 1.2
+ */
+public final class NumaTopology {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(NumaTopology.class);
+
+	/**
+	 * Directory the kernel describes NUMA nodes in.
+	 */
+	public static final File SYSFS_NODES = new File("/sys/devices/system/node");
+
+	private static final Pattern NODE_DIRECTORY = Pattern.compile("node\\d+");
+
+	/**
+	 * Node of each CPU, indexed by CPU number.
+	 */
+	private final int[] nodes;
+
+	private final int nodeCount;
+
+	private NumaTopology(int[] nodes, int nodeCount) {
+		this.nodes = nodes;
+		this.nodeCount = nodeCount;
+	}
+
+	/**
+	 * Reads the topology of the host.
+	 * @return The host topology.
+	 */
+	public static NumaTopology read() {
+		return read(SYSFS_NODES);
+	}
+
+	/**
+	 * Reads the topology described in the specified sysfs node directory.
+	 * @param directory The node directory.
+	 * @return The topology, a single node if the directory cannot be read.
+	 */
+	static NumaTopology read(File directory) {
+		final String methodName = "read : ";
+
+		File[] nodeDirectories = directory.listFiles();
+		if (nodeDirectories != null) {
+			try {
+				int[] nodes = new int[0];
+				int nodeCount = 0;
+				for (File nodeDirectory : nodeDirectories) {
+					if (!NODE_DIRECTORY.matcher(nodeDirectory.getName()).matches()) {
+						continue;
+					}
+					int node = Integer.parseInt(nodeDirectory.getName().substring(4));
+					for (int cpu : parseCpuList(readLine(new File(nodeDirectory, "cpulist")))) {
+						if (cpu >= nodes.length) {
+							int length = nodes.length;
+							nodes = Arrays.copyOf(nodes, cpu + 1);
+							Arrays.fill(nodes, length, nodes.length, -1);
+						}
+						nodes[cpu] = node;
+					}
+					nodeCount = Math.max(nodeCount, node + 1);
+				}
+				if (nodeCount > 0) {
+					for (int i = 0; i < nodes.length; i++) {
+						// CPUs missing from every list, such as offline ones, go to node 0.
+						if (nodes[i] < 0) {
+							nodes[i] = 0;
+						}
+					}
+					return new NumaTopology(nodes, nodeCount);
+				}
+			} catch (IOException e) {
+				LOGGER.warn("{} Failed to read NUMA topology from {} due to {}", methodName, directory, e);
+			} catch (NumberFormatException e) {
+				LOGGER.warn("{} Failed to parse NUMA topology from {} due to {}", methodName, directory, e);
+			}
+		}
+		return new NumaTopology(new int[Runtime.getRuntime().availableProcessors()], 1);
+	}
+
+	/**
+	 * Reads the first line of a file.
+	 * @param file The file.
+	 * @return The first line, empty if the file is empty.
+	 * @throws IOException If the file cannot be read.
+	 */
+	private static String readLine(File file) throws IOException {
+		BufferedReader reader = new BufferedReader(new FileReader(file));
+		try {
+			String line = reader.readLine();
+			return line == null ? "" : line.trim();
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Parses a kernel CPU list such as <code>0-3,8-11</code>.
+	 * @param list The CPU list.
+	 * @return The CPUs in the list.
+	 */
+	static int[] parseCpuList(String list) {
+		int[] cpus = new int[0];
+		if (list.isEmpty()) {
+			return cpus;
+		}
+		for (String range : list.split(",")) {
+			int dash = range.indexOf('-');
+			int first = Integer.parseInt(range.substring(0, dash < 0 ? range.length() : dash).trim());
+			int last = dash < 0 ? first : Integer.parseInt(range.substring(dash + 1).trim());
+			int length = cpus.length;
+			cpus = Arrays.copyOf(cpus, length + last - first + 1);
+			for (int cpu = first; cpu <= last; cpu++) {
+				cpus[length + cpu - first] = cpu;
+			}
+		}
+		return cpus;
+	}
+
+	/**
+	 * @return Number of NUMA nodes.
+	 */
+	public int getNodeCount() {
+		return nodeCount;
+	}
+
+	/**
+	 * @return Number of CPU numbers known, one more than the highest CPU number.
+	 */
+	public int getCpuCount() {
+		return nodes.length;
+	}
+
+	/**
+	 * Returns the node of the specified CPU.
+	 * @param cpu The CPU number.
+	 * @return The node of the CPU, node 0 if the CPU is unknown.
+	 */
+	public int nodeOf(int cpu) {
+		return cpu >= 0 && cpu < nodes.length ? nodes[cpu] : 0;
+	}
+
+	@Override
+	public String toString() {
+		return nodeCount + " nodes, " + nodes.length + " cpus " + Arrays.toString(nodes);
+	}
+}
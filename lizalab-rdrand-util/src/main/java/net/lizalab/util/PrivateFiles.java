@@ -0,0 +1,199 @@
+/*
+ * Copyright 2013 Hemant Padmanabhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.lizalab.util;
+
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Creates and checks files only their owner may use, such as secrets,
+ * rings of random bytes and the extracted native library, so other local
+ * users can neither read them nor substitute their own. Permission checks
+ * need a POSIX file system; elsewhere only ownership is checked.
+ *
+ * @author Hemant Padmanabhan
+ * @since 1.2
+ */
+final class PrivateFiles {
+
+	/**
+	 * Permissions of files only their owner may read or write.
+	 */
+	static final Set<PosixFilePermission> OWNER_READ_WRITE = PosixFilePermissions.fromString("rw-------");
+
+	/**
+	 * Permissions of directories only their owner may use.
+	 */
+	static final Set<PosixFilePermission> OWNER_ALL = PosixFilePermissions.fromString("rwx------");
+
+	/**
+	 * Permissions granting group or others write access.
+	 */
+	static final Set<PosixFilePermission> SHARED_WRITE = EnumSet.of(PosixFilePermission.GROUP_WRITE,
+			PosixFilePermission.OTHERS_WRITE);
+
+	/**
+	 * Permissions granting group or others any access.
+	 */
+	static final Set<PosixFilePermission> SHARED_ANY = EnumSet.complementOf(EnumSet.of(
+			PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE, PosixFilePermission.OWNER_EXECUTE));
+
+	/**
+	 * The user running the JVM, looked up on first use.
+	 */
+	private static volatile UserPrincipal currentUser;
+
+	private PrivateFiles() {
+	}
+
+	/**
+	 * Checks whether the file system of a path supports POSIX permissions.
+	 * @param path The path.
+	 * @return True if POSIX permissions are supported.
+	 */
+	static boolean isPosix(Path path) {
+		return path.getFileSystem().supportedFileAttributeViews().contains("posix");
+	}
+
+	/**
+	 * Returns the attribute creating a file or directory with the
+	 * specified permissions, if supported.
+	 * @param path The path being created.
+	 * @param permissions The permissions.
+	 * @return The attributes, empty on file systems without POSIX permissions.
+	 */
+	private static FileAttribute<?>[] attributes(Path path, Set<PosixFilePermission> permissions) {
+		if (!isPosix(path)) {
+			return new FileAttribute<?>[0];
+		}
+		return new FileAttribute<?>[] {PosixFilePermissions.asFileAttribute(permissions)};
+	}
+
+	/**
+	 * Creates a new file only its owner may read or write, failing if
+	 * anything, including a symbolic link, already exists at the path.
+	 * @param path The file to create.
+	 * @return The created file.
+	 * @throws IOException If the file exists or cannot be created.
+	 */
+	static Path createFile(Path path) throws IOException {
+		return Files.createFile(path, attributes(path, OWNER_READ_WRITE));
+	}
+
+	/**
+	 * Creates a new file with a random name in the specified directory,
+	 * only its owner may read or write.
+	 * @param directory The directory to create the file in.
+	 * @param prefix Prefix of the file name.
+	 * @return The created file.
+	 * @throws IOException If the file cannot be created.
+	 */
+	static Path createTempFile(Path directory, String prefix) throws IOException {
+		return Files.createTempFile(directory, prefix, ".tmp", attributes(directory, OWNER_READ_WRITE));
+	}
+
+	/**
+	 * Returns a directory only the current user may use, creating it if
+	 * missing.
+	 * @param path The directory.
+	 * @return The directory.
+	 * @throws IOException If the directory cannot be created, or exists
+	 * but is not private to the current user.
+	 */
+	static Path privateDirectory(Path path) throws IOException {
+		if (!Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+			try {
+				Files.createDirectory(path, attributes(path, OWNER_ALL));
+			} catch (FileAlreadyExistsException e) {
+				// Created concurrently, checked below.
+			}
+		}
+		if (!Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+			throw new IOException(path + " is not a directory!");
+		}
+		checkOwned(path, SHARED_ANY);
+		return path;
+	}
+
+	/**
+	 * Checks a path is not a symbolic link, is owned by the current user
+	 * and grants none of the specified permissions. In directories with
+	 * the sticky bit set, such as <code>/tmp</code> and
+	 * <code>/dev/shm</code>, only the owner can then replace the file.
+	 * @param path The path to check.
+	 * @param forbidden Permissions the path must not grant.
+	 * @throws IOException If the path fails the check or cannot be read.
+	 */
+	static void checkOwned(Path path, Set<PosixFilePermission> forbidden) throws IOException {
+		if (Files.isSymbolicLink(path)) {
+			throw new IOException(path + " is a symbolic link!");
+		}
+		UserPrincipal owner;
+		if (isPosix(path)) {
+			PosixFileAttributes attributes = Files.getFileAttributeView(path, PosixFileAttributeView.class,
+					LinkOption.NOFOLLOW_LINKS).readAttributes();
+			for (PosixFilePermission permission : attributes.permissions()) {
+				if (forbidden.contains(permission)) {
+					throw new IOException(path + " grants " + permission + " to other users!");
+				}
+			}
+			owner = attributes.owner();
+		} else {
+			owner = Files.getOwner(path, LinkOption.NOFOLLOW_LINKS);
+		}
+		if (!owner.equals(currentUser())) {
+			throw new IOException(path + " is owned by " + owner.getName() + "!");
+		}
+	}
+
+	/**
+	 * Looks up the user running the JVM, by name or, for users without a
+	 * name such as in some containers, as the owner of a new file.
+	 * @return The current user.
+	 * @throws IOException If the user cannot be looked up.
+	 */
+	private static UserPrincipal currentUser() throws IOException {
+		UserPrincipal user = currentUser;
+		if (user == null) {
+			try {
+				user = FileSystems.getDefault().getUserPrincipalLookupService()
+						.lookupPrincipalByName(System.getProperty("user.name"));
+			} catch (IOException e) {
+				Path probe = Files.createTempFile("rdrand-owner", ".tmp");
+				try {
+					user = Files.getOwner(probe);
+				} finally {
+					Files.delete(probe);
+				}
+			}
+			currentUser = user;
+		}
+		return user;
+	}
+}
@@ -0,0 +1,385 @@
+/*
+ * Copyright 2013 Hemant Padmanabhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.lizalab.util;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Asynchronous access to RdRand for callers that must not block inside
+ * JNI, such as virtual threads or reactive pipelines. Bulk fills are run
+ * on a dedicated, bounded pool of platform daemon threads so the calling
+ * thread only ever waits on a <code>Future</code> or receives blocks
+ * through a subscription.
+ *
+ * <p>Streams of random blocks are delivered to a {@link Subscriber} with
+ * demand signalled through its {@link Subscription}, following the same
+ * protocol as reactive streams so adapters to <code>java.util.concurrent.Flow</code>
+ * or other reactive libraries are straightforward. When the pool queue
+ * is full, streams wait for room in the queue rather than failing.</p>
+ *
+ * @author Hemant Padmanabhan
+ * @since 1.2
+ */
+public final class RdRandAsync implements Closeable {
+
+	/**
+	 * Default maximum number of fills queued waiting for a pool thread.
+	 */
+	public static final int DEFAULT_QUEUE_SIZE = 1024;
+
+	/**
+	 * Receives random blocks from a subscription. Signals are serialized,
+	 * no two methods are invoked concurrently for the same subscription.
+	 */
+	public interface Subscriber {
+
+		/**
+		 * Invoked once before any other signal with the subscription used
+		 * to request blocks.
+		 * @param subscription The subscription for this subscriber.
+		 */
+		void onSubscribe(Subscription subscription);
+
+		/**
+		 * Invoked with each random block, never more often than requested.
+		 * @param block Buffer holding a block of random bytes.
+		 */
+		void onNext(ByteBuffer block);
+
+		/**
+		 * Invoked once if the stream fails, no further signals follow.
+		 * @param error The failure cause, an RdRandException for RdRand failures.
+		 */
+		void onError(Throwable error);
+	}
+
+	/**
+	 * Demand and cancellation handle for a stream of random blocks.
+	 */
+	public interface Subscription {
+
+		/**
+		 * Requests the specified number of additional blocks.
+		 * @param n Number of blocks requested, must be positive.
+		 */
+		void request(long n);
+
+		/**
+		 * Stops delivery of blocks. Blocks being generated may still be delivered.
+		 */
+		void cancel();
+	}
+
+	/**
+	 * Pool running the native fills.
+	 */
+	private final ThreadPoolExecutor executor;
+
+	/**
+	 * Subscriptions waiting for room in the pool queue, resubmitted as
+	 * pool threads take queued tasks.
+	 */
+	private final ConcurrentLinkedQueue<BlockSubscription> deferred = new ConcurrentLinkedQueue<BlockSubscription>();
+
+	/**
+	 * Constructs an instance with one pool thread per available processor
+	 * and the default queue size.
+	 */
+	public RdRandAsync() {
+		this(Runtime.getRuntime().availableProcessors(), DEFAULT_QUEUE_SIZE);
+	}
+
+	/**
+	 * Constructs an instance with the specified pool bounds.
+	 * @param threads Number of pool threads running native fills.
+	 * @param queueSize Maximum number of fills queued waiting for a pool thread.
+	 * @throws IllegalArgumentException If either bound is not positive.
+	 */
+	public RdRandAsync(int threads, int queueSize) {
+		if (threads <= 0 || queueSize <= 0) {
+			throw new IllegalArgumentException("Thread count and queue size must be positive!");
+		}
+		executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(queueSize), new DaemonThreadFactory()) {
+			@Override
+			protected void beforeExecute(Thread t, Runnable r) {
+				// The task just left the queue, making room for a waiting stream.
+				BlockSubscription waiting = deferred.poll();
+				if (waiting != null) {
+					waiting.submit(false);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Fills a buffer with the specified number of random bytes on the pool.
+	 * @param n Number of random bytes to generate.
+	 * @return Future completing with a buffer of <code>n</code> random bytes, or
+	 * failing with an RdRandException if RdRand returns a non-success status.
+	 * @throws IllegalArgumentException If the byte count is negative.
+	 * @throws RejectedExecutionException If the queue is full or the instance is closed.
+	 */
+	public Future<ByteBuffer> nextBytesAsync(final int n) {
+		if (n < 0) {
+			throw new IllegalArgumentException("Negative byte count requested!");
+		}
+		return executor.submit(new Callable<ByteBuffer>() {
+			@Override
+			public ByteBuffer call() {
+				byte[] bytes = new byte[n];
+				RdRandUtil.nextBytes(bytes);
+				return ByteBuffer.wrap(bytes);
+			}
+		});
+	}
+
+	/**
+	 * Subscribes to an unbounded stream of random blocks of the specified
+	 * size. Blocks are generated on the pool only as they are requested,
+	 * one block per pool task so that streams share the pool fairly. No
+	 * block is delivered until <code>onSubscribe</code> returns, even if
+	 * it requests blocks.
+	 * @param blockSize Number of random bytes in each block.
+	 * @param subscriber The subscriber receiving the blocks.
+	 * @throws IllegalArgumentException If the block size is not positive or the subscriber is missing.
+	 */
+	public void subscribe(int blockSize, Subscriber subscriber) {
+		if (blockSize <= 0) {
+			throw new IllegalArgumentException("Block size must be positive!");
+		}
+		if (subscriber == null) {
+			throw new IllegalArgumentException("Missing subscriber!");
+		}
+		BlockSubscription subscription = new BlockSubscription(blockSize, subscriber);
+		// Hold the flag serializing signals while onSubscribe runs.
+		subscription.scheduled.set(true);
+		try {
+			subscriber.onSubscribe(subscription);
+		} catch (RuntimeException e) {
+			subscription.cancelled = true;
+			throw e;
+		} finally {
+			if (subscription.error.get() != null) {
+				// Signal an invalid request made in onSubscribe before returning, still holding the flag.
+				subscription.run();
+			} else {
+				subscription.release();
+			}
+		}
+	}
+
+	/**
+	 * Shuts down the pool. Queued fills complete, new ones are rejected
+	 * and streams waiting for room in the queue fail.
+	 */
+	@Override
+	public void close() {
+		executor.shutdown();
+		BlockSubscription waiting;
+		while ((waiting = deferred.poll()) != null) {
+			waiting.submit(false);
+		}
+	}
+
+	/**
+	 * Subscription generating one block per pool task while demand remains.
+	 * Every signal is delivered by {@link #run()} while holding the
+	 * <code>scheduled</code> flag, which serializes them. The flag is also
+	 * held while <code>onSubscribe</code> runs.
+	 */
+	private final class BlockSubscription implements Subscription, Runnable {
+
+		private final int blockSize;
+
+		private final Subscriber subscriber;
+
+		/**
+		 * Outstanding demand, <code>Long.MAX_VALUE</code> meaning unbounded.
+		 */
+		private final AtomicLong requested = new AtomicLong();
+
+		/**
+		 * Whether a task delivering signals is queued, waiting for room in
+		 * the queue or running.
+		 */
+		private final AtomicBoolean scheduled = new AtomicBoolean();
+
+		/**
+		 * Failure waiting to be signalled, the first one wins.
+		 */
+		private final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+
+		/**
+		 * Whether the subscription is cancelled or has failed, no signals follow.
+		 */
+		private volatile boolean cancelled;
+
+		private BlockSubscription(int blockSize, Subscriber subscriber) {
+			this.blockSize = blockSize;
+			this.subscriber = subscriber;
+		}
+
+		@Override
+		public void request(long n) {
+			if (n <= 0) {
+				fail(new IllegalArgumentException("Non-positive number of blocks requested!"));
+				return;
+			}
+			long current;
+			long next;
+			do {
+				current = requested.get();
+				next = current + n < 0 ? Long.MAX_VALUE : current + n;
+			} while (!requested.compareAndSet(current, next));
+			schedule();
+		}
+
+		@Override
+		public void cancel() {
+			cancelled = true;
+		}
+
+		/**
+		 * Queues a task generating the next block unless one is already scheduled.
+		 */
+		private void schedule() {
+			if (cancelled || !scheduled.compareAndSet(false, true)) {
+				return;
+			}
+			submit(true);
+		}
+
+		/**
+		 * Submits the task while holding the <code>scheduled</code> flag.
+		 * A full queue defers the task until a pool thread makes room, a
+		 * shut down pool fails the subscription.
+		 * @param retry True to retry once after deferring, covering the
+		 * queue emptying before the task was deferred.
+		 */
+		private void submit(boolean retry) {
+			try {
+				executor.execute(this);
+			} catch (RejectedExecutionException e) {
+				if (executor.isShutdown()) {
+					error.compareAndSet(null, e);
+					run();
+					return;
+				}
+				deferred.add(this);
+				if (retry) {
+					BlockSubscription waiting = deferred.poll();
+					if (waiting != null) {
+						waiting.submit(false);
+					}
+				}
+			}
+		}
+
+		/**
+		 * Records the failure and signals it, on the calling thread if no
+		 * task holds the <code>scheduled</code> flag, otherwise from the
+		 * task once it is done.
+		 * @param failure The failure cause.
+		 */
+		private void fail(Throwable failure) {
+			error.compareAndSet(null, failure);
+			if (scheduled.compareAndSet(false, true)) {
+				run();
+			}
+		}
+
+		/**
+		 * Signals a pending failure, or generates and delivers a single
+		 * block, then reschedules itself if anything remains to signal.
+		 * A subscriber throwing from
+		 * <code>onNext</code> cancels the subscription with that error.
+		 */
+		@Override
+		public void run() {
+			try {
+				if (cancelled) {
+					return;
+				}
+				Throwable failure = error.get();
+				if (failure == null && requested.get() > 0) {
+					byte[] block = new byte[blockSize];
+					try {
+						RdRandUtil.nextBytes(block);
+						if (requested.get() != Long.MAX_VALUE) {
+							requested.decrementAndGet();
+						}
+						subscriber.onNext(ByteBuffer.wrap(block));
+					} catch (RuntimeException e) {
+						failure = e;
+					}
+				}
+				if (failure != null) {
+					cancelled = true;
+					subscriber.onError(failure);
+				}
+			} finally {
+				release();
+			}
+		}
+
+		/**
+		 * Clears the <code>scheduled</code> flag, then reschedules if
+		 * anything remains to signal. The flag is cleared before checking
+		 * so a concurrent request or failure is never lost.
+		 */
+		private void release() {
+			scheduled.set(false);
+			if (!cancelled && (error.get() != null || requested.get() > 0)) {
+				schedule();
+			}
+		}
+	}
+
+	/**
+	 * Creates named daemon pool threads so an unclosed instance does not
+	 * prevent JVM exit.
+	 */
+	private static final class DaemonThreadFactory implements ThreadFactory {
+
+		private static final AtomicInteger POOL_COUNT = new AtomicInteger();
+
+		private final int pool = POOL_COUNT.incrementAndGet();
+
+		private final AtomicInteger threadCount = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "rdrand-async-" + pool + "-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
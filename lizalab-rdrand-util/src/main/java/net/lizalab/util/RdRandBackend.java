@@ -0,0 +1,83 @@
+/*
+ * Copyright 2013 Hemant Padmanabhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.lizalab.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Source of random data behind an {@link RdRandRandom}. The default
+ * implementation, {@link NativeRdRandBackend}, calls RdRand through
+ * {@link RdRandUtil}. Other implementations wrap or stand in for it,
+ * for example to record and replay the data served. Implementations
+ * extend {@link AbstractRdRandBackend}, which derives the other draws
+ * from <code>next</code>.
+ * 
+ * <p>Implementations must be safe for use by multiple threads.</p>
+ * 
+ * @author Hemant Padmanabhan
+ * @since 1.2
+ */
+public interface RdRandBackend {
+
+	/**
+	 * Verifies the availability and status of the backend.
+	 * @return SUCCESS if the backend can serve random data, otherwise the
+	 * status explaining why it cannot.
+	 */
+	RdRandStatus verify();
+	
+	/**
+	 * Fills the user specified array with random bytes.
+	 * @param bytes The byte array to fill with random bytes.
+	 * @throws RdRandException If the backend fails with a non-success status.
+	 */
+	void nextBytes(byte[] bytes);
+	
+	/**
+	 * Fills the remaining bytes of the buffer with random bytes, advancing
+	 * its position to its limit. Backends able to write into direct
+	 * buffers in place override the copy made by {@link AbstractRdRandBackend}.
+	 * @param buffer The buffer to fill with random bytes.
+	 * @throws RdRandException If the backend fails with a non-success status.
+	 * @throws java.nio.ReadOnlyBufferException If the buffer is read-only.
+	 */
+	void nextBytes(ByteBuffer buffer);
+	
+	/**
+	 * Generates an integer containing the user-specified number of
+     * random bits (right justified, with leading zeros).
+	 * @param bits number of random bits to be generated, where
+     * 0 <= <code>bits</code> <= 32.
+	 * @return an <code>int</code> containing the user-specified number
+     * of random bits.
+	 * @throws RdRandException If the backend fails with a non-success status.
+	 */
+	int next(int bits);
+	
+	/**
+	 * Returns a uniformly distributed <code>int</code> value between 0
+	 * (inclusive) and the specified bound (exclusive), for
+	 * <code>RdRandRandom.nextInt(int)</code>. {@link AbstractRdRandBackend}
+	 * implements it as <code>java.util.Random</code> does, backends able
+	 * to draw bounded values more economically override it.
+	 * @param bound The upper bound (exclusive), must be positive.
+	 * @return The next value in range.
+	 * @throws IllegalArgumentException If the bound is not positive.
+	 * @throws RdRandException If the backend fails with a non-success status.
+	 */
+	int nextInt(int bound);
+}
@@ -39,6 +39,23 @@ public final class RdRandException extends RuntimeException {
 	 * @throws IllegalArgumentException If status provided is null or success.
 	 */
 	public RdRandException(RdRandStatus status) {
+		this(status, true);
+	}
+	
+	/**
+	 * Initializes the exception with the specific RdRand status
+	 * that resulted in the exception, optionally without capturing
+	 * a stack trace or recording suppressed exceptions. Stackless
+	 * exceptions carry no per-throw state and can be preallocated and
+	 * rethrown, avoiding the cost of filling in the stack trace on busy
+	 * threads.
+	 * @param status The RdRand status.
+	 * @param writableStackTrace Whether the stack trace should be captured.
+	 * @throws IllegalArgumentException If status provided is null or success.
+	 * @since 1.2
+	 */
+	public RdRandException(RdRandStatus status, boolean writableStackTrace) {
+		super(null, null, writableStackTrace, writableStackTrace);
 		// Verify a valid exception causing RdRand status is specified.
 		if (status == null) {
 			throw new IllegalArgumentException("Missing rdrand status causing exception!");
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2013 Hemant Padmanabhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.lizalab.util;
+
+import java.lang.reflect.InvocationTargetException;
+
+/**
+ * Receives instrumentation of native RdRand fills, retries, failures,
+ * library loading and buffer refills. The implementation in
+ * <code>net.lizalab.util.jfr</code> reports them as JDK Flight Recorder
+ * events and is installed automatically when running on a JVM with JFR,
+ * unless disabled through <code>DISABLED_PROPERTY</code>.
+ *
+ * <p>Instrumented code asks for the {@link #active()} monitor, which is
+ * only non-null while the monitor is enabled, so with no recording
+ * running the cost is a field read and a branch.</p>
+ *
+ * @author Hemant Padmanabhan
+ * @since 1.2
+ */
+public abstract class RdRandMonitor {
+
+	/**
+	 * System property which, when set to true, keeps the JFR monitor from
+	 * being installed.
+	 */
+	public static final String DISABLED_PROPERTY = "net.lizalab.util.RdRandMonitor.disabled";
+
+	/**
+	 * Class of the JFR monitor, only present in builds on JDK 11 or later.
+	 */
+	private static final String JFR_MONITOR = "net.lizalab.util.jfr.JfrRdRandMonitor";
+
+	/**
+	 * The installed monitor, null if none.
+	 */
+	private static final RdRandMonitor INSTANCE = load();
+
+	/**
+	 * Whether the monitor wants events, for example while a recording is running.
+	 */
+	private volatile boolean enabled;
+
+	/**
+	 * Installs the JFR monitor if it and JFR are available.
+	 * @return The monitor, or null if unavailable.
+	 */
+	private static RdRandMonitor load() {
+		if (Boolean.getBoolean(DISABLED_PROPERTY)) {
+			return null;
+		}
+		try {
+			Class.forName("jdk.jfr.FlightRecorder");
+			return (RdRandMonitor) Class.forName(JFR_MONITOR).getDeclaredConstructor().newInstance();
+		} catch (ClassNotFoundException e) {
+			// No JFR, or built without the JFR monitor.
+			return null;
+		} catch (NoSuchMethodException e) {
+			return null;
+		} catch (InstantiationException e) {
+			return null;
+		} catch (IllegalAccessException e) {
+			return null;
+		} catch (InvocationTargetException e) {
+			return null;
+		} catch (RuntimeException e) {
+			return null;
+		} catch (LinkageError e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the monitor to report to.
+	 * @return The installed monitor if it is enabled, otherwise null.
+	 */
+	static RdRandMonitor active() {
+		RdRandMonitor monitor = INSTANCE;
+		return monitor != null && monitor.enabled ? monitor : null;
+	}
+
+	/**
+	 * Returns whether instrumented code is currently reporting to a monitor.
+	 * The JFR monitor is enabled by a recorder listener as soon as a
+	 * recording starts, including the first one initializing JFR.
+	 * @return True if a monitor is installed and enabled.
+	 */
+	public static boolean isActive() {
+		return active() != null;
+	}
+
+	/**
+	 * Enables or disables reporting to this monitor.
+	 * @param enabled True to have instrumented code report to this monitor.
+	 */
+	protected final void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	/**
+	 * Marks the start of a native fill.
+	 * @return Token passed back to <code>endFill</code>.
+	 */
+	protected abstract Object beginFill();
+
+	/**
+	 * Marks the end of a native fill.
+	 * @param token The token returned by <code>beginFill</code>.
+	 * @param bytes Number of bytes requested.
+	 * @param status Status the fill completed with.
+	 */
+	protected abstract void endFill(Object token, int bytes, RdRandStatus status);
+
+	/**
+	 * Reports a failed draw about to be retried.
+	 * @param source Name of the component retrying.
+	 * @param status Status the draw failed with.
+	 */
+	protected abstract void retry(String source, RdRandStatus status);
+
+	/**
+	 * Reports a failure surfaced to a caller.
+	 * @param status The failure status.
+	 */
+	protected abstract void failure(RdRandStatus status);
+
+	/**
+	 * Reports an attempt to extract and load the native library.
+	 * @param path Path the library was extracted to.
+	 * @param extractNanos Time taken to extract the library.
+	 * @param loadNanos Time taken to load the library.
+	 * @param loaded Whether the library was loaded.
+	 */
+	protected abstract void libraryLoad(String path, long extractNanos, long loadNanos, boolean loaded);
+
+	/**
+	 * Marks the start of a buffer refill.
+	 * @return Token passed back to <code>endRefill</code>.
+	 */
+	protected abstract Object beginRefill();
+
+	/**
+	 * Marks the end of a buffer refill.
+	 * @param token The token returned by <code>beginRefill</code>.
+	 * @param source Name of the component refilling.
+	 * @param bytes Number of bytes refilled.
+	 */
+	protected abstract void endRefill(Object token, String source, int bytes);
+}
@@ -34,6 +34,9 @@ import java.util.Random;
  * <p>Since RDRAND cannot be seeded externally, no support is provided to specify a
  * seed. Refer to the documentation linked above on seeding details.</p>
  * 
+ * <p>Instances remain serializable, a deserialized instance draws from
+ * RdRand directly whatever backend the serialized one used.</p>
+ * 
  * @author Hemant Padmanabhan
  * @since 1.0
  */
@@ -41,21 +44,45 @@ public final class RdRandRandom extends Random {
 
 	private static final long serialVersionUID = -2909432877994903004L;
 	
+	/**
+	 * Backend serving the random data. Backends are not serialized, see
+	 * <code>readResolve</code>.
+	 */
+	private final transient RdRandBackend backend;
+
+	
 	/**
 	 * Constructs a random number generator (RNG) wrapping the
 	 * Intel RDRAND Instruction.
-	 * Invokes the super class constructor in a manner that results
-	 * in its own implementation of <code>setSeed</code> being invoked.
 	 * Verifies that the JNI shared library accessing RDRAND is loaded
 	 * and running successfully.
 	 * 
 	 * @throws RdRandException If RdRand returns a non-success status or the native library is not loaded.
 	 */
 	public RdRandRandom() {
+		this(new NativeRdRandBackend());
+	}
+	
+	/**
+	 * Constructs a random number generator (RNG) served by the specified
+	 * backend, for example one replaying previously recorded RdRand output.
+	 * Invokes the super class constructor in a manner that results
+	 * in its own implementation of <code>setSeed</code> being invoked.
+	 * Verifies that the backend is available.
+	 * 
+	 * @param backend The backend serving random data.
+	 * @throws RdRandException If the backend returns a non-success status.
+	 * @since 1.2
+	 */
+	public RdRandRandom(RdRandBackend backend) {
 		// Make super class constructor invoke our implementation of setSeed.
 		super(0);
-		// Verify RdRand availability.
-		RdRandStatus status = RdRandUtil.verify();
+		if (backend == null) {
+			throw new IllegalArgumentException("Missing rdrand backend!");
+		}
+		this.backend = backend;
+		// Verify backend availability.
+		RdRandStatus status = backend.verify();
 		if (status != RdRandStatus.SUCCESS) {
 			throw new RdRandException(status);
 		}
@@ -69,7 +96,7 @@ public final class RdRandRandom extends Random {
 	 */
 	@Override
 	public void nextBytes(byte[] bytes) {
-		RdRandUtil.nextBytes(bytes);
+		backend.nextBytes(bytes);
 	}
 
 	/**
@@ -87,8 +114,9 @@ public final class RdRandRandom extends Random {
      * method overrides a <code>java.util.Random</code> method, and serves
      * to provide a source of random bits to all of the methods inherited
      * from that class (for example, <code>nextInt</code>,
-     * <code>nextLong</code>, and <code>nextFloat</code>). This is a mirror
-     * implementation of the same method in <code>java.security.SecureRandom</code>.
+     * <code>nextLong</code>, and <code>nextFloat</code>). A single 32-bit
+     * RdRand value is drawn and its high order bits returned, without
+     * allocating on the Java heap.
      *
      * @param bits number of pseudo-random bits to be generated, where
      * 0 <= <code>bits</code> <= 32.
@@ -98,9 +126,33 @@ public final class RdRandRandom extends Random {
 	 */
 	@Override
 	protected int next(int bits) {
-		int numBytes = (bits+7)/8;
-		int next = RdRandUtil.next(numBytes);
-        return next >>> (numBytes*8 - bits);
+		return backend.next(bits);
+	}
+
+	/**
+	 * Returns a uniformly distributed <code>int</code> value between 0
+	 * (inclusive) and the specified bound (exclusive), drawn by the
+	 * backend. Backends derived from {@link AbstractRdRandBackend} draw it
+	 * as <code>java.util.Random</code> does, a {@link BitReservoirBackend}
+	 * consumes only as many bits as small bounds need.
+	 *
+	 * @param bound the upper bound (exclusive), must be positive.
+	 * @return the next random value in range.
+	 * @since 1.2
+	 */
+	@Override
+	public int nextInt(int bound) {
+		return backend.nextInt(bound);
 	}
 
+
+	/**
+	 * Replaces a deserialized instance, which has no backend, with one
+	 * drawing from RdRand directly.
+	 * @return A new instance drawing from RdRand.
+	 * @throws RdRandException If RdRand returns a non-success status or the native library is not loaded.
+	 */
+	private Object readResolve() {
+		return new RdRandRandom();
+	}
 }
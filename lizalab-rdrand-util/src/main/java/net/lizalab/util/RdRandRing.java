@@ -0,0 +1,333 @@
+/*
+ * Copyright 2013 Hemant Padmanabhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.lizalab.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Memory mapped ring of random byte slots shared between processes, filled
+ * by a {@link RdRandRingProducer} and drained by {@link RdRandRingBackend}
+ * consumers.
+ *
+ * <p>The file starts with a header holding the ring geometry, an id
+ * unique to the producer that created it and the shared read sequence,
+ * followed by the slots. Each slot is an 8 byte stamp followed by the
+ * slot data. The slot serving sequence number <code>s</code> is
+ * <code>s % slotCount</code>, its stamp is <code>s</code> while the slot
+ * is empty and <code>s + 1</code> once the producer has filled it.
+ * Consumers claim sequence numbers by compare-and-swap on the read
+ * sequence, copy and zero the slot data, then stamp the slot empty for
+ * sequence <code>s + slotCount</code>.</p>
+ *
+ * <p>Rings are private to the user running the producer. The file is
+ * only readable and writable by its owner, and consumers refuse rings
+ * owned by other users or accessible to them, so other local users can
+ * neither read the random bytes nor plant a ring of their own.</p>
+ *
+ * <p>Cross process atomics on the mapped memory, which the
+ * <code>java.nio</code> buffer API cannot do, are done by the native
+ * methods of {@link RdRandUtil}, so rings need the native library.</p>
+ *
+ * @author Hemant Padmanabhan
+ * @since 1.2
+ */
+final class RdRandRing {
+
+	/**
+	 * Marks an initialized ring, written last by the producer.
+	 */
+	private static final long MAGIC = 0x52445247;
+
+	private static final long MAGIC_OFFSET = 0;
+
+	private static final int SLOT_COUNT_OFFSET = 8;
+
+	private static final int SLOT_SIZE_OFFSET = 12;
+
+	private static final int ID_OFFSET = 16;
+
+	/**
+	 * Offset of the read sequence, on a cache line of its own.
+	 */
+	private static final long READ_SEQUENCE_OFFSET = 64;
+
+	/**
+	 * Size of the header preceding the slots.
+	 */
+	private static final int HEADER_SIZE = 128;
+
+	/**
+	 * Size of the stamp preceding the data of each slot.
+	 */
+	private static final int STAMP_SIZE = 8;
+
+	/**
+	 * Mapping of the ring file, in native byte order.
+	 */
+	private final MappedByteBuffer mapping;
+
+	private final int slotCount;
+
+	private final int slotSize;
+
+	private final long id;
+
+	private RdRandRing(MappedByteBuffer mapping, int slotCount, int slotSize, long id) {
+		this.mapping = mapping;
+		this.slotCount = slotCount;
+		this.slotSize = slotSize;
+		this.id = id;
+	}
+
+	/**
+	 * Creates a ring file, all slots empty. The ring is built in a new
+	 * temporary file with a random name, only its owner may access,
+	 * renamed over the specified one once initialized, so consumers never
+	 * map a partially initialized ring and consumers of a previous ring at
+	 * the same path keep their mapping.
+	 * @param file The ring file.
+	 * @param slotCount Number of slots.
+	 * @param slotSize Number of random bytes per slot, a positive multiple of 8.
+	 * @param id Id distinguishing the ring from earlier ones at the same path.
+	 * @return The created ring.
+	 * @throws IOException If the ring file cannot be created.
+	 */
+	static RdRandRing create(File file, int slotCount, int slotSize, long id) throws IOException {
+		if (slotCount <= 0 || slotSize <= 0 || slotSize % STAMP_SIZE != 0) {
+			throw new IllegalArgumentException("Slot count must be positive and slot size a positive multiple of 8!");
+		}
+		checkLoaded();
+		Path temp = PrivateFiles.createTempFile(file.getAbsoluteFile().getParentFile().toPath(), file.getName() + ".");
+		RdRandRing ring;
+		try {
+			FileChannel channel = FileChannel.open(temp, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			try {
+				long size = HEADER_SIZE + (long) slotCount * (STAMP_SIZE + slotSize);
+				ring = new RdRandRing(map(channel, size), slotCount, slotSize, id);
+			} finally {
+				// Mappings remain valid once the file is closed.
+				channel.close();
+			}
+		} catch (IOException e) {
+			Files.delete(temp);
+			throw e;
+		}
+		MappedByteBuffer mapping = ring.mapping;
+		mapping.putInt(SLOT_COUNT_OFFSET, slotCount);
+		mapping.putInt(SLOT_SIZE_OFFSET, slotSize);
+		mapping.putLong(ID_OFFSET, id);
+		for (int i = 0; i < slotCount; i++) {
+			mapping.putLong((int) ring.stampOffset(i), i);
+		}
+		RdRandUtil.storeNative(mapping, MAGIC_OFFSET, MAGIC);
+		try {
+			Files.move(temp, file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			Files.delete(temp);
+			throw new IOException("Failed to move ring into place at " + file, e);
+		}
+		return ring;
+	}
+
+	/**
+	 * Maps an existing ring file, refusing rings that other users own or
+	 * could access. The file is checked again once opened, so it cannot
+	 * be replaced in between.
+	 * @param file The ring file.
+	 * @return The ring, or null if the file does not hold an initialized ring.
+	 * @throws IOException If the ring file cannot be mapped or is not
+	 * private to the current user.
+	 */
+	static RdRandRing open(File file) throws IOException {
+		checkLoaded();
+		Path path = file.toPath();
+		PrivateFiles.checkOwned(path, PrivateFiles.SHARED_ANY);
+		Object key = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS).fileKey();
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE,
+				LinkOption.NOFOLLOW_LINKS);
+		try {
+			PrivateFiles.checkOwned(path, PrivateFiles.SHARED_ANY);
+			if (key != null && !key.equals(Files.readAttributes(path, BasicFileAttributes.class,
+					LinkOption.NOFOLLOW_LINKS).fileKey())) {
+				throw new IOException("Ring " + file + " was replaced while being opened!");
+			}
+			if (channel.size() < HEADER_SIZE) {
+				return null;
+			}
+			MappedByteBuffer header = map(channel, HEADER_SIZE);
+			if (RdRandUtil.loadNative(header, MAGIC_OFFSET) != MAGIC) {
+				return null;
+			}
+			int slotCount = header.getInt(SLOT_COUNT_OFFSET);
+			int slotSize = header.getInt(SLOT_SIZE_OFFSET);
+			long id = header.getLong(ID_OFFSET);
+			long size = HEADER_SIZE + (long) slotCount * (STAMP_SIZE + slotSize);
+			if (slotCount <= 0 || slotSize <= 0 || slotSize % STAMP_SIZE != 0 || size > Integer.MAX_VALUE
+					|| channel.size() < size) {
+				return null;
+			}
+			return new RdRandRing(map(channel, size), slotCount, slotSize, id);
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Checks the native methods doing the cross process atomics are available.
+	 * @throws IOException If the native library is not loaded.
+	 */
+	private static void checkLoaded() throws IOException {
+		if (!RdRandUtil.isLoaded()) {
+			throw new IOException("Rings need the native library, which is not loaded!");
+		}
+	}
+
+	/**
+	 * Maps the start of the ring file for reading and writing in native
+	 * byte order, as the native methods access it.
+	 * @param channel The ring file.
+	 * @param size Number of bytes to map.
+	 * @return The mapping.
+	 * @throws IOException If the file cannot be mapped.
+	 */
+	private static MappedByteBuffer map(FileChannel channel, long size) throws IOException {
+		MappedByteBuffer mapping = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+		mapping.order(ByteOrder.nativeOrder());
+		return mapping;
+	}
+
+	/**
+	 * Reads the id of the ring currently at the specified path.
+	 * @param file The ring file.
+	 * @return The id, or null if the file does not hold an initialized ring.
+	 */
+	static Long readId(File file) {
+		try {
+			RdRandRing ring = open(file);
+			return ring == null ? null : ring.id;
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	int getSlotCount() {
+		return slotCount;
+	}
+
+	int getSlotSize() {
+		return slotSize;
+	}
+
+	long getId() {
+		return id;
+	}
+
+	/**
+	 * Returns the offset of the stamp of the slot serving the specified sequence number.
+	 * @param sequence The sequence number.
+	 * @return Offset of the slot stamp in the mapping.
+	 */
+	private long stampOffset(long sequence) {
+		return HEADER_SIZE + (sequence % slotCount) * (STAMP_SIZE + slotSize);
+	}
+
+	/**
+	 * Checks slot data fits the array, before native code copies it.
+	 * @param bytes The array.
+	 * @param offset Offset of the slot data in the array.
+	 */
+	private void checkSlot(byte[] bytes, int offset) {
+		if (offset < 0 || offset > bytes.length - slotSize) {
+			throw new IndexOutOfBoundsException("Slot does not fit the array at offset " + offset + "!");
+		}
+	}
+
+	/**
+	 * Checks whether the slot serving the specified sequence number is
+	 * empty and may be filled. Called by the producer only.
+	 * @param sequence The sequence number.
+	 * @return True if the slot is empty.
+	 */
+	boolean isEmpty(long sequence) {
+		return RdRandUtil.loadNative(mapping, stampOffset(sequence)) == sequence;
+	}
+
+	/**
+	 * Fills the slot serving the specified sequence number and publishes
+	 * it to consumers. Called by the producer only, on an empty slot.
+	 * @param sequence The sequence number.
+	 * @param bytes Array holding the slot data.
+	 * @param offset Offset of the slot data in the array.
+	 */
+	void publish(long sequence, byte[] bytes, int offset) {
+		checkSlot(bytes, offset);
+		RdRandUtil.publishNative(mapping, stampOffset(sequence), sequence + 1, bytes, offset, slotSize);
+	}
+
+	/**
+	 * Claims the next filled slot, copies its data into the array and
+	 * zeroes and releases the slot. Lock-free, safe for concurrent
+	 * consumers in any number of processes.
+	 * @param bytes Array receiving the slot data.
+	 * @param offset Offset in the array to copy the slot data to.
+	 * @return True if a slot was claimed, false if the ring is empty.
+	 */
+	boolean claim(byte[] bytes, int offset) {
+		checkSlot(bytes, offset);
+		for (;;) {
+			long sequence = RdRandUtil.loadNative(mapping, READ_SEQUENCE_OFFSET);
+			long stamp = stampOffset(sequence);
+			long state = RdRandUtil.loadNative(mapping, stamp);
+			if (state == sequence + 1) {
+				if (RdRandUtil.compareAndSetNative(mapping, READ_SEQUENCE_OFFSET, sequence, sequence + 1)) {
+					RdRandUtil.takeNative(mapping, stamp, sequence + slotCount, bytes, offset, slotSize);
+					return true;
+				}
+			} else if (state < sequence + 1) {
+				// Not yet filled for this sequence, the ring is empty.
+				return false;
+			}
+			// Otherwise another consumer claimed the sequence first, retry.
+		}
+	}
+
+	/**
+	 * Checks whether the data of every slot is zeroed. Used by tests.
+	 * @return True if all slot data is zero.
+	 */
+	boolean isZeroed() {
+		for (long i = 0; i < slotCount; i++) {
+			int data = (int) stampOffset(i) + STAMP_SIZE;
+			for (int j = 0; j < slotSize; j += 8) {
+				if (mapping.getLong(data + j) != 0) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+}
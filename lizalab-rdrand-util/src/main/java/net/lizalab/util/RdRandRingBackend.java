@@ -0,0 +1,217 @@
+/*
+ * Copyright 2013 Hemant Padmanabhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.lizalab.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link RdRandBackend} serving random data from the shared memory ring
+ * filled by a {@link RdRandRingProducer}, used through
+ * <code>new RdRandRandom(new RdRandRingBackend(RdRandRingProducer.DEFAULT_RING))</code>.
+ *
+ * <p>Whole slots are claimed from the ring, each served to exactly one
+ * consumer and zeroed in the ring once claimed. Bytes of a claimed slot
+ * left over after a draw are kept for the next draws of this backend.
+ * When the ring is empty, missing or its producer has stopped, draws are
+ * served by a fallback backend, by default direct RdRand calls, and the
+ * ring file is checked at most every second for a newly started
+ * producer. Rings owned by other users, or that other users could
+ * access, are never attached to.</p>
+ *
+ * @author Hemant Padmanabhan
+ * @since 1.2
+ */
+public final class RdRandRingBackend extends AbstractRdRandBackend {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(RdRandRingBackend.class);
+
+	/**
+	 * Minimum interval between checks of the ring file for a new producer.
+	 */
+	private static final long REATTACH_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+	private final File file;
+
+	/**
+	 * Backend serving draws the ring cannot.
+	 */
+	private final RdRandBackend fallback;
+
+	/**
+	 * Ring currently attached to, null if none.
+	 */
+	private RdRandRing ring;
+
+	/**
+	 * Time of the last check of the ring file.
+	 */
+	private long attached;
+
+	/**
+	 * Bytes of the last claimed slot, served from <code>position</code> on.
+	 */
+	private byte[] slot = new byte[0];
+
+	private int position;
+
+	private long slotsClaimed;
+
+	private long fallbackDraws;
+
+	/**
+	 * Attaches to the ring at the specified path, falling back to direct
+	 * RdRand calls when the ring cannot serve.
+	 * @param file The ring file.
+	 */
+	public RdRandRingBackend(File file) {
+		this(file, new NativeRdRandBackend());
+	}
+
+	/**
+	 * Attaches to the ring at the specified path.
+	 * @param file The ring file.
+	 * @param fallback Backend serving draws when the ring cannot.
+	 */
+	public RdRandRingBackend(File file, RdRandBackend fallback) {
+		if (file == null || fallback == null) {
+			throw new IllegalArgumentException("Missing ring file or fallback backend!");
+		}
+		this.file = file;
+		this.fallback = fallback;
+		attach();
+	}
+
+	/**
+	 * Maps the ring currently at the path if it differs from the one
+	 * attached to.
+	 */
+	private void attach() {
+		final String methodName = "attach : ";
+
+		attached = System.nanoTime();
+		if (!file.exists()) {
+			return;
+		}
+		RdRandRing opened;
+		try {
+			// Refuses rings other users own or could access.
+			opened = RdRandRing.open(file);
+		} catch (IOException e) {
+			LOGGER.warn("{} Failed to attach to ring {} due to {}", methodName, file, e);
+			return;
+		}
+		if (opened == null || (ring != null && opened.getId() == ring.getId())) {
+			return;
+		}
+		ring = opened;
+		if (slot.length != ring.getSlotSize()) {
+			slot = new byte[ring.getSlotSize()];
+			position = slot.length;
+		}
+		LOGGER.debug("{} Attached to ring {}", methodName, file);
+	}
+
+	/**
+	 * Claims the next slot of the ring into the specified array, checking
+	 * for a new producer if the ring is empty.
+	 * @param bytes Array receiving the slot data.
+	 * @param offset Offset in the array to copy the slot data to.
+	 * @return True if a slot was claimed.
+	 */
+	private boolean claim(byte[] bytes, int offset) {
+		if (ring != null && ring.claim(bytes, offset)) {
+			slotsClaimed++;
+			return true;
+		}
+		if (System.nanoTime() - attached >= REATTACH_INTERVAL_NANOS) {
+			attach();
+		}
+		return false;
+	}
+
+	/**
+	 * Verifies the fallback, which must be able to serve when the ring cannot.
+	 */
+	@Override
+	public RdRandStatus verify() {
+		return fallback.verify();
+	}
+
+	@Override
+	public synchronized void nextBytes(byte[] bytes) {
+		int offset = Math.min(bytes.length, slot.length - position);
+		System.arraycopy(slot, position, bytes, 0, offset);
+		position += offset;
+		int slotSize = slot.length;
+		// Claim whole slots straight into the array, the last partial one through the slot buffer.
+		while (offset < bytes.length && slotSize > 0) {
+			int len = Math.min(slotSize, bytes.length - offset);
+			if (len == slotSize) {
+				if (!claim(bytes, offset)) {
+					break;
+				}
+			} else {
+				if (!claim(slot, 0)) {
+					break;
+				}
+				System.arraycopy(slot, 0, bytes, offset, len);
+				position = len;
+			}
+			offset += len;
+		}
+		if (offset < bytes.length) {
+			byte[] rest = new byte[bytes.length - offset];
+			fallback.nextBytes(rest);
+			System.arraycopy(rest, 0, bytes, offset, rest.length);
+			fallbackDraws++;
+		}
+	}
+
+	@Override
+	public synchronized int next(int bits) {
+		if (slot.length - position < 4) {
+			if (slot.length < 4 || !claim(slot, 0)) {
+				fallbackDraws++;
+				return fallback.next(bits);
+			}
+			position = 0;
+		}
+		int next = ((slot[position] & 0xFF) << 24) | ((slot[position + 1] & 0xFF) << 16)
+				| ((slot[position + 2] & 0xFF) << 8) | (slot[position + 3] & 0xFF);
+		position += 4;
+		return (int) ((next & 0xFFFFFFFFL) >>> (32 - bits));
+	}
+
+	/**
+	 * @return Number of slots claimed from the ring.
+	 */
+	public synchronized long getSlotsClaimed() {
+		return slotsClaimed;
+	}
+
+	/**
+	 * @return Number of draws served in whole or part by the fallback backend.
+	 */
+	public synchronized long getFallbackDraws() {
+		return fallbackDraws;
+	}
+}
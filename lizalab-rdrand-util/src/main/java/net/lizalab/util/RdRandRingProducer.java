@@ -0,0 +1,186 @@
+/*
+ * Copyright 2013 Hemant Padmanabhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.lizalab.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Fills a ring of random bytes in shared memory from RdRand for any
+ * number of JVMs on the host, which drain it through
+ * {@link RdRandRingBackend} instead of each loading the native library
+ * and buffering on their own. Intended to run as a single process per
+ * host with the ring in <code>/dev/shm</code>.
+ *
+ * <p>The producer keeps the ring full, drawing RdRand in bulk for as many
+ * empty slots as are available at a time and parking briefly while the
+ * ring is full. Closing the producer removes the ring file, consumers
+ * then drain the slots left and fall back to direct RdRand calls.</p>
+ *
+ * <p>A consumer process dying between claiming a slot and releasing it
+ * leaves the slot claimed, stalling the ring until the producer is
+ * restarted. Consumers keep serving through their fallback meanwhile.</p>
+ *
+ * @author Hemant Padmanabhan
+ * @since 1.2
+ */
+public final class RdRandRingProducer implements Runnable, Closeable {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(RdRandRingProducer.class);
+
+	/**
+	 * Default ring file, in shared memory.
+	 */
+	public static final File DEFAULT_RING = new File("/dev/shm/rdrand-ring");
+
+	/**
+	 * Default number of slots in the ring.
+	 */
+	public static final int DEFAULT_SLOT_COUNT = 16384;
+
+	/**
+	 * Default number of random bytes per slot.
+	 */
+	public static final int DEFAULT_SLOT_SIZE = 64;
+
+	/**
+	 * Maximum number of slots filled from a single RdRand draw.
+	 */
+	private static final int BATCH_SLOTS = 256;
+
+	/**
+	 * Interval at which the producer checks for free slots while the ring is full.
+	 */
+	private static final long FULL_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+	private final File file;
+
+	private final RdRandRing ring;
+
+	/**
+	 * Scratch array receiving the bulk RdRand draw for a batch of slots.
+	 */
+	private final byte[] scratch;
+
+	private volatile boolean running = true;
+
+	/**
+	 * Creates the ring at the specified path with the default geometry.
+	 * The producer does not fill it until it is run.
+	 * @param file The ring file, replaced if it exists.
+	 * @throws IOException If the ring file cannot be created.
+	 */
+	public RdRandRingProducer(File file) throws IOException {
+		this(file, DEFAULT_SLOT_COUNT, DEFAULT_SLOT_SIZE);
+	}
+
+	/**
+	 * Creates the ring at the specified path. The producer does not fill
+	 * it until it is run.
+	 * @param file The ring file, replaced if it exists.
+	 * @param slotCount Number of slots in the ring.
+	 * @param slotSize Number of random bytes per slot, a positive multiple of 8.
+	 * @throws IOException If the ring file cannot be created.
+	 */
+	public RdRandRingProducer(File file, int slotCount, int slotSize) throws IOException {
+		this.file = file;
+		ring = RdRandRing.create(file, slotCount, slotSize, System.nanoTime() ^ System.currentTimeMillis() << 20);
+		scratch = new byte[Math.min(slotCount, BATCH_SLOTS) * slotSize];
+	}
+
+	/**
+	 * Runs the producer on a new daemon thread.
+	 * @return The thread running the producer.
+	 */
+	public Thread start() {
+		Thread thread = new Thread(this, "rdrand-ring-" + file.getName());
+		thread.setDaemon(true);
+		thread.start();
+		return thread;
+	}
+
+	/**
+	 * Keeps the ring filled until the producer is closed.
+	 */
+	@Override
+	public void run() {
+		final String methodName = "run : ";
+
+		LOGGER.debug("{} Filling ring {}", methodName, file);
+		int slotSize = ring.getSlotSize();
+		int batch = scratch.length / slotSize;
+		long sequence = 0;
+		while (running) {
+			int free = 0;
+			while (free < batch && ring.isEmpty(sequence + free)) {
+				free++;
+			}
+			if (free == 0) {
+				LockSupport.parkNanos(FULL_PARK_NANOS);
+				continue;
+			}
+			RdRandStatus status = RdRandUtil.tryNextBytes(scratch, free * slotSize);
+			if (status != RdRandStatus.SUCCESS) {
+				LOGGER.warn("{} RdRand draw failed with {}, retrying.", methodName, status);
+				RdRandMonitor monitor = RdRandMonitor.active();
+				if (monitor != null) {
+					monitor.retry("RdRandRingProducer", status);
+				}
+				LockSupport.parkNanos(FULL_PARK_NANOS);
+				continue;
+			}
+			for (int i = 0; i < free; i++) {
+				ring.publish(sequence + i, scratch, i * slotSize);
+			}
+			sequence += free;
+		}
+		LOGGER.debug("{} Producer stopped.", methodName);
+	}
+
+	/**
+	 * Stops filling the ring and removes the ring file, unless it has
+	 * since been replaced by another producer.
+	 */
+	@Override
+	public void close() {
+		running = false;
+		Long id = RdRandRing.readId(file);
+		if (id != null && id == ring.getId()) {
+			file.delete();
+		}
+	}
+
+	/**
+	 * Runs a producer filling the ring until the process is stopped.
+	 * @param args Optional ring file, defaults to <code>DEFAULT_RING</code>.
+	 * @throws IOException If the ring file cannot be created.
+	 */
+	public static void main(String[] args) throws IOException {
+		File file = args.length > 0 ? new File(args[0]) : DEFAULT_RING;
+		RdRandStatus status = RdRandUtil.verify();
+		if (status != RdRandStatus.SUCCESS) {
+			throw new RdRandException(status);
+		}
+		new RdRandRingProducer(file).run();
+	}
+}
@@ -16,6 +16,8 @@
 
 package net.lizalab.util;
 
+import java.nio.ByteBuffer;
+
 import org.uncommons.maths.random.SeedException;
 import org.uncommons.maths.random.SeedGenerator;
 
@@ -31,11 +33,43 @@ import org.uncommons.maths.random.SeedGenerator;
  */
 public final class RdRandSeedGenerator implements SeedGenerator {
 
+	/**
+	 * Backend serving the seed data.
+	 */
+	private final RdRandBackend backend;
+
+	/**
+	 * Name of the seed source, null to describe the backend.
+	 */
+	private final String name;
+
+	/**
+	 * Constructs a seed generator drawing seeds from RDRAND.
+	 */
+	public RdRandSeedGenerator() {
+		backend = new NativeRdRandBackend();
+		name = "net.lizalab.util.RdRandUtil";
+	}
+
+	/**
+	 * Constructs a seed generator drawing seeds from the specified backend,
+	 * for example one injecting faults.
+	 * @param backend The backend serving seed data.
+	 * @since 1.2
+	 */
+	public RdRandSeedGenerator(RdRandBackend backend) {
+		if (backend == null) {
+			throw new IllegalArgumentException("Missing rdrand backend!");
+		}
+		this.backend = backend;
+		name = null;
+	}
+
 	@Override
 	public byte[] generateSeed(int length) throws SeedException {
 		byte[] bytes = new byte[length];
 		try {
-			RdRandUtil.nextBytes(bytes);
+			backend.nextBytes(bytes);
 		} catch (RdRandException e) {
 			// catch and wrap RDRAND specific exception into the
 			// exception specified by the interface.
@@ -44,9 +78,66 @@ public final class RdRandSeedGenerator implements SeedGenerator {
 		return bytes;
 	}
 
+	/**
+	 * Generates the specified number of seeds in a single bulk draw into
+	 * one array, for seeding many generators at once.
+	 * @param count Number of seeds.
+	 * @param length Length of each seed in bytes.
+	 * @return The seeds.
+	 * @throws SeedException If the backend fails to serve the seeds.
+	 * @since 1.2
+	 */
+	public RdRandSeeds generateSeeds(int count, int length) throws SeedException {
+		byte[] bytes = new byte[batchSize(count, length)];
+		try {
+			backend.nextBytes(bytes);
+		} catch (RdRandException e) {
+			throw new SeedException(e.getStatus().getDesc());
+		}
+		return new RdRandSeeds(ByteBuffer.wrap(bytes), count, length);
+	}
+
+	/**
+	 * Generates the specified number of seeds into one direct buffer,
+	 * keeping them off the Java heap. Backends able to, such as RDRAND, draw
+	 * the seeds into the buffer in place.
+	 * @param count Number of seeds.
+	 * @param length Length of each seed in bytes.
+	 * @return The seeds.
+	 * @throws SeedException If the backend fails to serve the seeds.
+	 * @since 1.2
+	 */
+	public RdRandSeeds generateDirectSeeds(int count, int length) throws SeedException {
+		ByteBuffer buffer = ByteBuffer.allocateDirect(batchSize(count, length));
+		try {
+			backend.nextBytes(buffer);
+		} catch (RdRandException e) {
+			throw new SeedException(e.getStatus().getDesc());
+		}
+		buffer.clear();
+		return new RdRandSeeds(buffer, count, length);
+	}
+
+	/**
+	 * Validates a batch of seeds.
+	 * @param count Number of seeds.
+	 * @param length Length of each seed in bytes.
+	 * @return Size of the batch in bytes.
+	 */
+	private static int batchSize(int count, int length) {
+		if (count < 0 || length < 1) {
+			throw new IllegalArgumentException("Seed count must not be negative and length must be positive!");
+		}
+		long size = (long) count * length;
+		if (size > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Seeds must fit in a single array!");
+		}
+		return (int) size;
+	}
+
 	@Override
 	public String toString() {
-		return "net.lizalab.util.RdRandUtil";
+		return name != null ? name : backend.toString();
 	}
 
 }
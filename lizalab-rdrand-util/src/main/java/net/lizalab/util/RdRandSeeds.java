@@ -0,0 +1,139 @@
+/*
+ * Copyright 2013 Hemant Padmanabhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.lizalab.util;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A batch of equally sized seeds drawn in a single bulk draw into one
+ * backing buffer, on or off the heap, as produced by
+ * {@link RdRandSeedGenerator#generateSeeds(int, int)}. Seeds are secrets,
+ * {@link #clear()} wipes the buffer once they have been handed out.
+ * Instances are safe for concurrent reads.
+ *
+ * @author Hemant Padmanabhan
+ * @since 1.2
+ */
+public final class RdRandSeeds {
+
+	private final ByteBuffer seeds;
+
+	private final int count;
+
+	private final int length;
+
+	/**
+	 * Constructs a batch over the specified buffer.
+	 * @param seeds The buffer holding the seeds back to back from index 0.
+	 * @param count Number of seeds.
+	 * @param length Length of each seed in bytes.
+	 */
+	RdRandSeeds(ByteBuffer seeds, int count, int length) {
+		this.seeds = seeds;
+		this.count = count;
+		this.length = length;
+	}
+
+	/**
+	 * @return Number of seeds.
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * @return Length of each seed in bytes.
+	 */
+	public int getLength() {
+		return length;
+	}
+
+	/**
+	 * Checks a seed index is in range.
+	 * @param index The index.
+	 */
+	private void checkIndex(int index) {
+		if (index < 0 || index >= count) {
+			throw new IndexOutOfBoundsException("Seed index " + index + " out of range!");
+		}
+	}
+
+	/**
+	 * Returns a copy of the specified seed.
+	 * @param index Index of the seed.
+	 * @return The seed.
+	 */
+	public byte[] getSeed(int index) {
+		byte[] seed = new byte[length];
+		copySeed(index, seed, 0);
+		return seed;
+	}
+
+	/**
+	 * Copies the specified seed into an array.
+	 * @param index Index of the seed.
+	 * @param dest The array to copy into.
+	 * @param offset Offset in the array to copy to.
+	 */
+	public void copySeed(int index, byte[] dest, int offset) {
+		checkIndex(index);
+		ByteBuffer seed = seeds.duplicate();
+		seed.position(index * length);
+		seed.get(dest, offset, length);
+	}
+
+	/**
+	 * Returns the first 8 bytes of the specified seed as a long, for
+	 * generators seeded by a long such as <code>SplittableRandom</code>.
+	 * @param index Index of the seed.
+	 * @return The seed as a long.
+	 */
+	public long getLong(int index) {
+		checkIndex(index);
+		if (length < 8) {
+			throw new IllegalStateException("Seeds are shorter than a long!");
+		}
+		return seeds.getLong(index * length);
+	}
+
+	/**
+	 * Returns a view of the backing buffer, without copying the seeds.
+	 * @return The seeds, back to back from position 0.
+	 */
+	public ByteBuffer getBuffer() {
+		return seeds.duplicate();
+	}
+
+	/**
+	 * Overwrites every seed with zeros.
+	 */
+	public void clear() {
+		if (seeds.hasArray()) {
+			Arrays.fill(seeds.array(), seeds.arrayOffset(), seeds.arrayOffset() + seeds.capacity(), (byte) 0);
+			return;
+		}
+		ByteBuffer wipe = seeds.duplicate();
+		wipe.clear();
+		while (wipe.remaining() >= 8) {
+			wipe.putLong(0);
+		}
+		while (wipe.hasRemaining()) {
+			wipe.put((byte) 0);
+		}
+	}
+}
@@ -0,0 +1,554 @@
+/*
+ * Copyright 2013 Hemant Padmanabhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.lizalab.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Serves random bytes from RdRand to local clients, letting JVMs that
+ * cannot or should not load the native library draw from one that does.
+ * Intended to be bound to the loopback interface and used through
+ * {@link RemoteRdRandRandom}.
+ *
+ * <p>Server and clients share a secret, kept in a file only its owner may
+ * read, see {@link #createSecret(File)}. Each connection starts with a
+ * mutual challenge-response proving knowledge of the secret with
+ * HMAC-SHA256 over fresh nonces, so other local users can neither draw
+ * from the server nor impersonate it while it is down. Random bytes are
+ * not encrypted, the server must only listen on the loopback interface.
+ * The client sends a 16 byte nonce, the server answers with its own nonce
+ * and its proof, and the client replies with its proof.</p>
+ *
+ * <p>The protocol is then length-prefixed and pipelined. A client sends any
+ * number of requests, each a 4 byte big-endian count of random bytes
+ * wanted, without waiting for responses. Responses are returned in
+ * request order, each a 4 byte big-endian RdRand status code followed by
+ * the requested bytes if the status is SUCCESS. Requests for zero,
+ * negative or more than <code>MAX_REQUEST</code> bytes close the connection.</p>
+ *
+ * <p>All connections are served by a single selector thread. The
+ * requests buffered for a connection are answered in batches, each from
+ * a single bulk RdRand draw. Random bytes are zeroed in the server's
+ * buffers once copied or written to the client.</p>
+ *
+ * @author Hemant Padmanabhan
+ * @since 1.2
+ */
+public final class RdRandServer implements Runnable, Closeable {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(RdRandServer.class);
+
+	/**
+	 * Default port the server listens on when run standalone.
+	 */
+	public static final int DEFAULT_PORT = 7477;
+
+	/**
+	 * Default secret file of the server when run standalone.
+	 */
+	public static final File DEFAULT_SECRET_FILE = new File(System.getProperty("user.home"), ".rdrand-server.secret");
+
+	/**
+	 * Length of secrets created by <code>createSecret</code>.
+	 */
+	public static final int SECRET_LENGTH = 32;
+
+	/**
+	 * Minimum length of a shared secret.
+	 */
+	public static final int MIN_SECRET_LENGTH = 16;
+
+	/**
+	 * Length of the handshake nonces.
+	 */
+	static final int NONCE_LENGTH = 16;
+
+	/**
+	 * Length of the handshake proofs, HMAC-SHA256 tags.
+	 */
+	static final int PROOF_LENGTH = 32;
+
+	/**
+	 * Role mixed into the server proof.
+	 */
+	static final byte SERVER_ROLE = 'S';
+
+	/**
+	 * Role mixed into the client proof.
+	 */
+	static final byte CLIENT_ROLE = 'C';
+
+	/**
+	 * Maximum number of random bytes a single request may ask for.
+	 */
+	public static final int MAX_REQUEST = 1 << 20;
+
+	/**
+	 * Size of the per connection buffer receiving requests.
+	 */
+	private static final int READ_BUFFER_SIZE = 4096;
+
+	/**
+	 * Maximum number of random bytes drawn at once for a batch of requests.
+	 */
+	private static final int MAX_BATCH = 4 * MAX_REQUEST;
+
+	/**
+	 * Pending response bytes above which a connection stops being read
+	 * until the client catches up.
+	 */
+	private static final int HIGH_WATER_MARK = 4 * MAX_REQUEST;
+
+	private final Selector selector;
+
+	private final ServerSocketChannel serverChannel;
+
+	/**
+	 * HMAC keyed with the shared secret, used by the selector thread only.
+	 */
+	private final Mac mac;
+
+	/**
+	 * Source of the server handshake nonces.
+	 */
+	private final SecureRandom nonces = new SecureRandom();
+
+	/**
+	 * Scratch array receiving the bulk RdRand draw for a batch of requests.
+	 */
+	private final byte[] scratch = new byte[MAX_BATCH];
+
+	/**
+	 * Scratch array holding the lengths of a batch of requests.
+	 */
+	private final int[] lengths = new int[READ_BUFFER_SIZE / 4];
+
+	private volatile boolean running = true;
+
+	/**
+	 * Opens a server listening on the specified address. The server does
+	 * not accept connections until it is run.
+	 * @param address Address to listen on, a port of 0 picks a free port.
+	 * @param secret Secret shared with clients, at least <code>MIN_SECRET_LENGTH</code> bytes.
+	 * @throws IOException If the server socket cannot be opened.
+	 */
+	public RdRandServer(InetSocketAddress address, byte[] secret) throws IOException {
+		mac = mac(secret);
+		selector = Selector.open();
+		serverChannel = ServerSocketChannel.open();
+		try {
+			serverChannel.socket().setReuseAddress(true);
+			serverChannel.socket().bind(address);
+			serverChannel.configureBlocking(false);
+			serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+		} catch (IOException e) {
+			close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns the address the server is listening on.
+	 * @return The bound address.
+	 */
+	public InetSocketAddress getAddress() {
+		return (InetSocketAddress) serverChannel.socket().getLocalSocketAddress();
+	}
+
+	/**
+	 * Runs the server on a new daemon thread.
+	 * @return The thread running the server.
+	 */
+	public Thread start() {
+		Thread thread = new Thread(this, "rdrand-server-" + getAddress().getPort());
+		thread.setDaemon(true);
+		thread.start();
+		return thread;
+	}
+
+	/**
+	 * Runs the selector loop until the server is closed.
+	 */
+	@Override
+	public void run() {
+		final String methodName = "run : ";
+
+		LOGGER.debug("{} Serving random bytes on {}", methodName, getAddress());
+		while (running) {
+			try {
+				selector.select();
+			} catch (IOException e) {
+				LOGGER.error("{} Selector failed, stopping server due to {}", methodName, e);
+				break;
+			}
+			if (!running) {
+				break;
+			}
+			Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+			while (keys.hasNext()) {
+				SelectionKey key = keys.next();
+				keys.remove();
+				try {
+					if (!key.isValid()) {
+						continue;
+					}
+					if (key.isAcceptable()) {
+						accept();
+						continue;
+					}
+					if (key.isReadable()) {
+						read(key);
+					}
+					if (key.isValid()) {
+						service(key);
+					}
+				} catch (IOException e) {
+					LOGGER.debug("{} Closing connection due to {}", methodName, e);
+					closeConnection(key);
+				} catch (CancelledKeyException e) {
+					// Connection closed concurrently, by close or the client.
+					closeConnection(key);
+				}
+			}
+		}
+		LOGGER.debug("{} Server stopped.", methodName);
+	}
+
+	/**
+	 * Accepts a pending client connection.
+	 * @throws IOException If the connection cannot be configured.
+	 */
+	private void accept() throws IOException {
+		SocketChannel channel = serverChannel.accept();
+		if (channel == null) {
+			return;
+		}
+		channel.configureBlocking(false);
+		channel.socket().setTcpNoDelay(true);
+		channel.register(selector, SelectionKey.OP_READ, new Connection());
+	}
+
+	/**
+	 * Reads requests from a connection into its request buffer.
+	 * @param key The readable connection key.
+	 * @throws IOException If the connection fails.
+	 */
+	private void read(SelectionKey key) throws IOException {
+		SocketChannel channel = (SocketChannel) key.channel();
+		Connection connection = (Connection) key.attachment();
+		if (channel.read(connection.in) < 0) {
+			closeConnection(key);
+		}
+	}
+
+	/**
+	 * Answers the buffered requests of a connection while its pending
+	 * responses stay below the high water mark, then writes what it can
+	 * and updates the operations the connection is selected for. Requests
+	 * are only read while the client keeps up with the responses.
+	 * @param key The connection key.
+	 * @throws IOException If the connection fails or sends an invalid request.
+	 */
+	private void service(SelectionKey key) throws IOException {
+		SocketChannel channel = (SocketChannel) key.channel();
+		Connection connection = (Connection) key.attachment();
+		if (connection.authenticated || authenticate(connection)) {
+			boolean answered = true;
+			while (answered && connection.out.position() < HIGH_WATER_MARK) {
+				answered = respond(connection);
+			}
+		}
+		ByteBuffer out = connection.out;
+		int end = out.position();
+		out.flip();
+		channel.write(out);
+		out.compact();
+		int pending = out.position();
+		// Zero the bytes written, left behind the pending ones by compact.
+		Arrays.fill(out.array(), pending, end, (byte) 0);
+		int ops = pending > 0 ? SelectionKey.OP_WRITE : 0;
+		if (pending < HIGH_WATER_MARK) {
+			ops |= SelectionKey.OP_READ;
+		}
+		key.interestOps(ops);
+	}
+
+	/**
+	 * Advances the handshake of a connection with the buffered bytes,
+	 * answering the client nonce and checking the client proof.
+	 * @param connection The connection the handshake was read from.
+	 * @return Whether the client is authenticated.
+	 * @throws IOException If the client fails to prove knowledge of the secret.
+	 */
+	private boolean authenticate(Connection connection) throws IOException {
+		ByteBuffer in = connection.in;
+		in.flip();
+		try {
+			if (connection.serverNonce == null) {
+				if (in.remaining() < NONCE_LENGTH) {
+					return false;
+				}
+				connection.clientNonce = new byte[NONCE_LENGTH];
+				in.get(connection.clientNonce);
+				connection.serverNonce = new byte[NONCE_LENGTH];
+				nonces.nextBytes(connection.serverNonce);
+				connection.ensureCapacity(NONCE_LENGTH + PROOF_LENGTH);
+				connection.out.put(connection.serverNonce);
+				connection.out.put(proof(mac, SERVER_ROLE, connection.clientNonce, connection.serverNonce));
+			}
+			if (in.remaining() < PROOF_LENGTH) {
+				return false;
+			}
+			byte[] proof = new byte[PROOF_LENGTH];
+			in.get(proof);
+			if (!MessageDigest.isEqual(proof, proof(mac, CLIENT_ROLE, connection.serverNonce, connection.clientNonce))) {
+				throw new IOException("Client failed to authenticate");
+			}
+			connection.authenticated = true;
+			return true;
+		} finally {
+			in.compact();
+		}
+	}
+
+	/**
+	 * Answers a batch of buffered requests from a single bulk RdRand draw.
+	 * A batch holds as many complete requests as fit within <code>MAX_BATCH</code>
+	 * bytes, always at least one.
+	 * @param connection The connection the requests were read from.
+	 * @return Whether any request was answered.
+	 * @throws IOException If the connection sent an invalid request.
+	 */
+	private boolean respond(Connection connection) throws IOException {
+		ByteBuffer in = connection.in;
+		in.flip();
+		int count = 0;
+		int total = 0;
+		while (in.remaining() >= 4) {
+			int length = in.getInt(in.position());
+			if (length <= 0 || length > MAX_REQUEST) {
+				throw new IOException("Invalid request length " + length);
+			}
+			if (count > 0 && total + length > MAX_BATCH) {
+				break;
+			}
+			in.getInt();
+			lengths[count++] = length;
+			total += length;
+		}
+		in.compact();
+		if (count == 0) {
+			return false;
+		}
+		try {
+			RdRandStatus status = RdRandUtil.tryNextBytes(scratch, total);
+			boolean success = status == RdRandStatus.SUCCESS;
+			connection.ensureCapacity(count * 4 + (success ? total : 0));
+			int offset = 0;
+			for (int i = 0; i < count; i++) {
+				connection.out.putInt(status.getCode());
+				if (success) {
+					connection.out.put(scratch, offset, lengths[i]);
+					offset += lengths[i];
+				}
+			}
+		} finally {
+			Arrays.fill(scratch, 0, total, (byte) 0);
+		}
+		return true;
+	}
+
+	/**
+	 * Closes a client connection, ignoring failures.
+	 * @param key The connection key.
+	 */
+	private void closeConnection(SelectionKey key) {
+		key.cancel();
+		Connection connection = (Connection) key.attachment();
+		if (connection != null) {
+			connection.wipe();
+		}
+		try { key.channel().close(); } catch (IOException e) {}
+	}
+
+	/**
+	 * Stops the server and closes all connections.
+	 */
+	@Override
+	public void close() {
+		running = false;
+		if (selector.isOpen()) {
+			selector.wakeup();
+			for (SelectionKey key : selector.keys()) {
+				try { key.channel().close(); } catch (IOException e) {}
+			}
+			try { selector.close(); } catch (IOException e) {}
+		}
+		try { serverChannel.close(); } catch (IOException e) {}
+	}
+
+	/**
+	 * Request and response buffers for a client connection.
+	 */
+	private static final class Connection {
+
+		private final ByteBuffer in = ByteBuffer.allocate(READ_BUFFER_SIZE);
+
+		private ByteBuffer out = ByteBuffer.allocate(READ_BUFFER_SIZE);
+
+		private byte[] clientNonce;
+
+		private byte[] serverNonce;
+
+		private boolean authenticated;
+
+		/**
+		 * Grows the response buffer to hold the specified number of additional bytes.
+		 * @param additional Number of bytes about to be added.
+		 */
+		private void ensureCapacity(int additional) {
+			if (out.remaining() >= additional) {
+				return;
+			}
+			int capacity = Math.max(out.position() + additional, 2 * out.capacity());
+			ByteBuffer grown = ByteBuffer.allocate(capacity);
+			out.flip();
+			grown.put(out);
+			Arrays.fill(out.array(), (byte) 0);
+			out = grown;
+		}
+
+		/**
+		 * Zeroes the random bytes still pending in the response buffer.
+		 */
+		private void wipe() {
+			Arrays.fill(out.array(), (byte) 0);
+		}
+	}
+
+	/**
+	 * Creates an HMAC-SHA256 keyed with a shared secret.
+	 * @param secret The shared secret.
+	 * @return The keyed HMAC.
+	 */
+	static Mac mac(byte[] secret) {
+		if (secret == null || secret.length < MIN_SECRET_LENGTH) {
+			throw new IllegalArgumentException("Shared secret must be at least " + MIN_SECRET_LENGTH + " bytes!");
+		}
+		try {
+			Mac mac = Mac.getInstance("HmacSHA256");
+			mac.init(new SecretKeySpec(secret, "HmacSHA256"));
+			return mac;
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException("HmacSHA256 unavailable", e);
+		}
+	}
+
+	/**
+	 * Computes a handshake proof, binding the role of the prover and both nonces.
+	 * @param mac HMAC keyed with the shared secret.
+	 * @param role Role of the prover.
+	 * @param first Nonce of the peer the proof is sent to.
+	 * @param second Nonce of the prover.
+	 * @return The proof.
+	 */
+	static byte[] proof(Mac mac, byte role, byte[] first, byte[] second) {
+		mac.update(role);
+		mac.update(first);
+		mac.update(second);
+		return mac.doFinal();
+	}
+
+	/**
+	 * Creates a new file only its owner may read, holding a random secret
+	 * to share between a server and its clients.
+	 * @param file The secret file, which must not exist.
+	 * @return The secret.
+	 * @throws IOException If the file exists or cannot be written.
+	 */
+	public static byte[] createSecret(File file) throws IOException {
+		byte[] secret = new byte[SECRET_LENGTH];
+		new SecureRandom().nextBytes(secret);
+		OutputStream out = Files.newOutputStream(PrivateFiles.createFile(file.toPath()));
+		try {
+			out.write(secret);
+		} finally {
+			out.close();
+		}
+		return secret;
+	}
+
+	/**
+	 * Reads a shared secret, refusing files that other users could read
+	 * or replace.
+	 * @param file The secret file.
+	 * @return The secret.
+	 * @throws IOException If the file cannot be read, is not owned by the
+	 * current user, or grants access to other users.
+	 */
+	public static byte[] readSecret(File file) throws IOException {
+		Path path = file.toPath();
+		PrivateFiles.checkOwned(path, PrivateFiles.SHARED_ANY);
+		byte[] secret = Files.readAllBytes(path);
+		if (secret.length < MIN_SECRET_LENGTH) {
+			throw new IOException("Secret in " + file + " is shorter than " + MIN_SECRET_LENGTH + " bytes");
+		}
+		return secret;
+	}
+
+	/**
+	 * Runs a server on the loopback interface until the process is stopped.
+	 * The secret file is created if missing.
+	 * @param args Optional port to listen on, defaults to <code>DEFAULT_PORT</code>,
+	 * and secret file, defaults to <code>DEFAULT_SECRET_FILE</code>.
+	 * @throws IOException If the secret cannot be read or the server socket cannot be opened.
+	 */
+	public static void main(String[] args) throws IOException {
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+		File file = args.length > 1 ? new File(args[1]) : DEFAULT_SECRET_FILE;
+		RdRandStatus status = RdRandUtil.verify();
+		if (status != RdRandStatus.SUCCESS) {
+			throw new RdRandException(status);
+		}
+		byte[] secret = file.exists() ? readSecret(file) : createSecret(file);
+		new RdRandServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), secret).run();
+	}
+}
@@ -42,6 +42,38 @@ public enum RdRandStatus {
 	 * Text description for RdRand status.
 	 */
 	private final String desc;
+	
+	/**
+	 * Lowest numeric code assigned to a status, used to offset codes
+	 * into the lookup table.
+	 */
+	private static final int MIN_CODE;
+	
+	/**
+	 * Lookup table of statuses indexed directly by their numeric code
+	 * offset by <code>MIN_CODE</code>. Avoids cloning <code>values()</code>
+	 * and scanning it on every native call.
+	 */
+	private static final RdRandStatus[] BY_CODE;
+	
+	/**
+	 * Populates the code based lookup table, bounded by the lowest and
+	 * highest codes assigned.
+	 */
+	static {
+		RdRandStatus[] statuses = values();
+		int minCode = statuses[0].code;
+		int maxCode = statuses[0].code;
+		for (RdRandStatus status : statuses) {
+			minCode = Math.min(minCode, status.code);
+			maxCode = Math.max(maxCode, status.code);
+		}
+		MIN_CODE = minCode;
+		BY_CODE = new RdRandStatus[maxCode - minCode + 1];
+		for (RdRandStatus status : statuses) {
+			BY_CODE[status.code - minCode] = status;
+		}
+	}
 
 	/**
 	 * Returns the numeric code for RdRand status. This is the value
@@ -74,14 +106,14 @@ public enum RdRandStatus {
 	/**
 	 * Returns RdRandStatus corresponding to the specified numeric code.
 	 * @param code The numeric code for which corresponding RdRandStatus is required.
-	 * @return The RdRandStatus matching the specified numeric status code.
+	 * @return The RdRandStatus matching the specified numeric status code,
+	 * or null if no status has the specified code.
 	 */
 	public static final RdRandStatus getStatusByCode(int code) {
-		for (RdRandStatus status : RdRandStatus.values()) {
-			if (status.getCode() == code) {
-				return status;
-			}
+		int index = code - MIN_CODE;
+		if (index < 0 || index >= BY_CODE.length) {
+			return null;
 		}
-		return null;
+		return BY_CODE[index];
 	}
 }
@@ -16,10 +16,17 @@
 
 package net.lizalab.util;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -33,28 +40,75 @@ import org.slf4j.LoggerFactory;
  */
 public final class RdRandUtil {
 	
-	private static final Logger LOGGER = LoggerFactory.getLogger(RdRandUtil.class);
-	
 	/**
 	 * Name of the shared library implementing the native methods.
 	 */
 	public static final String LIB_NAME = "librdrandjutil.so";
 	
+	/**
+	 * System property naming an installed copy of the shared library to
+	 * load, skipping its extraction from the archive.
+	 */
+	public static final String LIBRARY_PROPERTY = "net.lizalab.util.RdRandUtil.library";
+	
+	/**
+	 * System property set by GraalVM in native images.
+	 */
+	private static final String IMAGE_CODE_PROPERTY = "org.graalvm.nativeimage.imagecode";
+	
+	/**
+	 * System property which, when set to true, makes failing calls throw
+	 * preallocated stackless exceptions instead of capturing a new stack
+	 * trace on every failure.
+	 */
+	public static final String STACKLESS_EXCEPTIONS_PROPERTY = "net.lizalab.util.RdRandUtil.stacklessExceptions";
+	
+	/**
+	 * System property which, when set to true, fills byte arrays through
+	 * librdrand's byte oriented <code>rdrand_get_bytes</code> instead of
+	 * the default path writing 64 bit RdRand values directly into the array.
+	 */
+	public static final String LIBRDRAND_PROPERTY = "net.lizalab.util.RdRandUtil.librdrand";
+	
 	/**
 	 * Flag indicating whether the native shared library is loaded.
 	 */
 	private static final boolean LOADED;
 	
+	/**
+	 * Numeric status code returned by RdRand on success, compared directly
+	 * against native results to keep the success path free of lookups.
+	 */
+	private static final int SUCCESS_CODE = RdRandStatus.SUCCESS.getCode();
+	
+	/**
+	 * Preallocated stackless exceptions indexed by status ordinal, null
+	 * unless enabled through <code>STACKLESS_EXCEPTIONS_PROPERTY</code>.
+	 */
+	private static final RdRandException[] STACKLESS_EXCEPTIONS;
+	
+	/**
+	 * Flag indicating whether byte arrays are filled through librdrand
+	 * rather than the 64 bit word path, set through <code>LIBRDRAND_PROPERTY</code>.
+	 */
+	private static final boolean USE_LIBRDRAND = Boolean.getBoolean(LIBRDRAND_PROPERTY);
+	
 	/**
 	 * Bytes to read at a time from an input stream.
 	 */
 	private static final int READ_BYTES = 1024;
 	
+	/**
+	 * Suffix of the per-user directory the library is extracted to.
+	 */
+	private static final String LIB_DIR = "lizalab-rdrand";
+	
 	/**
 	 * Loads the shared library implementing the native methods.
 	 */
 	static {
 		LOADED = loadNativeLibrary();
+		STACKLESS_EXCEPTIONS = Boolean.getBoolean(STACKLESS_EXCEPTIONS_PROPERTY) ? stacklessExceptions() : null;
 	}
 	
 	/**
@@ -63,12 +117,59 @@ public final class RdRandUtil {
 	private RdRandUtil() {
 	}
 	
+	/**
+	 * Holder of the logger, keeping logging initialization out of loading
+	 * this class unless loading the library fails.
+	 */
+	private static final class Log {
+		
+		private static final Logger LOGGER = LoggerFactory.getLogger(RdRandUtil.class);
+	}
+	
+	/**
+	 * Preallocates a stackless exception for every failure status.
+	 * @return Stackless exceptions indexed by status ordinal.
+	 */
+	private static RdRandException[] stacklessExceptions() {
+		RdRandStatus[] statuses = RdRandStatus.values();
+		RdRandException[] exceptions = new RdRandException[statuses.length];
+		for (RdRandStatus status : statuses) {
+			if (status != RdRandStatus.SUCCESS) {
+				exceptions[status.ordinal()] = new RdRandException(status, false);
+			}
+		}
+		return exceptions;
+	}
+	
+	/**
+	 * Returns the exception to throw for the specified failure status,
+	 * a preallocated stackless instance if enabled or a new one otherwise.
+	 * @param status The RdRand failure status.
+	 * @return Exception describing the failure.
+	 */
+	private static RdRandException failure(RdRandStatus status) {
+		RdRandMonitor monitor = RdRandMonitor.active();
+		if (monitor != null) {
+			monitor.failure(status);
+		}
+		if (STACKLESS_EXCEPTIONS != null && status != null) {
+			return STACKLESS_EXCEPTIONS[status.ordinal()];
+		}
+		return new RdRandException(status);
+	}
+	
 	/**
 	 * Loads the shared library implementing the native methods. Expects the
 	 * library to be bundled with this class in the same archive at the
 	 * archive root. The library is extracted from the archive and loaded to
-	 * the temp directory indicated by the system property java.io.tmpdir.
-	 * Any previously loaded library will always be overwritten.
+	 * a directory private to the user in the temp directory indicated by the
+	 * system property java.io.tmpdir. A previously extracted library is reused
+	 * if identical and owned by the user, otherwise a new copy is renamed over
+	 * it, leaving JVMs already using it unaffected. If the private directory
+	 * cannot be used the library is extracted to a new temp file instead.
+	 * Extraction is skipped if an installed library is named through
+	 * <code>LIBRARY_PROPERTY</code>, or in a native image that finds the
+	 * library on its <code>java.library.path</code>.
 	 * @return True if the native library was etracted and loaded successfully.
 	 */
 	private static synchronized boolean loadNativeLibrary() {
@@ -77,47 +178,140 @@ public final class RdRandUtil {
 		if (LOADED) {
             return LOADED;
         }
+		String installed = System.getProperty(LIBRARY_PROPERTY);
+		if (installed != null) {
+			return loadLibrary(new File(installed), System.nanoTime(), System.nanoTime());
+		}
+		if (System.getProperty(IMAGE_CODE_PROPERTY) != null) {
+			try {
+				System.loadLibrary(LIB_NAME.substring(3, LIB_NAME.length() - 3));
+				return true;
+			} catch (UnsatisfiedLinkError e) {
+				// Fall back to the library embedded as a resource.
+			}
+		}
 		// Check that the shared library is packaged.
 		InputStream reader = RdRandUtil.class.getResourceAsStream(File.separator + LIB_NAME);
 		if (reader == null) {
 			return false;
 		}
 		// Extract the native shared library from jar to temp dir.
-		String tempFolder = new File(System.getProperty("java.io.tmpdir")).getAbsolutePath();
+		Path tempFolder = Paths.get(System.getProperty("java.io.tmpdir")).toAbsolutePath();
 		/*
-		 *  Since this library will run in user land we will prefix the user to the
-		 *  extracted library to ensure unique instance of the shared object writable by
-		 *  the user avoiding errors trying to overwrite library written previously by a different user.
+		 *  Since this library will run in user land we will extract it to a
+		 *  directory private to the user, so the loaded shared object can only
+		 *  have been written by the user and not replaced by another one.
 		 */
-		File extractedLibFile = new File(tempFolder, System.getProperty("user.name") + "_" + LIB_NAME);
-		LOGGER.debug("{} Loading bundled native shared library to {}", methodName, extractedLibFile.getAbsolutePath());
-		FileOutputStream writer = null;
+		String prefix = System.getProperty("user.name") + "_";
+		long start = System.nanoTime();
+		Path extractedLibFile = null;
+		Path written = null;
+		try {
+			byte[] library = readFully(reader);
+			Path libFolder = null;
+			try {
+				libFolder = PrivateFiles.privateDirectory(tempFolder.resolve(prefix + LIB_DIR));
+				extractedLibFile = libFolder.resolve(LIB_NAME);
+				if (isExtracted(extractedLibFile, library)) {
+					// Already extracted, possibly by another JVM.
+					return loadLibrary(extractedLibFile.toFile(), start, System.nanoTime());
+				}
+			} catch (IOException e) {
+				Log.LOGGER.warn("{} Extracting to a new file, private directory unusable: {}", methodName, e.toString());
+				libFolder = null;
+			}
+			/*
+			 *  Write a new copy and rename it over the previous one rather than
+			 *  overwriting it in place, which corrupts the library mapped by
+			 *  other JVMs still running with it. Without a private directory
+			 *  the new copy is loaded directly and removed on exit.
+			 */
+			written = PrivateFiles.createTempFile(libFolder != null ? libFolder : tempFolder, prefix + LIB_NAME + ".");
+			Files.write(written, library);
+			if (libFolder != null) {
+				try {
+					Files.move(written, extractedLibFile, StandardCopyOption.ATOMIC_MOVE);
+					written = null;
+				} catch (IOException e) {
+					extractedLibFile = null;
+				}
+			} else {
+				extractedLibFile = null;
+			}
+			if (extractedLibFile == null) {
+				extractedLibFile = written;
+				written.toFile().deleteOnExit();
+				written = null;
+			}
+		} catch (IOException e) {
+			Log.LOGGER.error("{} Failed to extract and load bundled native shared library due to {}", methodName, e);
+			if (written != null) {
+				try { Files.delete(written); } catch (IOException d) {}
+			}
+			return false;
+		}
+		return loadLibrary(extractedLibFile.toFile(), start, System.nanoTime());
+	}
+	
+	/**
+	 * Checks whether a library identical to the bundled one was already
+	 * extracted by the current user and cannot have been modified by others.
+	 * @param extracted The previously extracted library.
+	 * @param library The bundled library.
+	 * @return True if the extracted library can be loaded.
+	 */
+	private static boolean isExtracted(Path extracted, byte[] library) {
+		try {
+			PrivateFiles.checkOwned(extracted, PrivateFiles.SHARED_WRITE);
+			return Files.size(extracted) == library.length
+					&& Arrays.equals(library, Files.readAllBytes(extracted));
+		} catch (IOException e) {
+			return false;
+		}
+	}
+	
+	/**
+	 * Reads a stream to its end and closes it.
+	 * @param reader The stream to read.
+	 * @return The bytes read.
+	 * @throws IOException If reading fails.
+	 */
+	private static byte[] readFully(InputStream reader) throws IOException {
 		try {
-			writer = new FileOutputStream(extractedLibFile);
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
 			byte[] buffer = new byte[READ_BYTES];
 			int bytesRead = 0;
 			while ((bytesRead = reader.read(buffer)) != -1) {
-				writer.write(buffer, 0, bytesRead);
+				bytes.write(buffer, 0, bytesRead);
 			}
-		} catch (IOException e) {
-			LOGGER.error("{} Failed to extract and load bundled native shared library due to {}", methodName, e);
-			return false;
+			return bytes.toByteArray();
 		} finally {
-			// Check and close streams.
-			if (writer != null) {
-				try { writer.close(); } catch (Exception e){}
-			}
 			try { reader.close(); } catch (Exception e){}
 		}
-		// Load the extracted library.
+	}
+	
+	/**
+	 * Loads the specified library, reporting the load to the monitor.
+	 * @param library The library file.
+	 * @param start Time extraction of the library started.
+	 * @param extracted Time extraction of the library ended.
+	 * @return True if the library was loaded.
+	 */
+	private static boolean loadLibrary(File library, long start, long extracted) {
+		final String methodName = "loadLibrary : ";
+		
+		boolean loaded = false;
 		try {
-			System.load(extractedLibFile.getAbsolutePath());
+			System.load(library.getAbsolutePath());
+			loaded = true;
 		} catch (UnsatisfiedLinkError e) {
-			LOGGER.error("{} Failed to load extracted native library due to {}", methodName, e);
-			return false;
+			Log.LOGGER.error("{} Failed to load native library due to {}", methodName, e);
 		}
-		LOGGER.debug("{} Native shared library loaded.", methodName);
-		return true;
+		RdRandMonitor monitor = RdRandMonitor.active();
+		if (monitor != null) {
+			monitor.libraryLoad(library.getAbsolutePath(), extracted - start, System.nanoTime() - extracted, loaded);
+		}
+		return loaded;
 	}
 
 	/**
@@ -144,10 +338,49 @@ public final class RdRandUtil {
 	 * Native method fetching the specified number of bytes in the provided
 	 * byte array from RdRand.
 	 * @param bytes The byte array to fill with random bytes.
+	 * @param offset Offset of the first byte to fill.
+	 * @param size The number of random bytes to fetch.
+	 * @return Numeric status code returned by RdRand for the fetch operation.
+	 */
+	private static native int nextBytesNative(byte[] bytes, int offset, int size);
+	
+	/**
+	 * Native method filling the specified number of bytes in the provided
+	 * byte array with 64 bit RdRand values written directly into the array
+	 * a word at a time, bypassing librdrand's byte oriented fill.
+	 * @param bytes The byte array to fill with random bytes.
+	 * @param offset Offset of the first byte to fill.
 	 * @param size The number of random bytes to fetch.
 	 * @return Numeric status code returned by RdRand for the fetch operation.
 	 */
-	private static native int nextBytesNative(byte[] bytes, int size);
+	private static native int nextWordsNative(byte[] bytes, int offset, int size);
+	
+	/**
+	 * Fills the start of the array through the configured native path.
+	 * The word path writes into the array without bounds checks, callers
+	 * must pass a size within the array.
+	 * @param bytes The byte array to fill with random bytes.
+	 * @param size The number of random bytes to fetch, at most the array length.
+	 * @param librdrand True to fill through librdrand, false to use the 64 bit word path.
+	 * @return Numeric status code returned by RdRand for the fetch operation.
+	 */
+	static int fillNative(byte[] bytes, int size, boolean librdrand) {
+		return fillNative(bytes, 0, size, librdrand);
+	}
+	
+	/**
+	 * Fills a range of the array through the configured native path.
+	 * The word path writes into the array without bounds checks, callers
+	 * must pass a range within the array.
+	 * @param bytes The byte array to fill with random bytes.
+	 * @param offset Offset of the first byte to fill.
+	 * @param size The number of random bytes to fetch.
+	 * @param librdrand True to fill through librdrand, false to use the 64 bit word path.
+	 * @return Numeric status code returned by RdRand for the fetch operation.
+	 */
+	static int fillNative(byte[] bytes, int offset, int size, boolean librdrand) {
+		return librdrand ? nextBytesNative(bytes, offset, size) : nextWordsNative(bytes, offset, size);
+	}
 	
 	/**
 	 * Fetches random bytes from RdRand and places them into the user specified
@@ -158,39 +391,230 @@ public final class RdRandUtil {
 	 */
 	public static void nextBytes(byte[] bytes) {
 		if (!LOADED) {
-			throw new RdRandException(RdRandStatus.NOT_LOADED);
+			throw failure(RdRandStatus.NOT_LOADED);
+		}
+		RdRandMonitor monitor = RdRandMonitor.active();
+		Object event = monitor != null ? monitor.beginFill() : null;
+		int result = fillNative(bytes, bytes.length, USE_LIBRDRAND);
+		if (monitor != null) {
+			monitor.endFill(event, bytes.length, RdRandStatus.getStatusByCode(result));
+		}
+		if (result != SUCCESS_CODE) {
+			throw failure(RdRandStatus.getStatusByCode(result));
+		}
+	}
+	
+	/**
+	 * Fetches random bytes from RdRand and places them into the user specified
+	 * array, reporting failures through the returned status instead of an
+	 * exception. Intended for callers that retry or fail over on their own
+	 * and do not want to pay for exception creation.
+	 * @param bytes The byte array to fill with random bytes.
+	 * @return SUCCESS if the array was filled, otherwise the status explaining
+	 * why it was not.
+	 * @since 1.2
+	 */
+	public static RdRandStatus tryNextBytes(byte[] bytes) {
+		return tryNextBytes(bytes, bytes.length);
+	}
+	
+	/**
+	 * Fetches random bytes from RdRand into the start of the user specified
+	 * array, reporting failures through the returned status. Lets callers
+	 * reuse a single scratch array for draws of varying size.
+	 * @param bytes The byte array to fill with random bytes.
+	 * @param size The number of random bytes to fetch, at most the array length.
+	 * @return SUCCESS if the bytes were fetched, otherwise the status explaining
+	 * why they were not.
+	 * @throws IllegalArgumentException If the size is negative or exceeds the array length.
+	 */
+	static RdRandStatus tryNextBytes(byte[] bytes, int size) {
+		if (size < 0 || size > bytes.length) {
+			throw new IllegalArgumentException("Fill size " + size + " outside array of " + bytes.length + " bytes!");
+		}
+		if (!LOADED) {
+			return RdRandStatus.NOT_LOADED;
+		}
+		RdRandMonitor monitor = RdRandMonitor.active();
+		Object event = monitor != null ? monitor.beginFill() : null;
+		int result = fillNative(bytes, size, USE_LIBRDRAND);
+		if (monitor != null) {
+			monitor.endFill(event, size, RdRandStatus.getStatusByCode(result));
+		}
+		if (result == SUCCESS_CODE) {
+			return RdRandStatus.SUCCESS;
 		}
-		int result = nextBytesNative(bytes, bytes.length);
 		RdRandStatus status = RdRandStatus.getStatusByCode(result);
-		if (status != RdRandStatus.SUCCESS) {
-			throw new RdRandException(status);
+		if (status == null) {
+			// Codes outside the status set are not expected from the native side.
+			status = RdRandStatus.UNKNOWN;
+		}
+		if (monitor != null) {
+			monitor.failure(status);
 		}
+		return status;
 	}
 	
 	/**
-	 * Native method fetching an int from RdRand containing the specified
-	 * specified number of pseudo-random bits.
-	 * @param num The int array to fill with the generated int.
-	 * @param bits bits number of pseudo-random bits to be generated.
-	 * @return Numeric status code returned by RdRand for the fetch operation.
+	 * Native method filling a range of a direct buffer in place.
+	 * @param buffer The direct buffer to fill with random bytes.
+	 * @param offset Offset of the first byte to fill.
+	 * @param size The number of random bytes to fetch.
+	 * @param librdrand True to fill through librdrand, false to use the 64 bit word path.
+	 * @return Numeric status code returned by RdRand for the fetch operation,
+	 * UNKNOWN if the buffer has no native address.
 	 */
-	private static native int nextInt(int[] num, int bits);
+	private static native int nextDirectNative(ByteBuffer buffer, int offset, int size, boolean librdrand);
+	
+	/**
+	 * Fetches random bytes from RdRand into the remaining bytes of the
+	 * buffer, advancing its position to its limit. Direct buffers, such as
+	 * off-heap seed storage, and heap buffers are filled in place by a
+	 * single native call, so the random bytes are never staged in a copy.
+	 * @param buffer The buffer to fill with random bytes.
+	 * @throws RdRandException If RdRand returns a non-success status or the native library is not loaded.
+	 * @throws ReadOnlyBufferException If the buffer is read-only.
+	 * @throws IllegalArgumentException If the buffer is neither direct nor backed by an array.
+	 * @since 1.2
+	 */
+	public static void nextBytes(ByteBuffer buffer) {
+		if (buffer.isReadOnly()) {
+			throw new ReadOnlyBufferException();
+		}
+		if (!buffer.isDirect() && !buffer.hasArray()) {
+			throw new IllegalArgumentException("Buffer must be direct or backed by an array!");
+		}
+		if (!LOADED) {
+			throw failure(RdRandStatus.NOT_LOADED);
+		}
+		int size = buffer.remaining();
+		RdRandMonitor monitor = RdRandMonitor.active();
+		Object event = monitor != null ? monitor.beginFill() : null;
+		int result = buffer.isDirect() ? nextDirectNative(buffer, buffer.position(), size, USE_LIBRDRAND)
+				: fillNative(buffer.array(), buffer.arrayOffset() + buffer.position(), size, USE_LIBRDRAND);
+		if (monitor != null) {
+			monitor.endFill(event, size, RdRandStatus.getStatusByCode(result));
+		}
+		if (result != SUCCESS_CODE) {
+			throw failure(RdRandStatus.getStatusByCode(result));
+		}
+		buffer.position(buffer.limit());
+	}
+	
+	/**
+	 * Native method fetching 32 random bits from RdRand. The status and
+	 * the value are returned together so that no array is allocated to
+	 * carry the value back.
+	 * @return Numeric status code returned by RdRand in the high 32 bits and
+	 * the random value in the low 32 bits.
+	 */
+	private static native long nextIntNative();
 	
 	/**
 	 * Generates an integer containing the user-specified number of
-     * pseudo-random bits.
+     * pseudo-random bits (right justified, with leading zeros).
 	 * @param bits number of pseudo-random bits to be generated, where
      * 0 <= <code>bits</code> <= 32.
 	 * @return an <code>int</code> containing the user-specified number
      * of pseudo-random bits.
+	 * @throws RdRandException If RdRand returns a non-success status or the native library is not loaded.
 	 */
 	public static int next(int bits) {
-		int[] nextInt = new int[1];
-		int result = nextInt(nextInt, bits);
-		RdRandStatus status = RdRandStatus.getStatusByCode(result);
-		if (status != RdRandStatus.SUCCESS) {
-			throw new RdRandException(status);
+		if (!LOADED) {
+			throw failure(RdRandStatus.NOT_LOADED);
+		}
+		long result = nextIntNative();
+		int code = (int) (result >> 32);
+		if (code != SUCCESS_CODE) {
+			throw failure(RdRandStatus.getStatusByCode(code));
+		}
+		return (int) ((result & 0xFFFFFFFFL) >>> (32 - bits));
+	}
+	
+	/**
+	 * Native method returning the CPU the calling thread is running on.
+	 * @return The CPU number, or -1 if the platform cannot tell.
+	 */
+	private static native int currentCpuNative();
+	
+	/**
+	 * Returns the CPU the calling thread is currently running on, for
+	 * routing draws to CPU or NUMA node local buffers. The thread may be
+	 * migrated at any time, the result is a hint.
+	 * @return The CPU number, or -1 if the native library is not loaded or
+	 * the platform cannot tell.
+	 * @since 1.2
+	 */
+	public static int currentCpu() {
+		if (!LOADED) {
+			return -1;
 		}
-		return nextInt[0];
+		return currentCpuNative();
+	}
+	
+	/**
+	 * Checks whether the native shared library is loaded, for callers of
+	 * the package-private native methods.
+	 * @return True if the native library is loaded.
+	 */
+	static boolean isLoaded() {
+		return LOADED;
 	}
+	
+	/**
+	 * Native method reading a 64 bit value from a direct buffer with
+	 * acquire ordering, for memory shared with other processes.
+	 * @param buffer The direct buffer.
+	 * @param offset Offset of the value, 8 byte aligned.
+	 * @return The value.
+	 */
+	static native long loadNative(ByteBuffer buffer, long offset);
+	
+	/**
+	 * Native method writing a 64 bit value to a direct buffer with
+	 * release ordering, for memory shared with other processes.
+	 * @param buffer The direct buffer.
+	 * @param offset Offset of the value, 8 byte aligned.
+	 * @param value The value.
+	 */
+	static native void storeNative(ByteBuffer buffer, long offset, long value);
+	
+	/**
+	 * Native method atomically replacing a 64 bit value in a direct buffer
+	 * if it holds the expected value, for memory shared with other processes.
+	 * @param buffer The direct buffer.
+	 * @param offset Offset of the value, 8 byte aligned.
+	 * @param expected The expected value.
+	 * @param value The new value.
+	 * @return True if the value was replaced.
+	 */
+	static native boolean compareAndSetNative(ByteBuffer buffer, long offset, long expected, long value);
+	
+	/**
+	 * Native method copying bytes from an array into a direct buffer, then
+	 * writing the 64 bit stamp preceding them with release ordering, so
+	 * another process seeing the stamp also sees the bytes.
+	 * @param buffer The direct buffer.
+	 * @param stampOffset Offset of the stamp, 8 byte aligned, the bytes follow it.
+	 * @param stamp The stamp.
+	 * @param bytes The array holding the bytes.
+	 * @param offset Offset of the bytes in the array.
+	 * @param size Number of bytes.
+	 */
+	static native void publishNative(ByteBuffer buffer, long stampOffset, long stamp, byte[] bytes, int offset,
+			int size);
+	
+	/**
+	 * Native method copying the bytes following a 64 bit stamp in a direct
+	 * buffer into an array and zeroing them, then writing the stamp with
+	 * release ordering, so another process seeing the stamp sees the bytes zeroed.
+	 * @param buffer The direct buffer.
+	 * @param stampOffset Offset of the stamp, 8 byte aligned, the bytes follow it.
+	 * @param stamp The stamp.
+	 * @param bytes The array receiving the bytes.
+	 * @param offset Offset in the array to copy the bytes to.
+	 * @param size Number of bytes.
+	 */
+	static native void takeNative(ByteBuffer buffer, long stampOffset, long stamp, byte[] bytes, int offset,
+			int size);
 }
@@ -0,0 +1,321 @@
+/*
+ * Copyright 2013 Hemant Padmanabhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.lizalab.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link RdRandBackend} wrapper recording all random data served by the
+ * wrapped backend into a log that {@link ReplayRdRandBackend} can later
+ * serve back, making runs driven by RdRand reproducible.
+ *
+ * <p>The log is the raw stream of bytes served, in the order served.
+ * Values returned by <code>next</code> are recorded as 4 big-endian bytes.
+ * Served data is staged in memory and handed to a writer thread that
+ * copies it into large memory mapped segments of the log file, so the
+ * recording threads only pay for a copy into the staging buffer. The log
+ * is not compressed, RdRand output is incompressible.</p>
+ *
+ * <p>Draws are serialized while recording so the log order is the order
+ * data was served in, replaying it reproduces a run exactly when the
+ * draws are made in the same order.</p>
+ *
+ * @author Hemant Padmanabhan
+ * @since 1.2
+ */
+public final class RecordingRdRandBackend extends AbstractRdRandBackend implements Closeable {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(RecordingRdRandBackend.class);
+
+	/**
+	 * Default size of the memory mapped log segments.
+	 */
+	public static final int DEFAULT_SEGMENT_SIZE = 64 << 20;
+
+	/**
+	 * Size of the buffers staging served data for the writer thread.
+	 */
+	private static final int STAGING_SIZE = 1 << 20;
+
+	/**
+	 * Number of staging buffers, bounding the data waiting to be written.
+	 */
+	private static final int STAGING_BUFFERS = 4;
+
+	/**
+	 * Interval at which a recording thread waiting for a free staging
+	 * buffer checks whether the writer has failed.
+	 */
+	private static final long HAND_OFF_POLL_MILLIS = 100;
+
+	/**
+	 * Backend whose served data is recorded.
+	 */
+	private final RdRandBackend delegate;
+
+	private final RandomAccessFile file;
+
+	private final int segmentSize;
+
+	/**
+	 * Staging buffers filled and waiting to be written.
+	 */
+	private final BlockingQueue<Staging> filled = new ArrayBlockingQueue<Staging>(STAGING_BUFFERS + 1);
+
+	/**
+	 * Staging buffers written and available for reuse.
+	 */
+	private final BlockingQueue<Staging> free = new ArrayBlockingQueue<Staging>(STAGING_BUFFERS);
+
+	/**
+	 * Staging buffer currently being filled by recording threads.
+	 */
+	private Staging current;
+
+	private final Thread writer;
+
+	/**
+	 * Failure of the writer thread, reported to recording threads.
+	 */
+	private volatile IOException failure;
+
+	private boolean closed;
+
+	/**
+	 * Staging buffer marking the end of the recording for the writer thread.
+	 */
+	private static final Staging END = new Staging(0);
+
+	/**
+	 * Starts recording the data served by the specified backend to the
+	 * specified log file using the default segment size. Any existing
+	 * file is overwritten.
+	 * @param delegate The backend whose served data is recorded.
+	 * @param log The log file.
+	 * @throws IOException If the log file cannot be opened.
+	 */
+	public RecordingRdRandBackend(RdRandBackend delegate, File log) throws IOException {
+		this(delegate, log, DEFAULT_SEGMENT_SIZE);
+	}
+
+	/**
+	 * Starts recording the data served by the specified backend to the
+	 * specified log file. Any existing file is overwritten.
+	 * @param delegate The backend whose served data is recorded.
+	 * @param log The log file.
+	 * @param segmentSize Size of the memory mapped log segments.
+	 * @throws IOException If the log file cannot be opened.
+	 */
+	public RecordingRdRandBackend(RdRandBackend delegate, File log, int segmentSize) throws IOException {
+		if (delegate == null) {
+			throw new IllegalArgumentException("Missing rdrand backend!");
+		}
+		if (segmentSize <= 0) {
+			throw new IllegalArgumentException("Segment size must be positive!");
+		}
+		this.delegate = delegate;
+		this.segmentSize = segmentSize;
+		file = new RandomAccessFile(log, "rw");
+		file.setLength(0);
+		for (int i = 1; i < STAGING_BUFFERS; i++) {
+			free.add(new Staging(STAGING_SIZE));
+		}
+		current = new Staging(STAGING_SIZE);
+		writer = new Thread(new Writer(), "rdrand-recorder-" + log.getName());
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	@Override
+	public RdRandStatus verify() {
+		return delegate.verify();
+	}
+
+	@Override
+	public synchronized void nextBytes(byte[] bytes) {
+		ensureOpen();
+		delegate.nextBytes(bytes);
+		int offset = 0;
+		int length = bytes.length;
+		while (length > 0) {
+			if (current.remaining() == 0) {
+				handOff();
+			}
+			int len = current.put(bytes, offset, length);
+			offset += len;
+			length -= len;
+		}
+	}
+
+	@Override
+	public synchronized int next(int bits) {
+		ensureOpen();
+		int next = delegate.next(bits);
+		if (current.remaining() < 4) {
+			handOff();
+		}
+		current.putInt(next);
+		return next;
+	}
+
+	/**
+	 * Verifies the recording is still open and the writer has not failed.
+	 */
+	private void ensureOpen() {
+		if (closed) {
+			throw new IllegalStateException("Recording is closed!");
+		}
+		if (failure != null) {
+			throw new IllegalStateException("Recording failed!", failure);
+		}
+	}
+
+	/**
+	 * Hands the current staging buffer to the writer and takes a free one,
+	 * waiting for the writer if it has fallen behind.
+	 */
+	private void handOff() {
+		try {
+			filled.put(current);
+			Staging next;
+			while ((next = free.poll(HAND_OFF_POLL_MILLIS, TimeUnit.MILLISECONDS)) == null) {
+				if (failure != null) {
+					throw new IllegalStateException("Recording failed!", failure);
+				}
+			}
+			current = next;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted waiting for the recording writer!", e);
+		}
+	}
+
+	/**
+	 * Writes out all recorded data, trims the log to its recorded length
+	 * and stops recording.
+	 * @throws IOException If writing the log fails.
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			try {
+				filled.put(current);
+				filled.put(END);
+				writer.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted waiting for the recording writer!", e);
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	/**
+	 * Copies staged data into memory mapped segments of the log file.
+	 */
+	private final class Writer implements Runnable {
+
+		@Override
+		public void run() {
+			final String methodName = "run : ";
+
+			long written = 0;
+			MappedByteBuffer segment = null;
+			try {
+				FileChannel channel = file.getChannel();
+				Staging staging;
+				while ((staging = filled.take()) != END) {
+					int offset = 0;
+					while (offset < staging.length) {
+						if (segment == null || !segment.hasRemaining()) {
+							if (segment != null) {
+								segment.force();
+							}
+							segment = channel.map(FileChannel.MapMode.READ_WRITE, written, segmentSize);
+						}
+						int len = Math.min(staging.length - offset, segment.remaining());
+						segment.put(staging.bytes, offset, len);
+						offset += len;
+						written += len;
+					}
+					staging.length = 0;
+					free.offer(staging);
+				}
+				if (segment != null) {
+					segment.force();
+				}
+				file.setLength(written);
+			} catch (IOException e) {
+				LOGGER.error("{} Failed to write recording due to {}", methodName, e);
+				failure = e;
+			} catch (InterruptedException e) {
+				failure = new IOException("Recording writer interrupted!", e);
+			} finally {
+				try { file.close(); } catch (IOException e) {}
+			}
+		}
+	}
+
+	/**
+	 * Buffer staging served data for the writer thread.
+	 */
+	private static final class Staging {
+
+		private final byte[] bytes;
+
+		private int length;
+
+		private Staging(int size) {
+			bytes = new byte[size];
+		}
+
+		private int remaining() {
+			return bytes.length - length;
+		}
+
+		private int put(byte[] src, int offset, int len) {
+			len = Math.min(len, remaining());
+			System.arraycopy(src, offset, bytes, length, len);
+			length += len;
+			return len;
+		}
+
+		private void putInt(int value) {
+			bytes[length++] = (byte) (value >>> 24);
+			bytes[length++] = (byte) (value >>> 16);
+			bytes[length++] = (byte) (value >>> 8);
+			bytes[length++] = (byte) value;
+		}
+	}
+}
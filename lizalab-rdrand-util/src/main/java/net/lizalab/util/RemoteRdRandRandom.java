@@ -0,0 +1,270 @@
+/*
+ * Copyright 2013 Hemant Padmanabhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.lizalab.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Random;
+
+import javax.crypto.Mac;
+
+/**
+ * <code>java.util.Random</code> extension drawing its random bytes from an
+ * {@link RdRandServer}, for JVMs that cannot load the native library
+ * themselves. Random bytes are fetched from the server in blocks and
+ * served from a client side buffer, so small draws do not each cost a
+ * round trip. Large fills are split into requests that are pipelined to
+ * the server before any response is read. The client and the server
+ * authenticate each other with the secret they share before any random
+ * bytes are drawn, and reads from the server time out.
+ *
+ * <p>Instances are thread safe but serialize access to the connection,
+ * use one instance per thread for highly concurrent use.</p>
+ *
+ * @author Hemant Padmanabhan
+ * @since 1.2
+ */
+public final class RemoteRdRandRandom extends Random implements Closeable {
+
+	private static final long serialVersionUID = 3360722924829461512L;
+
+	/**
+	 * Default size of the client side buffer.
+	 */
+	public static final int DEFAULT_BUFFER_SIZE = 4096;
+
+	/**
+	 * Default timeout for connecting to and reading from the server.
+	 */
+	public static final int DEFAULT_TIMEOUT_MILLIS = 10000;
+
+	private final transient Socket socket;
+
+	private final transient DataInputStream in;
+
+	private final transient DataOutputStream out;
+
+	/**
+	 * Client side buffer of random bytes not yet served.
+	 */
+	private final byte[] buffer;
+
+	/**
+	 * Position of the next unserved byte in the buffer.
+	 */
+	private int position;
+
+	/**
+	 * Connects to a server at the specified address using the default
+	 * buffer size and timeout.
+	 * @param address Address of the RdRandServer.
+	 * @param secret Secret shared with the server.
+	 * @throws IOException If the connection cannot be established or authenticated.
+	 */
+	public RemoteRdRandRandom(InetSocketAddress address, byte[] secret) throws IOException {
+		this(address, secret, DEFAULT_BUFFER_SIZE, DEFAULT_TIMEOUT_MILLIS);
+	}
+
+	/**
+	 * Connects to a server at the specified address.
+	 * Invokes the super class constructor in a manner that results
+	 * in its own implementation of <code>setSeed</code> being invoked.
+	 * @param address Address of the RdRandServer.
+	 * @param secret Secret shared with the server.
+	 * @param bufferSize Size of the client side buffer, at least 4 bytes and at most <code>RdRandServer.MAX_REQUEST</code>.
+	 * @param timeoutMillis Timeout for connecting to and reading from the server, positive.
+	 * @throws IOException If the connection cannot be established or authenticated.
+	 */
+	public RemoteRdRandRandom(InetSocketAddress address, byte[] secret, int bufferSize, int timeoutMillis)
+			throws IOException {
+		// Make super class constructor invoke our implementation of setSeed.
+		super(0);
+		if (bufferSize < 4 || bufferSize > RdRandServer.MAX_REQUEST) {
+			throw new IllegalArgumentException("Buffer size must be between 4 bytes and the maximum request!");
+		}
+		if (timeoutMillis <= 0) {
+			throw new IllegalArgumentException("Timeout must be positive!");
+		}
+		Mac mac = RdRandServer.mac(secret);
+		socket = new Socket();
+		try {
+			socket.setTcpNoDelay(true);
+			socket.setSoTimeout(timeoutMillis);
+			socket.connect(address, timeoutMillis);
+			in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), bufferSize + 4));
+			out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			authenticate(in, out, mac);
+		} catch (IOException e) {
+			socket.close();
+			throw e;
+		}
+		buffer = new byte[bufferSize];
+		position = bufferSize;
+	}
+
+	/**
+	 * Runs the client side of the handshake, sending a nonce, checking the
+	 * server proof and replying with the client proof.
+	 * @param in Stream from the server.
+	 * @param out Stream to the server.
+	 * @param mac HMAC keyed with the shared secret.
+	 * @throws IOException If the server fails to prove knowledge of the secret.
+	 */
+	static void authenticate(DataInputStream in, DataOutputStream out, Mac mac) throws IOException {
+		byte[] clientNonce = new byte[RdRandServer.NONCE_LENGTH];
+		new SecureRandom().nextBytes(clientNonce);
+		out.write(clientNonce);
+		out.flush();
+		byte[] serverNonce = new byte[RdRandServer.NONCE_LENGTH];
+		in.readFully(serverNonce);
+		byte[] proof = new byte[RdRandServer.PROOF_LENGTH];
+		in.readFully(proof);
+		if (!MessageDigest.isEqual(proof, RdRandServer.proof(mac, RdRandServer.SERVER_ROLE, clientNonce, serverNonce))) {
+			throw new IOException("Server failed to authenticate");
+		}
+		out.write(RdRandServer.proof(mac, RdRandServer.CLIENT_ROLE, serverNonce, clientNonce));
+		out.flush();
+	}
+
+	/**
+	 * Generates user specified number of random bytes, from the client side
+	 * buffer for small requests and directly from the server otherwise.
+	 *
+	 * @param bytes The array to be filled with random bytes.
+	 * @throws RdRandException If the server returns a non-success status.
+	 * @throws IllegalStateException If communication with the server fails.
+	 */
+	@Override
+	public synchronized void nextBytes(byte[] bytes) {
+		int offset = 0;
+		int available = buffer.length - position;
+		if (bytes.length > available && bytes.length - available > buffer.length) {
+			// Drain the buffer and fetch the rest directly in pipelined requests.
+			System.arraycopy(buffer, position, bytes, 0, available);
+			position = buffer.length;
+			fetch(bytes, available, bytes.length - available);
+			return;
+		}
+		while (offset < bytes.length) {
+			if (position == buffer.length) {
+				refill();
+			}
+			int len = Math.min(bytes.length - offset, buffer.length - position);
+			System.arraycopy(buffer, position, bytes, offset, len);
+			position += len;
+			offset += len;
+		}
+	}
+
+	/**
+	 * Overridden empty implementation. RDRAND cannot be seeded externally.
+	 */
+	@Override
+	public synchronized void setSeed(long seed) {
+	}
+
+	/**
+	 * Generates an integer containing the user-specified number of
+	 * pseudo-random bits (right justified, with leading zeros) from
+	 * four buffered random bytes.
+	 *
+	 * @param bits number of pseudo-random bits to be generated, where
+	 * 0 <= <code>bits</code> <= 32.
+	 * @return an <code>int</code> containing the user-specified number
+	 * of pseudo-random bits (right justified, with leading zeros).
+	 */
+	@Override
+	protected synchronized int next(int bits) {
+		if (buffer.length - position < 4) {
+			refill();
+		}
+		int next = ((buffer[position] & 0xFF) << 24) | ((buffer[position + 1] & 0xFF) << 16)
+				| ((buffer[position + 2] & 0xFF) << 8) | (buffer[position + 3] & 0xFF);
+		position += 4;
+		return (int) ((next & 0xFFFFFFFFL) >>> (32 - bits));
+	}
+
+	/**
+	 * Refills the whole buffer from the server.
+	 */
+	private void refill() {
+		RdRandMonitor monitor = RdRandMonitor.active();
+		Object event = monitor != null ? monitor.beginRefill() : null;
+		fetch(buffer, 0, buffer.length);
+		position = 0;
+		if (monitor != null) {
+			monitor.endRefill(event, "RemoteRdRandRandom", buffer.length);
+		}
+	}
+
+	/**
+	 * Fetches random bytes from the server, writing all requests before
+	 * reading any response.
+	 * @param bytes The array to fill.
+	 * @param offset Offset of the first byte to fill.
+	 * @param length Number of bytes to fill.
+	 */
+	private void fetch(byte[] bytes, int offset, int length) {
+		try {
+			int remaining = length;
+			while (remaining > 0) {
+				int request = Math.min(remaining, RdRandServer.MAX_REQUEST);
+				out.writeInt(request);
+				remaining -= request;
+			}
+			out.flush();
+			RdRandStatus failure = null;
+			remaining = length;
+			while (remaining > 0) {
+				int request = Math.min(remaining, RdRandServer.MAX_REQUEST);
+				int code = in.readInt();
+				if (code == RdRandStatus.SUCCESS.getCode()) {
+					in.readFully(bytes, offset, request);
+					offset += request;
+				} else if (failure == null) {
+					// Keep reading the remaining responses so the connection stays in sync.
+					failure = RdRandStatus.getStatusByCode(code);
+				}
+				remaining -= request;
+			}
+			if (failure != null) {
+				throw new RdRandException(failure);
+			}
+		} catch (IOException e) {
+			// Responses may be left unread, the connection is out of sync.
+			try { socket.close(); } catch (IOException closing) {}
+			throw new IllegalStateException("Failed to fetch random bytes from " + socket.getRemoteSocketAddress(), e);
+		}
+	}
+
+	/**
+	 * Closes the connection to the server.
+	 * @throws IOException If closing the connection fails.
+	 */
+	@Override
+	public void close() throws IOException {
+		socket.close();
+	}
+}
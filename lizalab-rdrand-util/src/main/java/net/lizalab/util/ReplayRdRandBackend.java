@@ -0,0 +1,184 @@
+/*
+ * Copyright 2013 Hemant Padmanabhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.lizalab.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * {@link RdRandBackend} serving back the random data captured by a
+ * {@link RecordingRdRandBackend}, exactly as recorded. Used through
+ * <code>new RdRandRandom(new ReplayRdRandBackend(log))</code> to rerun a
+ * simulation or benchmark on identical input.
+ *
+ * <p>The log is memory mapped and served by copying directly out of the
+ * mapping, so replay runs at memory bandwidth and does not touch RdRand.
+ * Replaying past the end of the log fails with an IllegalStateException.</p>
+ *
+ * @author Hemant Padmanabhan
+ * @since 1.2
+ */
+public final class ReplayRdRandBackend extends AbstractRdRandBackend implements Closeable {
+
+	/**
+	 * Maximum size of a single mapped region of the log.
+	 */
+	private static final int MAX_MAPPING = 1 << 30;
+
+	/**
+	 * Mapped regions of the log, in order.
+	 */
+	private final MappedByteBuffer[] segments;
+
+	/**
+	 * Index of the region serving the next byte.
+	 */
+	private int segment;
+
+	/**
+	 * Number of recorded bytes not yet replayed.
+	 */
+	private long remaining;
+
+	/**
+	 * Opens and maps the specified recording for replay.
+	 * @param log The log file written by a RecordingRdRandBackend.
+	 * @throws IOException If the log file cannot be opened or mapped.
+	 */
+	public ReplayRdRandBackend(File log) throws IOException {
+		this(log, MAX_MAPPING);
+	}
+
+	/**
+	 * Opens and maps the specified recording for replay in regions of the
+	 * specified size, small ones letting tests replay across regions.
+	 * @param log The log file written by a RecordingRdRandBackend.
+	 * @param maxMapping Maximum size of a single mapped region.
+	 * @throws IOException If the log file cannot be opened or mapped.
+	 */
+	ReplayRdRandBackend(File log, int maxMapping) throws IOException {
+		if (maxMapping <= 0) {
+			throw new IllegalArgumentException("Mapped region size must be positive!");
+		}
+		RandomAccessFile file = new RandomAccessFile(log, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			long size = channel.size();
+			remaining = size;
+			int count = (int) ((size + maxMapping - 1) / maxMapping);
+			segments = new MappedByteBuffer[count];
+			for (int i = 0; i < count; i++) {
+				long start = (long) i * maxMapping;
+				segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(maxMapping, size - start));
+			}
+		} finally {
+			// Mappings remain valid once the file is closed.
+			file.close();
+		}
+	}
+
+	/**
+	 * Returns the number of recorded bytes not yet replayed.
+	 * @return Remaining bytes in the recording.
+	 */
+	public synchronized long remaining() {
+		return remaining;
+	}
+
+	@Override
+	public RdRandStatus verify() {
+		return RdRandStatus.SUCCESS;
+	}
+
+	@Override
+	public synchronized void nextBytes(byte[] bytes) {
+		read(bytes, bytes.length);
+	}
+
+	/**
+	 * Returns the next recorded value of <code>next</code>. The value is
+	 * returned as recorded, it already holds the requested number of bits.
+	 */
+	@Override
+	public synchronized int next(int bits) {
+		checkRemaining(4);
+		remaining -= 4;
+		MappedByteBuffer current = segments[segment];
+		if (current.remaining() >= 4) {
+			int next = current.getInt();
+			if (!current.hasRemaining()) {
+				segment++;
+			}
+			return next;
+		}
+		// The value straddles two regions, assemble it a byte at a time.
+		int next = 0;
+		for (int i = 0; i < 4; i++) {
+			current = segments[segment];
+			next = (next << 8) | (current.get() & 0xFF);
+			if (!current.hasRemaining()) {
+				segment++;
+			}
+		}
+		return next;
+	}
+
+	/**
+	 * Checks enough recorded bytes remain for a draw.
+	 * @param length Number of bytes about to be replayed.
+	 */
+	private void checkRemaining(int length) {
+		if (remaining < length) {
+			throw new IllegalStateException("Recording exhausted, " + length + " bytes requested with "
+					+ remaining + " remaining!");
+		}
+	}
+
+	/**
+	 * Copies the next recorded bytes into the specified array.
+	 * @param bytes The array to fill.
+	 * @param length Number of bytes to fill.
+	 */
+	private void read(byte[] bytes, int length) {
+		checkRemaining(length);
+		remaining -= length;
+		int offset = 0;
+		while (offset < length) {
+			MappedByteBuffer current = segments[segment];
+			int len = Math.min(length - offset, current.remaining());
+			current.get(bytes, offset, len);
+			offset += len;
+			if (!current.hasRemaining()) {
+				segment++;
+			}
+		}
+	}
+
+	/**
+	 * Stops serving the recording. The mapping is released once this
+	 * instance is garbage collected.
+	 */
+	@Override
+	public synchronized void close() {
+		segment = segments.length;
+		remaining = 0;
+	}
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright 2013 Hemant Padmanabhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.lizalab.util;
+
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.uncommons.maths.random.AESCounterRNG;
+import org.uncommons.maths.random.MersenneTwisterRNG;
+import org.uncommons.maths.random.SeedException;
+
+/**
+ * Creates fleets of seeded RNGs, drawing every seed in a single bulk draw
+ * through {@link RdRandSeedGenerator#generateSeeds(int, int)} and
+ * constructing the RNGs in parallel on a fork-join pool, rather than
+ * paying a native call per seed and constructing them one at a time.
+ *
+ * <p>Any RNG seeded by a byte array or a long can be created through
+ * {@link SeededConstructor} and {@link LongSeededConstructor}; on Java 8
+ * and later a <code>java.util.SplittableRandom</code> fleet is
+ * <code>createFromLongs(n, SplittableRandom::new)</code>, and a
+ * <code>java.util.random.RandomGenerator</code> one is similarly created
+ * through its <code>RandomGeneratorFactory</code>. Seeds are wiped once
+ * the RNGs are constructed.</p>
+ *
+ * @author Hemant Padmanabhan
+ * @since 1.2
+ */
+public final class SeededRngFactory {
+
+	/**
+	 * Length of the seeds of the uncommons-maths RNGs created here.
+	 */
+	public static final int UNCOMMONS_SEED_LENGTH = 16;
+
+	/**
+	 * Number of RNGs below which construction is not split further.
+	 */
+	private static final int THRESHOLD = 64;
+
+	/**
+	 * Constructs an RNG from a byte array seed.
+	 * @param <T> Type of the RNG.
+	 */
+	public interface SeededConstructor<T> {
+		/**
+		 * Constructs an RNG.
+		 * @param seed The seed, owned by the caller and wiped afterwards.
+		 * @return The RNG.
+		 * @throws Exception If the RNG cannot be constructed.
+		 */
+		T create(byte[] seed) throws Exception;
+	}
+
+	/**
+	 * Constructs an RNG from a long seed.
+	 * @param <T> Type of the RNG.
+	 */
+	public interface LongSeededConstructor<T> {
+		/**
+		 * Constructs an RNG.
+		 * @param seed The seed.
+		 * @return The RNG.
+		 * @throws Exception If the RNG cannot be constructed.
+		 */
+		T create(long seed) throws Exception;
+	}
+
+	private final RdRandSeedGenerator generator;
+
+	private final ForkJoinPool pool;
+
+	/**
+	 * Constructs a factory seeding from RdRand and constructing on a pool,
+	 * with one worker per available processor, shared by all factories
+	 * constructed this way.
+	 */
+	public SeededRngFactory() {
+		this(new RdRandSeedGenerator(), SharedPool.POOL);
+	}
+
+	/**
+	 * Constructs a factory seeding from the specified generator and
+	 * constructing on the specified pool.
+	 * @param generator The seed generator.
+	 * @param pool The pool constructing the RNGs.
+	 */
+	public SeededRngFactory(RdRandSeedGenerator generator, ForkJoinPool pool) {
+		if (generator == null || pool == null) {
+			throw new IllegalArgumentException("Missing seed generator or fork-join pool!");
+		}
+		this.generator = generator;
+		this.pool = pool;
+	}
+
+	/**
+	 * Creates RNGs seeded by byte arrays.
+	 * @param <T> Type of the RNGs.
+	 * @param count Number of RNGs.
+	 * @param seedLength Length of each seed in bytes.
+	 * @param constructor Constructs each RNG from its seed.
+	 * @return The RNGs.
+	 * @throws SeedException If the seeds cannot be generated.
+	 */
+	public <T> List<T> create(int count, int seedLength, final SeededConstructor<T> constructor)
+			throws SeedException {
+		if (constructor == null) {
+			throw new IllegalArgumentException("Missing RNG constructor!");
+		}
+		final RdRandSeeds seeds = generator.generateSeeds(count, seedLength);
+		return construct(seeds, new Construction<T>() {
+			@Override
+			public T create(int index) throws Exception {
+				byte[] seed = seeds.getSeed(index);
+				try {
+					return constructor.create(seed);
+				} finally {
+					Arrays.fill(seed, (byte) 0);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Creates RNGs seeded by longs.
+	 * @param <T> Type of the RNGs.
+	 * @param count Number of RNGs.
+	 * @param constructor Constructs each RNG from its seed.
+	 * @return The RNGs.
+	 * @throws SeedException If the seeds cannot be generated.
+	 */
+	public <T> List<T> createFromLongs(int count, final LongSeededConstructor<T> constructor)
+			throws SeedException {
+		if (constructor == null) {
+			throw new IllegalArgumentException("Missing RNG constructor!");
+		}
+		final RdRandSeeds seeds = generator.generateSeeds(count, 8);
+		return construct(seeds, new Construction<T>() {
+			@Override
+			public T create(int index) throws Exception {
+				return constructor.create(seeds.getLong(index));
+			}
+		});
+	}
+
+	/**
+	 * Creates Mersenne Twister RNGs with 128 bit seeds.
+	 * @param count Number of RNGs.
+	 * @return The RNGs.
+	 * @throws SeedException If the seeds cannot be generated.
+	 */
+	public List<MersenneTwisterRNG> mersenneTwisters(int count) throws SeedException {
+		return create(count, UNCOMMONS_SEED_LENGTH, new SeededConstructor<MersenneTwisterRNG>() {
+			@Override
+			public MersenneTwisterRNG create(byte[] seed) {
+				return new MersenneTwisterRNG(seed);
+			}
+		});
+	}
+
+	/**
+	 * Creates AES counter RNGs with 128 bit keys.
+	 * @param count Number of RNGs.
+	 * @return The RNGs.
+	 * @throws SeedException If the seeds cannot be generated.
+	 */
+	public List<AESCounterRNG> aesCounters(int count) throws SeedException {
+		return create(count, UNCOMMONS_SEED_LENGTH, new SeededConstructor<AESCounterRNG>() {
+			@Override
+			public AESCounterRNG create(byte[] seed) throws GeneralSecurityException {
+				return new AESCounterRNG(seed);
+			}
+		});
+	}
+
+	/**
+	 * Constructs an RNG per seed on the pool and wipes the seeds.
+	 * @param <T> Type of the RNGs.
+	 * @param seeds The seeds.
+	 * @param construction Constructs the RNG of a seed.
+	 * @return The RNGs, in seed order.
+	 */
+	private <T> List<T> construct(RdRandSeeds seeds, Construction<T> construction) {
+		Object[] rngs = new Object[seeds.getCount()];
+		try {
+			if (rngs.length > 0) {
+				pool.invoke(new ConstructTask<T>(construction, rngs, 0, rngs.length));
+			}
+		} finally {
+			seeds.clear();
+		}
+		List<T> list = new ArrayList<T>(rngs.length);
+		for (Object rng : rngs) {
+			@SuppressWarnings("unchecked")
+			T typed = (T) rng;
+			list.add(typed);
+		}
+		return list;
+	}
+
+	/**
+	 * Constructs the RNG of the seed at an index.
+	 * @param <T> Type of the RNG.
+	 */
+	private interface Construction<T> {
+		T create(int index) throws Exception;
+	}
+
+	/**
+	 * Holder of the pool shared by factories constructed without one,
+	 * created on first use. Its worker threads are daemons, so the pool
+	 * needs no shutdown.
+	 */
+	private static final class SharedPool {
+
+		private static final ForkJoinPool POOL = new ForkJoinPool();
+	}
+
+	/**
+	 * Constructs the RNGs of a range of seeds, splitting the range in half
+	 * until it is below the threshold.
+	 * @param <T> Type of the RNGs.
+	 */
+	private static final class ConstructTask<T> extends RecursiveAction {
+
+		private static final long serialVersionUID = -2617044907437410263L;
+
+		private final Construction<T> construction;
+
+		private final Object[] rngs;
+
+		private final int from;
+
+		private final int to;
+
+		private ConstructTask(Construction<T> construction, Object[] rngs, int from, int to) {
+			this.construction = construction;
+			this.rngs = rngs;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= THRESHOLD) {
+				for (int i = from; i < to; i++) {
+					try {
+						rngs[i] = construction.create(i);
+					} catch (Exception e) {
+						throw new IllegalStateException("Failed to construct seeded RNG!", e);
+					}
+				}
+				return;
+			}
+			int middle = (from + to) >>> 1;
+			invokeAll(new ConstructTask<T>(construction, rngs, from, middle),
+					new ConstructTask<T>(construction, rngs, middle, to));
+		}
+	}
+}
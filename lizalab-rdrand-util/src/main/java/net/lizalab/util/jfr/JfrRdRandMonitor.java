@@ -0,0 +1,141 @@
+/*
+ * Copyright 2013 Hemant Padmanabhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.lizalab.util.jfr;
+
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.FlightRecorderListener;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+import net.lizalab.util.RdRandMonitor;
+import net.lizalab.util.RdRandStatus;
+
+/**
+ * {@link RdRandMonitor} reporting to JDK Flight Recorder. Enabled while
+ * any recording is running, the events themselves are then filtered by
+ * the recording settings, see the bundled <code>rdrand.jfc</code>.
+ * Installed reflectively by RdRandMonitor, this package is only built on
+ * JDK 11 or later.
+ *
+ * @author Hemant Padmanabhan
+ * @since 1.2
+ */
+public final class JfrRdRandMonitor extends RdRandMonitor {
+
+	/**
+	 * Installs the monitor, tracking recording state changes. Registering
+	 * the listener does not itself initialize JFR, so it is only notified
+	 * once JFR is started, for example through <code>jcmd</code>.
+	 */
+	public JfrRdRandMonitor() {
+		FlightRecorder.addListener(new FlightRecorderListener() {
+			@Override
+			public void recorderInitialized(FlightRecorder recorder) {
+				update();
+			}
+
+			@Override
+			public void recordingStateChanged(Recording recording) {
+				update();
+			}
+		});
+		update();
+	}
+
+	/**
+	 * Enables the monitor while any recording is running.
+	 */
+	private void update() {
+		boolean running = false;
+		if (FlightRecorder.isInitialized()) {
+			for (Recording recording : FlightRecorder.getFlightRecorder().getRecordings()) {
+				if (recording.getState() == RecordingState.RUNNING) {
+					running = true;
+					break;
+				}
+			}
+		}
+		setEnabled(running);
+	}
+
+	@Override
+	protected Object beginFill() {
+		RdRandFillEvent event = new RdRandFillEvent();
+		event.begin();
+		return event;
+	}
+
+	@Override
+	protected void endFill(Object token, int bytes, RdRandStatus status) {
+		RdRandFillEvent event = (RdRandFillEvent) token;
+		event.end();
+		if (event.shouldCommit()) {
+			event.bytes = bytes;
+			event.status = String.valueOf(status);
+			event.commit();
+		}
+	}
+
+	@Override
+	protected void retry(String source, RdRandStatus status) {
+		RdRandRetryEvent event = new RdRandRetryEvent();
+		if (event.isEnabled()) {
+			event.source = source;
+			event.status = String.valueOf(status);
+			event.commit();
+		}
+	}
+
+	@Override
+	protected void failure(RdRandStatus status) {
+		RdRandFailureEvent event = new RdRandFailureEvent();
+		if (event.isEnabled()) {
+			event.status = String.valueOf(status);
+			event.code = status == null ? 0 : status.getCode();
+			event.commit();
+		}
+	}
+
+	@Override
+	protected void libraryLoad(String path, long extractNanos, long loadNanos, boolean loaded) {
+		RdRandLibraryLoadEvent event = new RdRandLibraryLoadEvent();
+		if (event.isEnabled()) {
+			event.path = path;
+			event.extractionTime = extractNanos;
+			event.loadTime = loadNanos;
+			event.loaded = loaded;
+			event.commit();
+		}
+	}
+
+	@Override
+	protected Object beginRefill() {
+		RdRandRefillEvent event = new RdRandRefillEvent();
+		event.begin();
+		return event;
+	}
+
+	@Override
+	protected void endRefill(Object token, String source, int bytes) {
+		RdRandRefillEvent event = (RdRandRefillEvent) token;
+		event.end();
+		if (event.shouldCommit()) {
+			event.source = source;
+			event.bytes = bytes;
+			event.commit();
+		}
+	}
+}
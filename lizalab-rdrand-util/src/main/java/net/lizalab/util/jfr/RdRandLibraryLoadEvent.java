@@ -0,0 +1,50 @@
+/*
+ * Copyright 2013 Hemant Padmanabhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.lizalab.util.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Extraction and loading of the native library.
+ *
+ * @author Hemant Padmanabhan
+ * @since 1.2
+ */
+@Name("net.lizalab.util.RdRandLibraryLoad")
+@Label("RdRand Library Load")
+@Category({"Lizalab", "RdRand"})
+@Description("Extraction and loading of the RdRand native library")
+final class RdRandLibraryLoadEvent extends jdk.jfr.Event {
+
+	@Label("Path")
+	String path;
+
+	@Label("Extraction Time")
+	@Timespan
+	long extractionTime;
+
+	@Label("Load Time")
+	@Timespan
+	long loadTime;
+
+	@Label("Loaded")
+	boolean loaded;
+}
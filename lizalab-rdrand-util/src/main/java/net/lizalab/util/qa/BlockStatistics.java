@@ -0,0 +1,262 @@
+/*
+ * Copyright 2013 Hemant Padmanabhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.lizalab.util.qa;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Sufficient statistics for the tests of a {@link RandomnessBattery},
+ * accumulated over one block of input and merged across blocks. Bits are
+ * taken most significant first within each byte. Blocks are analysed
+ * independently, patterns spanning block boundaries are not counted,
+ * which is negligible at the block sizes used.
+ *
+ * @author Hemant Padmanabhan
+ * @since 1.2
+ */
+final class BlockStatistics {
+
+	/**
+	 * Length in bits of the blocks tested by the block frequency test.
+	 */
+	static final int FREQUENCY_BLOCK_BITS = 128;
+
+	/**
+	 * Pattern length used by the approximate entropy test.
+	 */
+	static final int ENTROPY_PATTERN_BITS = 8;
+
+	/**
+	 * Number of birthdays drawn for each birthday spacings sample.
+	 */
+	static final int BIRTHDAYS = 512;
+
+	/**
+	 * Number of bits in each birthday, the year has <code>2^BIRTHDAY_BITS</code> days.
+	 */
+	static final int BIRTHDAY_BITS = 24;
+
+	/**
+	 * Maximum number of birthday spacings samples taken from each block,
+	 * bounding the cost of the sorting involved.
+	 */
+	static final int BIRTHDAY_SAMPLES_PER_BLOCK = 16;
+
+	/**
+	 * Mean of a uniformly distributed byte, doubled to keep sums integral.
+	 */
+	private static final int DOUBLED_BYTE_MEAN = 255;
+
+	/**
+	 * Number of bytes accumulated.
+	 */
+	long bytes;
+
+	/**
+	 * Occurrences of each byte value.
+	 */
+	final long[] byteCounts = new long[256];
+
+	/**
+	 * Number of one bits.
+	 */
+	long ones;
+
+	/**
+	 * Number of adjacent bit pairs that differ.
+	 */
+	long transitions;
+
+	/**
+	 * Number of adjacent bit pairs compared for transitions.
+	 */
+	long bitPairs;
+
+	/**
+	 * Sum over adjacent byte pairs of the product of their doubled deviations from the mean.
+	 */
+	long serialProducts;
+
+	/**
+	 * Number of adjacent byte pairs summed into <code>serialProducts</code>.
+	 */
+	long bytePairs;
+
+	/**
+	 * Sum over frequency blocks of the squared doubled excess of ones.
+	 */
+	long frequencySquares;
+
+	/**
+	 * Number of frequency blocks.
+	 */
+	long frequencyBlocks;
+
+	/**
+	 * Occurrences of each overlapping <code>ENTROPY_PATTERN_BITS + 1</code> bit pattern.
+	 */
+	final long[] patternCounts = new long[1 << (ENTROPY_PATTERN_BITS + 1)];
+
+	/**
+	 * Number of repeated spacings found over all birthday samples.
+	 */
+	long birthdayRepeats;
+
+	/**
+	 * Number of birthday spacings samples.
+	 */
+	long birthdaySamples;
+
+	/**
+	 * Accumulates the statistics of a block of input.
+	 * @param block The block, its length a multiple of 16 bytes.
+	 */
+	void accumulate(byte[] block) {
+		bytes += block.length;
+		accumulateBytes(block);
+		accumulateWords(block);
+		accumulatePatterns(block);
+		accumulateBirthdays(block);
+	}
+
+	/**
+	 * Accumulates byte frequencies and serial correlation.
+	 * @param block The block.
+	 */
+	private void accumulateBytes(byte[] block) {
+		int previous = -1;
+		long products = 0;
+		for (byte b : block) {
+			int value = b & 0xFF;
+			byteCounts[value]++;
+			int deviation = 2 * value - DOUBLED_BYTE_MEAN;
+			if (previous != -1) {
+				products += (long) previous * deviation;
+			}
+			previous = deviation;
+		}
+		serialProducts += products;
+		bytePairs += block.length - 1;
+	}
+
+	/**
+	 * Accumulates one bits, bit transitions and block frequencies a word at a time.
+	 * @param block The block.
+	 */
+	private void accumulateWords(byte[] block) {
+		ByteBuffer words = ByteBuffer.wrap(block);
+		int wordsPerFrequencyBlock = FREQUENCY_BLOCK_BITS / 64;
+		long previousLowBit = -1;
+		int frequencyOnes = 0;
+		for (int i = 0; i < block.length / 8; i++) {
+			long word = words.getLong();
+			int wordOnes = Long.bitCount(word);
+			ones += wordOnes;
+			// Differences between each bit and the next within the word.
+			transitions += Long.bitCount((word ^ (word >>> 1)) & Long.MAX_VALUE);
+			if (previousLowBit != -1) {
+				transitions += previousLowBit ^ (word >>> 63);
+			}
+			previousLowBit = word & 1;
+			frequencyOnes += wordOnes;
+			if ((i + 1) % wordsPerFrequencyBlock == 0) {
+				long excess = 2L * frequencyOnes - FREQUENCY_BLOCK_BITS;
+				frequencySquares += excess * excess;
+				frequencyBlocks++;
+				frequencyOnes = 0;
+			}
+		}
+		bitPairs += block.length * 8L - 1;
+	}
+
+	/**
+	 * Accumulates overlapping bit pattern counts for approximate entropy.
+	 * @param block The block.
+	 */
+	private void accumulatePatterns(byte[] block) {
+		int width = ENTROPY_PATTERN_BITS + 1;
+		int mask = (1 << width) - 1;
+		int window = 0;
+		int filled = 0;
+		for (byte b : block) {
+			for (int bit = 7; bit >= 0; bit--) {
+				window = ((window << 1) | ((b >>> bit) & 1)) & mask;
+				if (filled < width - 1) {
+					filled++;
+				} else {
+					patternCounts[window]++;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Accumulates birthday spacings samples taken from the start of the block.
+	 * @param block The block.
+	 */
+	private void accumulateBirthdays(byte[] block) {
+		int bytesPerBirthday = BIRTHDAY_BITS / 8;
+		int bytesPerSample = BIRTHDAYS * bytesPerBirthday;
+		int samples = Math.min(BIRTHDAY_SAMPLES_PER_BLOCK, block.length / bytesPerSample);
+		int[] days = new int[BIRTHDAYS];
+		int offset = 0;
+		for (int s = 0; s < samples; s++) {
+			for (int i = 0; i < BIRTHDAYS; i++) {
+				days[i] = ((block[offset] & 0xFF) << 16) | ((block[offset + 1] & 0xFF) << 8) | (block[offset + 2] & 0xFF);
+				offset += bytesPerBirthday;
+			}
+			Arrays.sort(days);
+			// Spacings replace the days in place, the first spacing is from the start of the year.
+			for (int i = BIRTHDAYS - 1; i > 0; i--) {
+				days[i] -= days[i - 1];
+			}
+			Arrays.sort(days);
+			for (int i = 1; i < BIRTHDAYS; i++) {
+				if (days[i] == days[i - 1]) {
+					birthdayRepeats++;
+				}
+			}
+			birthdaySamples++;
+		}
+	}
+
+	/**
+	 * Merges the statistics of another set of blocks into these.
+	 * @param other The statistics to merge.
+	 * @return These statistics.
+	 */
+	BlockStatistics merge(BlockStatistics other) {
+		bytes += other.bytes;
+		for (int i = 0; i < byteCounts.length; i++) {
+			byteCounts[i] += other.byteCounts[i];
+		}
+		ones += other.ones;
+		transitions += other.transitions;
+		bitPairs += other.bitPairs;
+		serialProducts += other.serialProducts;
+		bytePairs += other.bytePairs;
+		frequencySquares += other.frequencySquares;
+		frequencyBlocks += other.frequencyBlocks;
+		for (int i = 0; i < patternCounts.length; i++) {
+			patternCounts[i] += other.patternCounts[i];
+		}
+		birthdayRepeats += other.birthdayRepeats;
+		birthdaySamples += other.birthdaySamples;
+		return this;
+	}
+}
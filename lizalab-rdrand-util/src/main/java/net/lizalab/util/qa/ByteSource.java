@@ -0,0 +1,34 @@
+/*
+ * Copyright 2013 Hemant Padmanabhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.lizalab.util.qa;
+
+/**
+ * Source of the random bytes tested by a {@link RandomnessBattery}.
+ * Blocks are requested concurrently from the battery's worker threads,
+ * implementations must be thread safe.
+ * 
+ * @author Hemant Padmanabhan
+ * @since 1.2
+ */
+public interface ByteSource {
+
+	/**
+	 * Fills the specified array with bytes to test.
+	 * @param bytes The array to fill.
+	 */
+	void nextBytes(byte[] bytes);
+}
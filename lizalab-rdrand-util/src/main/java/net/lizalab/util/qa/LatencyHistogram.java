@@ -0,0 +1,123 @@
+/*
+ * Copyright 2013 Hemant Padmanabhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.lizalab.util.qa;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Log-linear histogram of latencies in nanoseconds, recording values to
+ * better than 1% precision in constant time and space, in the manner of
+ * HdrHistogram. Safe for concurrent recording.
+ *
+ * @author Hemant Padmanabhan
+ * @since 1.2
+ */
+public final class LatencyHistogram {
+
+	/**
+	 * Bits of precision kept for each value.
+	 */
+	private static final int SUB_BITS = 8;
+
+	private static final int SUB_COUNT = 1 << SUB_BITS;
+
+	private static final int HALF_COUNT = SUB_COUNT / 2;
+
+	private final AtomicLongArray counts = new AtomicLongArray((64 - SUB_BITS) * HALF_COUNT + SUB_COUNT);
+
+	/**
+	 * Records a value.
+	 * @param nanos The value, negative values are recorded as 0.
+	 */
+	public void record(long nanos) {
+		counts.incrementAndGet(indexOf(Math.max(0, nanos)));
+	}
+
+	/**
+	 * Returns the bucket of a value. Values below <code>SUB_COUNT</code>
+	 * have a bucket each, above that each doubling of magnitude is split
+	 * into <code>HALF_COUNT</code> buckets.
+	 * @param value The value.
+	 * @return The bucket index.
+	 */
+	private static int indexOf(long value) {
+		int shift = 64 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+		if (shift <= 0) {
+			return (int) value;
+		}
+		return shift * HALF_COUNT + (int) (value >>> shift);
+	}
+
+	/**
+	 * Returns the highest value recorded in a bucket.
+	 * @param index The bucket index.
+	 * @return The highest value of the bucket.
+	 */
+	private static long highestOf(int index) {
+		if (index < SUB_COUNT) {
+			return index;
+		}
+		int shift = (index - HALF_COUNT) / HALF_COUNT;
+		long top = index - shift * HALF_COUNT;
+		return ((top + 1) << shift) - 1;
+	}
+
+	/**
+	 * @return Number of values recorded.
+	 */
+	public long getCount() {
+		long count = 0;
+		for (int i = 0; i < counts.length(); i++) {
+			count += counts.get(i);
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the value at the specified percentile, the highest value
+	 * equivalent to it within the precision of the histogram.
+	 * @param percentile The percentile, between 0 and 100.
+	 * @return The value at the percentile, 0 if nothing was recorded.
+	 */
+	public long getValueAtPercentile(double percentile) {
+		if (!(percentile >= 0 && percentile <= 100)) {
+			throw new IllegalArgumentException("Percentile must be between 0 and 100!");
+		}
+		long count = getCount();
+		long target = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+		long seen = 0;
+		for (int i = 0; i < counts.length(); i++) {
+			seen += counts.get(i);
+			if (seen >= target) {
+				return highestOf(i);
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * @return The highest value recorded, within the precision of the histogram.
+	 */
+	public long getMax() {
+		for (int i = counts.length() - 1; i >= 0; i--) {
+			if (counts.get(i) > 0) {
+				return highestOf(i);
+			}
+		}
+		return 0;
+	}
+}
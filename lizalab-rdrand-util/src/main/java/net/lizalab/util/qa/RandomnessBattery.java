@@ -0,0 +1,316 @@
+/*
+ * Copyright 2013 Hemant Padmanabhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.lizalab.util.qa;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import org.apache.commons.math3.special.Erf;
+import org.apache.commons.math3.special.Gamma;
+
+/**
+ * Battery of statistical tests of randomness runnable against any
+ * <code>java.util.Random</code> or other {@link ByteSource}, suitable for
+ * scheduled checks of RdRand on production hosts. Runs:
+ *
+ * <ul>
+ * <li>Chi-square test of byte frequencies.</li>
+ * <li>Runs test over the bit stream (NIST SP 800-22 2.3).</li>
+ * <li>Serial correlation of adjacent bytes.</li>
+ * <li>Birthday spacings test over 24 bit birthdays.</li>
+ * <li>Monobit frequency test (NIST SP 800-22 2.1).</li>
+ * <li>Block frequency test over 128 bit blocks (NIST SP 800-22 2.2).</li>
+ * <li>Approximate entropy test with 8 bit patterns (NIST SP 800-22 2.12).</li>
+ * </ul>
+ *
+ * <p>Input is consumed in bulk blocks, each block drawn and analysed by a
+ * task on a fork-join pool, and the per block statistics merged. The
+ * amount of input tested is rounded up to whole blocks.</p>
+ *
+ * <p>Requires commons-math3 on the classpath for the statistical functions.</p>
+ *
+ * @author Hemant Padmanabhan
+ * @since 1.2
+ */
+public final class RandomnessBattery {
+
+	/**
+	 * Default number of bytes drawn and analysed by each task.
+	 */
+	public static final int DEFAULT_BLOCK_SIZE = 1 << 20;
+
+	/**
+	 * Default significance level below which a test is considered failed.
+	 */
+	public static final double DEFAULT_ALPHA = 0.0001;
+
+	private final ForkJoinPool pool;
+
+	private final int blockSize;
+
+	/**
+	 * Constructs a battery with the default block size, running on a pool
+	 * with one worker per available processor shared by every battery
+	 * constructed this way.
+	 */
+	public RandomnessBattery() {
+		this(SharedPool.POOL, DEFAULT_BLOCK_SIZE);
+	}
+
+	/**
+	 * Constructs a battery running on the specified pool.
+	 * @param pool The pool running the analysis.
+	 * @param blockSize Number of bytes drawn and analysed by each task, a positive multiple of 16.
+	 */
+	public RandomnessBattery(ForkJoinPool pool, int blockSize) {
+		if (pool == null) {
+			throw new IllegalArgumentException("Missing fork-join pool!");
+		}
+		if (blockSize <= 0 || blockSize % 16 != 0) {
+			throw new IllegalArgumentException("Block size must be a positive multiple of 16!");
+		}
+		this.pool = pool;
+		this.blockSize = blockSize;
+	}
+
+	/**
+	 * Adapts a <code>java.util.Random</code> for testing. The RNG must be
+	 * thread safe, as <code>java.util.Random</code> and its RdRand
+	 * extensions are.
+	 * @param random The RNG to test.
+	 * @return Byte source drawing from the RNG.
+	 */
+	public static ByteSource fromRandom(final Random random) {
+		return new ByteSource() {
+			@Override
+			public void nextBytes(byte[] bytes) {
+				random.nextBytes(bytes);
+			}
+		};
+	}
+
+	/**
+	 * Tests the specified number of bytes from the source.
+	 * @param source The source of bytes to test.
+	 * @param bytes Number of bytes to test, rounded up to whole blocks.
+	 * @return The results of the tests.
+	 */
+	public List<TestResult> run(ByteSource source, long bytes) {
+		if (bytes <= 0) {
+			throw new IllegalArgumentException("Number of bytes to test must be positive!");
+		}
+		long blocks = (bytes + blockSize - 1) / blockSize;
+		BlockStatistics stats = pool.invoke(new BlockTask(source, 0, blocks));
+		List<TestResult> results = new ArrayList<TestResult>();
+		results.add(chiSquare(stats));
+		results.add(runs(stats));
+		results.add(serialCorrelation(stats));
+		results.add(birthdaySpacings(stats));
+		results.add(monobit(stats));
+		results.add(blockFrequency(stats));
+		results.add(approximateEntropy(stats));
+		return results;
+	}
+
+	/**
+	 * Chi-square test of byte frequencies against the uniform distribution.
+	 * @param stats The merged block statistics.
+	 * @return The test result.
+	 */
+	private TestResult chiSquare(BlockStatistics stats) {
+		double expected = stats.bytes / 256.0;
+		double chiSquare = 0;
+		for (long count : stats.byteCounts) {
+			double diff = count - expected;
+			chiSquare += diff * diff / expected;
+		}
+		return new TestResult("Chi-Square", chiSquare, chiSquarePValue(255, chiSquare));
+	}
+
+	/**
+	 * NIST runs test, the number of runs of identical bits against that expected for the observed proportion of ones.
+	 * @param stats The merged block statistics.
+	 * @return The test result.
+	 */
+	private TestResult runs(BlockStatistics stats) {
+		double n = stats.bitPairs + 1;
+		double pi = stats.ones / n;
+		double runs = stats.transitions + 1;
+		if (Math.abs(pi - 0.5) >= 2 / Math.sqrt(n)) {
+			// Frequency prerequisite failed, the runs test is not applicable.
+			return new TestResult("Runs", runs, 0);
+		}
+		double spread = pi * (1 - pi);
+		double pValue = Erf.erfc(Math.abs(runs - 2 * n * spread) / (2 * Math.sqrt(2 * n) * spread));
+		return new TestResult("Runs", runs, pValue);
+	}
+
+	/**
+	 * Serial correlation of adjacent bytes, normally distributed with variance <code>1/pairs</code> for random input.
+	 * @param stats The merged block statistics.
+	 * @return The test result.
+	 */
+	private TestResult serialCorrelation(BlockStatistics stats) {
+		// Variance of a uniformly distributed byte, the products are of doubled deviations.
+		double variance = (256.0 * 256.0 - 1) / 12;
+		double correlation = stats.serialProducts / 4.0 / stats.bytePairs / variance;
+		return new TestResult("Serial Correlation", correlation, normalPValue(correlation * Math.sqrt(stats.bytePairs)));
+	}
+
+	/**
+	 * Birthday spacings test, the total repeated spacings are Poisson distributed for random input.
+	 * @param stats The merged block statistics.
+	 * @return The test result.
+	 */
+	private TestResult birthdaySpacings(BlockStatistics stats) {
+		double m = BlockStatistics.BIRTHDAYS;
+		double lambda = m * m * m / (4.0 * (1 << BlockStatistics.BIRTHDAY_BITS)) * stats.birthdaySamples;
+		if (lambda == 0) {
+			return new TestResult("Birthday Spacings", 0, 1);
+		}
+		// Normal approximation to the Poisson distribution of the total.
+		double z = (stats.birthdayRepeats - lambda) / Math.sqrt(lambda);
+		return new TestResult("Birthday Spacings", stats.birthdayRepeats, normalPValue(z));
+	}
+
+	/**
+	 * NIST monobit test, the excess of ones over zeros.
+	 * @param stats The merged block statistics.
+	 * @return The test result.
+	 */
+	private TestResult monobit(BlockStatistics stats) {
+		double n = stats.bytes * 8.0;
+		double sum = 2.0 * stats.ones - n;
+		return new TestResult("Monobit", sum, Erf.erfc(Math.abs(sum) / Math.sqrt(n) / Math.sqrt(2)));
+	}
+
+	/**
+	 * NIST block frequency test, the proportion of ones within fixed size blocks.
+	 * @param stats The merged block statistics.
+	 * @return The test result.
+	 */
+	private TestResult blockFrequency(BlockStatistics stats) {
+		double chiSquare = (double) stats.frequencySquares / BlockStatistics.FREQUENCY_BLOCK_BITS;
+		return new TestResult("Block Frequency", chiSquare, chiSquarePValue(stats.frequencyBlocks, chiSquare));
+	}
+
+	/**
+	 * NIST approximate entropy test, the frequencies of overlapping patterns of adjacent lengths.
+	 * @param stats The merged block statistics.
+	 * @return The test result.
+	 */
+	private TestResult approximateEntropy(BlockStatistics stats) {
+		int m = BlockStatistics.ENTROPY_PATTERN_BITS;
+		long[] longer = stats.patternCounts;
+		long[] shorter = new long[1 << m];
+		double n = 0;
+		for (int i = 0; i < longer.length; i++) {
+			// Every pattern is counted once through its prefix.
+			shorter[i >>> 1] += longer[i];
+			n += longer[i];
+		}
+		double apEn = phi(shorter, n) - phi(longer, n);
+		double chiSquare = 2 * n * (Math.log(2) - apEn);
+		return new TestResult("Approximate Entropy", apEn, chiSquarePValue(1 << m, chiSquare));
+	}
+
+	/**
+	 * Computes the sum of <code>p log p</code> over pattern frequencies.
+	 * @param counts Pattern occurrences.
+	 * @param n Total number of patterns.
+	 * @return The phi statistic of the approximate entropy test.
+	 */
+	private static double phi(long[] counts, double n) {
+		double phi = 0;
+		for (long count : counts) {
+			if (count > 0) {
+				double p = count / n;
+				phi += p * Math.log(p);
+			}
+		}
+		return phi;
+	}
+
+	/**
+	 * Returns the upper tail probability of the chi-square distribution.
+	 * @param degreesOfFreedom Degrees of freedom of the distribution.
+	 * @param chiSquare The observed statistic.
+	 * @return The p-value.
+	 */
+	private static double chiSquarePValue(double degreesOfFreedom, double chiSquare) {
+		return Gamma.regularizedGammaQ(degreesOfFreedom / 2, chiSquare / 2);
+	}
+
+	/**
+	 * Returns the two sided tail probability of the standard normal distribution.
+	 * @param z The observed standard score.
+	 * @return The p-value.
+	 */
+	private static double normalPValue(double z) {
+		return Erf.erfc(Math.abs(z) / Math.sqrt(2));
+	}
+
+	/**
+	 * Holder of the pool shared by batteries constructed without one,
+	 * created on first use. Its worker threads are daemons, so the pool
+	 * needs no shutdown.
+	 */
+	private static final class SharedPool {
+
+		private static final ForkJoinPool POOL = new ForkJoinPool();
+	}
+
+	/**
+	 * Draws and analyses a range of blocks, splitting the range in half
+	 * until a single block remains.
+	 */
+	private final class BlockTask extends RecursiveTask<BlockStatistics> {
+
+		private static final long serialVersionUID = 4319016359206046541L;
+
+		private final ByteSource source;
+
+		private final long from;
+
+		private final long to;
+
+		private BlockTask(ByteSource source, long from, long to) {
+			this.source = source;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected BlockStatistics compute() {
+			if (to - from == 1) {
+				byte[] block = new byte[blockSize];
+				source.nextBytes(block);
+				BlockStatistics stats = new BlockStatistics();
+				stats.accumulate(block);
+				return stats;
+			}
+			long middle = (from + to) >>> 1;
+			BlockTask left = new BlockTask(source, from, middle);
+			left.fork();
+			BlockStatistics right = new BlockTask(source, middle, to).compute();
+			return left.join().merge(right);
+		}
+	}
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright 2013 Hemant Padmanabhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.lizalab.util.qa;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.lizalab.util.FaultInjectingRdRandBackend;
+import net.lizalab.util.RdRandRandom;
+import net.lizalab.util.RdRandSeedGenerator;
+import net.lizalab.util.RdRandStatus;
+import net.lizalab.util.RdRandUtil;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Multi-threaded soak test driving random draws under load and reporting
+ * the latency distribution and failures of each kind of draw. Paired with
+ * a {@link FaultInjectingRdRandBackend}, shows how callers behave through
+ * RdRand underflow and failure storms before deploying.
+ *
+ * <p>Run from the command line it soaks <code>RdRandRandom</code> and
+ * <code>RdRandSeedGenerator</code> over a backend failing 1% of draws
+ * with <code>NOT_READY</code>, in bursts of 100 every 10000 draws, and
+ * delaying 0.1% of draws by 1 ms, then <code>RdRandUtil</code> for a
+ * baseline:</p>
+ *
+ * <pre>
+ * java net.lizalab.util.qa.SoakHarness [threads] [seconds]
+ * </pre>
+ *
+ * @author Hemant Padmanabhan
+ * @since 1.2
+ */
+public final class SoakHarness {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(SoakHarness.class);
+
+	/**
+	 * A draw under test.
+	 */
+	public interface Draw {
+
+		/**
+		 * Makes the draw.
+		 * @throws Exception If the draw fails.
+		 */
+		void draw() throws Exception;
+	}
+
+	/**
+	 * Outcome of a soak.
+	 */
+	public static final class Result {
+
+		private final String name;
+
+		private final LatencyHistogram latencies;
+
+		private final long failures;
+
+		private Result(String name, LatencyHistogram latencies, long failures) {
+			this.name = name;
+			this.latencies = latencies;
+			this.failures = failures;
+		}
+
+		/**
+		 * @return Latencies of all draws, failed or not, in nanoseconds.
+		 */
+		public LatencyHistogram getLatencies() {
+			return latencies;
+		}
+
+		/**
+		 * @return Number of draws that failed.
+		 */
+		public long getFailures() {
+			return failures;
+		}
+
+		@Override
+		public String toString() {
+			return name + ": " + latencies.getCount() + " draws, " + failures + " failed, p50 "
+					+ latencies.getValueAtPercentile(50) + "ns, p99 " + latencies.getValueAtPercentile(99)
+					+ "ns, p999 " + latencies.getValueAtPercentile(99.9) + "ns, max " + latencies.getMax() + "ns";
+		}
+	}
+
+	private final int threads;
+
+	private final long durationNanos;
+
+	/**
+	 * Constructs a harness soaking draws on the specified number of threads.
+	 * @param threads Number of threads drawing concurrently.
+	 * @param duration Duration of each soak.
+	 * @param unit Unit of the duration.
+	 */
+	public SoakHarness(int threads, long duration, TimeUnit unit) {
+		if (threads < 1 || duration < 0) {
+			throw new IllegalArgumentException("Soak needs a thread and a duration!");
+		}
+		this.threads = threads;
+		this.durationNanos = unit.toNanos(duration);
+	}
+
+	/**
+	 * Makes the draw repeatedly on every thread for the soak duration,
+	 * timing each draw.
+	 * @param name Name of the draw, for reporting.
+	 * @param draw The draw.
+	 * @return The latencies and failures of the draws.
+	 * @throws InterruptedException If interrupted while waiting for the threads.
+	 */
+	public Result soak(String name, final Draw draw) throws InterruptedException {
+		final LatencyHistogram latencies = new LatencyHistogram();
+		final AtomicLong failures = new AtomicLong();
+		final long deadline = System.nanoTime() + durationNanos;
+		final CountDownLatch done = new CountDownLatch(threads);
+		for (int i = 0; i < threads; i++) {
+			Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						long start = System.nanoTime();
+						while (start < deadline) {
+							try {
+								draw.draw();
+							} catch (Exception e) {
+								failures.incrementAndGet();
+							}
+							long end = System.nanoTime();
+							latencies.record(end - start);
+							start = end;
+						}
+					} finally {
+						done.countDown();
+					}
+				}
+			}, "soak-" + name + "-" + i);
+			thread.setDaemon(true);
+			thread.start();
+		}
+		done.await();
+		return new Result(name, latencies, failures.get());
+	}
+
+	/**
+	 * Soaks RdRandRandom and RdRandSeedGenerator over a failing backend,
+	 * then RdRandUtil, logging the results.
+	 * @param args Optional number of threads and seconds per soak.
+	 * @throws InterruptedException If interrupted while soaking.
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		final String methodName = "main : ";
+
+		int threads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+		int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+		SoakHarness harness = new SoakHarness(threads, seconds, TimeUnit.SECONDS);
+
+		FaultInjectingRdRandBackend faults = new FaultInjectingRdRandBackend(System.nanoTime());
+		faults.setFailureRate(RdRandStatus.NOT_READY, 0.01);
+		faults.setFailureBursts(RdRandStatus.NOT_READY, 10000, 100);
+		faults.setLatencySpikes(0.001, TimeUnit.MILLISECONDS.toNanos(1));
+		final Random random = new RdRandRandom(faults);
+		final RdRandSeedGenerator seeds = new RdRandSeedGenerator(faults);
+
+		LOGGER.info("{} {}", methodName, harness.soak("RdRandRandom.nextInt", new Draw() {
+			@Override
+			public void draw() {
+				random.nextInt();
+			}
+		}));
+		LOGGER.info("{} {}", methodName, harness.soak("RdRandSeedGenerator.generateSeed", new Draw() {
+			@Override
+			public void draw() throws Exception {
+				seeds.generateSeed(32);
+			}
+		}));
+		LOGGER.info("{} {}", methodName, harness.soak("RdRandUtil.nextBytes", new Draw() {
+			@Override
+			public void draw() {
+				RdRandUtil.nextBytes(new byte[32]);
+			}
+		}));
+		LOGGER.info("{} Injected {} failures and {} latency spikes into {} draws", methodName,
+				faults.getFailures(), faults.getSpikes(), faults.getDraws());
+	}
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2013 Hemant Padmanabhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.lizalab.util.qa;
+
+/**
+ * Outcome of a single statistical test run by a {@link RandomnessBattery}.
+ * 
+ * @author Hemant Padmanabhan
+ * @since 1.2
+ */
+public final class TestResult {
+
+	private final String name;
+
+	private final double statistic;
+
+	private final double pValue;
+
+	/**
+	 * Initializes the result.
+	 * @param name Name of the test.
+	 * @param statistic Value of the test statistic.
+	 * @param pValue Probability of a statistic at least as extreme for truly random input.
+	 */
+	TestResult(String name, double statistic, double pValue) {
+		this.name = name;
+		this.statistic = statistic;
+		this.pValue = pValue;
+	}
+
+	/**
+	 * Returns the name of the test.
+	 * @return The test name.
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Returns the value of the test statistic.
+	 * @return The test statistic.
+	 */
+	public double getStatistic() {
+		return statistic;
+	}
+
+	/**
+	 * Returns the probability of a test statistic at least as extreme as
+	 * the one observed, were the input truly random.
+	 * @return The p-value of the test.
+	 */
+	public double getPValue() {
+		return pValue;
+	}
+
+	/**
+	 * Returns whether the input passed the test at the specified significance level.
+	 * @param alpha The significance level, the p-value below which the test fails.
+	 * @return True if the p-value is at least the significance level.
+	 */
+	public boolean passed(double alpha) {
+		return pValue >= alpha;
+	}
+
+	@Override
+	public String toString() {
+		return name + ": statistic=" + statistic + ", p=" + pValue;
+	}
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright 2013 Hemant Padmanabhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.lizalab.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tests for BitReservoirBackend, including a comparison of native calls
+ * and throughput of coin flips with and without the reservoir.
+ *
+ * @author Hemant Padmanabhan
+ * @since 1.2
+ */
+public class BitReservoirBackendTest {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(BitReservoirBackendTest.class);
+
+	/**
+	 * Backend serving bytes from a seeded generator, counting draws.
+	 */
+	private static final class CountingBackend extends AbstractRdRandBackend {
+
+		private final Random source = new Random(42);
+
+		private int draws;
+
+		@Override
+		public RdRandStatus verify() {
+			return RdRandStatus.SUCCESS;
+		}
+
+		@Override
+		public synchronized void nextBytes(byte[] bytes) {
+			draws++;
+			source.nextBytes(bytes);
+		}
+
+		@Override
+		public synchronized int next(int bits) {
+			draws++;
+			return source.nextInt() >>> (32 - bits);
+		}
+	}
+
+	/**
+	 * Verifies the bits handed out are exactly the bits drawn, in order,
+	 * whatever the split across calls.
+	 */
+	@Test
+	public final void testBitExact() {
+		BitReservoirBackend reservoir = new BitReservoirBackend(new CountingBackend(), 1);
+		int[] sizes = {1, 3, 5, 7, 32, 31, 2, 17, 29, 1, 32, 11, 13, 32, 8};
+		BigInteger served = BigInteger.ZERO;
+		int total = 0;
+		for (int i = 0; i < 20; i++) {
+			for (int bits : sizes) {
+				int value = reservoir.next(bits);
+				assertTrue(bits + " bits drawn as " + value, bits == 32 || value >>> bits == 0);
+				served = served.shiftLeft(bits).or(BigInteger.valueOf(value & 0xFFFFFFFFL));
+				total += bits;
+			}
+		}
+		// The drawn stream is the same seeded generator in 8 byte words.
+		byte[] drawn = new byte[(total + 63) / 64 * 8];
+		Random source = new Random(42);
+		for (int i = 0; i < drawn.length; i += 8) {
+			byte[] word = new byte[8];
+			source.nextBytes(word);
+			System.arraycopy(word, 0, drawn, i, 8);
+		}
+		BigInteger expected = new BigInteger(1, drawn).shiftRight(drawn.length * 8 - total);
+		assertEquals(expected, served);
+		assertEquals(total, reservoir.getBitsUsed());
+		assertEquals(drawn.length * 8L, reservoir.getBitsDrawn());
+	}
+
+	/**
+	 * Verifies coin flips use one bit each and draw a word buffer per
+	 * 64 bits times the buffered words.
+	 */
+	@Test
+	public final void testCoinFlips() {
+		CountingBackend delegate = new CountingBackend();
+		BitReservoirBackend reservoir = new BitReservoirBackend(delegate, 2);
+		Random random = new RdRandRandom(reservoir);
+		int heads = 0;
+		for (int i = 0; i < 1280; i++) {
+			if (random.nextBoolean()) {
+				heads++;
+			}
+		}
+		assertEquals(1280, reservoir.getBitsUsed());
+		assertEquals(1280, reservoir.getBitsDrawn());
+		assertEquals(10, delegate.draws);
+		assertTrue("Unlikely number of heads " + heads, heads > 500 && heads < 780);
+	}
+
+	/**
+	 * Verifies bounded draws stay in range, are roughly uniform and that
+	 * powers of two use exactly their bits.
+	 */
+	@Test
+	public final void testBounded() {
+		BitReservoirBackend reservoir = new BitReservoirBackend(new NativeRdRandBackend());
+		Random random = new RdRandRandom(reservoir);
+		for (int i = 0; i < 1000; i++) {
+			random.nextInt(8);
+		}
+		assertEquals(3000, reservoir.getBitsUsed());
+		for (int bound : new int[] {1, 3, 6, 10, 1000, BitReservoirBackend.MAX_SMALL_BOUND + 1, Integer.MAX_VALUE}) {
+			int[] counts = new int[Math.min(bound, 10)];
+			int draws = 10000;
+			for (int i = 0; i < draws; i++) {
+				int value = random.nextInt(bound);
+				assertTrue("Bounded draw out of range: " + value, value >= 0 && value < bound);
+				counts[(int) ((long) value * counts.length / bound)]++;
+			}
+			for (int count : counts) {
+				double expected = (double) draws / counts.length;
+				assertTrue("Bound " + bound + " uneven: " + count, Math.abs(count - expected) < expected * 0.2);
+			}
+		}
+		try {
+			random.nextInt(0);
+			assertTrue("Accepted non-positive bound", false);
+		} catch (IllegalArgumentException e) {
+			// Expected.
+		}
+	}
+
+	/**
+	 * Verifies bounded draws of backends not overriding nextInt follow
+	 * java.util.Random, drawing the same values from the same bits.
+	 */
+	@Test
+	public final void testDefaultBounded() {
+		Random random = new RdRandRandom(new CountingBackend());
+		Random expected = new Random(42);
+		for (int bound : new int[] {1, 3, 8, 10, 1000, 1 << 30, Integer.MAX_VALUE}) {
+			for (int i = 0; i < 100; i++) {
+				assertEquals(expected.nextInt(bound), random.nextInt(bound));
+			}
+		}
+	}
+
+	/**
+	 * Verifies a failing draw leaves the counters and reservoir untouched.
+	 */
+	@Test
+	public final void testFailedDrawCounters() {
+		FaultInjectingRdRandBackend faults = new FaultInjectingRdRandBackend(new CountingBackend(), 1);
+		BitReservoirBackend reservoir = new BitReservoirBackend(faults, 1);
+		reservoir.next(32);
+		reservoir.next(20);
+		faults.setFailureAfter(RdRandStatus.NOT_READY, faults.getDraws());
+		try {
+			reservoir.next(32);
+			fail("Failed draw served");
+		} catch (RdRandException e) {
+			// Expected.
+		}
+		assertEquals(52, reservoir.getBitsUsed());
+		assertEquals(64, reservoir.getBitsDrawn());
+		// The 12 bits left in the reservoir are still served.
+		reservoir.next(12);
+		assertEquals(64, reservoir.getBitsUsed());
+	}
+
+	/**
+	 * Compares coin flip throughput and native calls through the reservoir
+	 * against direct draws, logging the results.
+	 */
+	@Test
+	public final void testCoinFlipThroughput() {
+		final String methodName = "testCoinFlipThroughput : ";
+
+		int flips = 2000000;
+		Random direct = new RdRandRandom();
+		Random viaReservoir = new RdRandRandom(new BitReservoirBackend(new NativeRdRandBackend()));
+		for (int run = 0; run < 2; run++) {
+			long start = System.nanoTime();
+			int heads = 0;
+			for (int i = 0; i < flips; i++) {
+				heads += direct.nextBoolean() ? 1 : 0;
+			}
+			long directNanos = System.nanoTime() - start;
+			start = System.nanoTime();
+			for (int i = 0; i < flips; i++) {
+				heads += viaReservoir.nextBoolean() ? 1 : 0;
+			}
+			long reservoirNanos = System.nanoTime() - start;
+			LOGGER.info("{} Direct: {}ns per flip, {} native calls. Reservoir: {}ns per flip, {} native calls ({})",
+					methodName, directNanos / flips, flips, reservoirNanos / flips,
+					flips / (64 * BitReservoirBackend.DEFAULT_WORDS), heads & 1);
+		}
+	}
+}
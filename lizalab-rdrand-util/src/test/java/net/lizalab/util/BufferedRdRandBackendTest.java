@@ -0,0 +1,170 @@
+/*
+ * Copyright 2013 Hemant Padmanabhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.lizalab.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.lizalab.util.BufferedRdRandBackend.Pooling;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tests for BufferedRdRandBackend pooling and NumaTopology, including a
+ * multi-threaded throughput comparison of the pooling modes.
+ *
+ * @author Hemant Padmanabhan
+ * @since 1.2
+ */
+public class BufferedRdRandBackendTest {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(BufferedRdRandBackendTest.class);
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * Writes a fake sysfs node directory.
+	 * @param cpuLists CPU list of each node.
+	 * @return The node directory.
+	 */
+	private File nodeDirectory(String... cpuLists) throws IOException {
+		File root = folder.newFolder("node");
+		new File(root, "online").createNewFile();
+		for (int i = 0; i < cpuLists.length; i++) {
+			File node = new File(root, "node" + i);
+			node.mkdir();
+			FileWriter writer = new FileWriter(new File(node, "cpulist"));
+			try {
+				writer.write(cpuLists[i] + "\n");
+			} finally {
+				writer.close();
+			}
+		}
+		return root;
+	}
+
+	/**
+	 * Verifies CPU lists are parsed into the node of each CPU.
+	 */
+	@Test
+	public final void testReadTopology() throws IOException {
+		assertArrayEquals(new int[] {0, 1, 2, 3, 8, 10, 11}, NumaTopology.parseCpuList("0-3,8,10-11"));
+		NumaTopology topology = NumaTopology.read(nodeDirectory("0-3,8-11", "4-7,12-15"));
+		assertEquals(2, topology.getNodeCount());
+		assertEquals(16, topology.getCpuCount());
+		assertEquals(0, topology.nodeOf(9));
+		assertEquals(1, topology.nodeOf(13));
+		assertEquals(0, topology.nodeOf(99));
+		NumaTopology missing = NumaTopology.read(new File(folder.getRoot(), "missing"));
+		assertEquals(1, missing.getNodeCount());
+	}
+
+	/**
+	 * Verifies every pooling mode serves complete fills and bounded draws.
+	 */
+	@Test
+	public final void testPoolingModes() {
+		for (Pooling pooling : Pooling.values()) {
+			BufferedRdRandBackend backend = new BufferedRdRandBackend(new NativeRdRandBackend(), pooling, 64);
+			assertEquals(pooling + " next(0) returned bits", 0, backend.next(0));
+			Random random = new RdRandRandom(backend);
+			for (int size : new int[] {1, 5, 63, 64, 65, 1000}) {
+				byte[] bytes = new byte[size];
+				random.nextBytes(bytes);
+				if (size >= 8) {
+					assertFalse(pooling + " fill of " + size + " left the tail empty",
+							Arrays.equals(new byte[8], Arrays.copyOfRange(bytes, size - 8, size)));
+				}
+			}
+			for (int i = 0; i < 1000; i++) {
+				int value = random.nextInt(10);
+				assertTrue("Bounded draw out of range: " + value, value >= 0 && value < 10);
+			}
+		}
+	}
+
+	/**
+	 * Verifies pools are created per node and per CPU of the topology.
+	 */
+	@Test
+	public final void testPoolCount() throws IOException {
+		NumaTopology topology = NumaTopology.read(nodeDirectory("0-3", "4-7"));
+		NativeRdRandBackend delegate = new NativeRdRandBackend();
+		assertEquals(1, new BufferedRdRandBackend(delegate, Pooling.SHARED, 64, topology).getPoolCount());
+		assertEquals(2, new BufferedRdRandBackend(delegate, Pooling.PER_NODE, 64, topology).getPoolCount());
+		assertTrue(new BufferedRdRandBackend(delegate, Pooling.PER_CPU, 64, topology).getPoolCount() >= 8);
+	}
+
+	/**
+	 * Compares the throughput of the pooling modes with one drawing thread
+	 * per processor, logging the results. On a single node host PER_NODE
+	 * behaves as SHARED and only PER_CPU differs, relieving contention on
+	 * the shared buffer. On multi-node hosts PER_NODE additionally keeps
+	 * RDRAND and buffer traffic on the local socket.
+	 */
+	@Test
+	public final void testPoolingThroughput() throws InterruptedException {
+		final String methodName = "testPoolingThroughput : ";
+
+		NumaTopology topology = NumaTopology.read();
+		LOGGER.info("{} Topology: {}, current cpu {}", methodName, topology, RdRandUtil.currentCpu());
+		int threads = Runtime.getRuntime().availableProcessors();
+		for (Pooling pooling : Pooling.values()) {
+			final BufferedRdRandBackend backend = new BufferedRdRandBackend(new NativeRdRandBackend(), pooling,
+					BufferedRdRandBackend.DEFAULT_BUFFER_SIZE, topology);
+			final int draws = 200000;
+			final AtomicLong sink = new AtomicLong();
+			Thread[] workers = new Thread[threads];
+			for (int i = 0; i < threads; i++) {
+				workers[i] = new Thread(new Runnable() {
+					@Override
+					public void run() {
+						long sum = 0;
+						for (int j = 0; j < draws; j++) {
+							sum += backend.next(32);
+						}
+						sink.addAndGet(sum);
+					}
+				});
+			}
+			long start = System.nanoTime();
+			for (Thread worker : workers) {
+				worker.start();
+			}
+			for (Thread worker : workers) {
+				worker.join();
+			}
+			long elapsed = Math.max(1, System.nanoTime() - start);
+			LOGGER.info("{} {} with {} pools and {} threads: {} MB/s ({})", methodName, pooling,
+					backend.getPoolCount(), threads, (long) threads * draws * 4 * 1000L / elapsed, sink.get() & 1);
+		}
+	}
+}
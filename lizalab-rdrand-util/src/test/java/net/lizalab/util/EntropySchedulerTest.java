@@ -0,0 +1,153 @@
+/*
+ * Copyright 2013 Hemant Padmanabhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.lizalab.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import net.lizalab.util.EntropyScheduler.Group;
+import net.lizalab.util.EntropyScheduler.Priority;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tests for EntropyScheduler quotas, priority classes and metrics.
+ *
+ * @author Hemant Padmanabhan
+ * @since 1.2
+ */
+public class EntropySchedulerTest {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(EntropySchedulerTest.class);
+
+	/**
+	 * Instance of class under test.
+	 */
+	private EntropyScheduler scheduler = new EntropyScheduler(new NativeRdRandBackend());
+
+	/**
+	 * Verifies groups serve complete fills and bounded draws through RdRandRandom.
+	 */
+	@Test
+	public final void testServesGroups() {
+		Random bulk = new RdRandRandom(scheduler.register("bulk", Priority.BULK, EntropyScheduler.UNLIMITED, 0));
+		byte[] bytes = new byte[3 * EntropyScheduler.CHUNK_SIZE + 5];
+		bulk.nextBytes(bytes);
+		assertFalse(Arrays.equals(new byte[8], Arrays.copyOfRange(bytes, bytes.length - 8, bytes.length)));
+		for (int i = 0; i < 1000; i++) {
+			int value = bulk.nextInt(10);
+			assertTrue("Bounded draw out of range: " + value, value >= 0 && value < 10);
+		}
+		Group group = scheduler.getGroup("bulk");
+		assertEquals(bytes.length + 4000, group.getBytesServed());
+		assertEquals(1001, group.getDraws());
+		assertEquals(0, group.getThrottledDraws());
+	}
+
+	/**
+	 * Verifies draws beyond the burst allowance wait for the quota to refill.
+	 */
+	@Test
+	public final void testQuotaThrottles() {
+		final String methodName = "testQuotaThrottles : ";
+
+		Group group = scheduler.register("quota", Priority.NORMAL, 64 * 1024, 16 * 1024);
+		long start = System.nanoTime();
+		group.nextBytes(new byte[48 * 1024]);
+		long elapsed = System.nanoTime() - start;
+		LOGGER.info("{} {} in {}ms", methodName, group, TimeUnit.NANOSECONDS.toMillis(elapsed));
+		// 32 KiB beyond the burst at 64 KiB per second.
+		assertTrue("Draw not throttled, took " + elapsed + "ns", elapsed >= TimeUnit.MILLISECONDS.toNanos(450));
+		assertTrue(group.getThrottledDraws() > 0);
+		assertTrue(group.getThrottledNanos() >= TimeUnit.MILLISECONDS.toNanos(450));
+	}
+
+	/**
+	 * Verifies bulk draws are deferred while latency critical draws are in
+	 * progress, and that latency critical draws are never deferred.
+	 */
+	@Test
+	public final void testPriorityDefersBulk() throws InterruptedException {
+		final String methodName = "testPriorityDefersBulk : ";
+
+		final Group critical = scheduler.register("critical", Priority.LATENCY_CRITICAL, EntropyScheduler.UNLIMITED, 0);
+		final Group bulk = scheduler.register("bulk", Priority.BULK, EntropyScheduler.UNLIMITED, 0);
+		final AtomicBoolean running = new AtomicBoolean(true);
+		Thread[] bulkThreads = new Thread[2];
+		for (int i = 0; i < bulkThreads.length; i++) {
+			bulkThreads[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					byte[] bytes = new byte[64 * 1024];
+					while (running.get()) {
+						bulk.nextBytes(bytes);
+					}
+				}
+			});
+			bulkThreads[i].start();
+		}
+		try {
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+			byte[] token = new byte[16];
+			while (bulk.getDeferredDraws() == 0 && System.nanoTime() < deadline) {
+				for (int i = 0; i < 1000; i++) {
+					critical.nextBytes(token);
+				}
+			}
+		} finally {
+			running.set(false);
+			for (Thread thread : bulkThreads) {
+				thread.join();
+			}
+		}
+		LOGGER.info("{} {}", methodName, critical);
+		LOGGER.info("{} {}", methodName, bulk);
+		assertTrue("Bulk draws never deferred", bulk.getDeferredDraws() > 0);
+		assertEquals(0, critical.getDeferredDraws());
+	}
+
+	/**
+	 * Verifies group registration and lookup.
+	 */
+	@Test
+	public final void testRegister() {
+		Group group = scheduler.register("a", Priority.NORMAL, 1024, 1024);
+		assertSame(group, scheduler.getGroup("a"));
+		assertEquals(1, scheduler.getGroups().size());
+		try {
+			scheduler.register("a", Priority.BULK, 1024, 1024);
+			assertTrue("Duplicate group registered", false);
+		} catch (IllegalArgumentException e) {
+			// Expected.
+		}
+		try {
+			scheduler.register("b", Priority.BULK, 1024, 0);
+			assertTrue("Group registered without burst", false);
+		} catch (IllegalArgumentException e) {
+			// Expected.
+		}
+	}
+}
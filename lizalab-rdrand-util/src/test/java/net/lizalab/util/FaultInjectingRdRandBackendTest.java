@@ -0,0 +1,170 @@
+/*
+ * Copyright 2013 Hemant Padmanabhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.lizalab.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.uncommons.maths.random.SeedException;
+
+/**
+ * Tests for the failure patterns and latency spikes injected by
+ * FaultInjectingRdRandBackend, as seen through RdRandRandom and
+ * RdRandSeedGenerator.
+ *
+ * @author Hemant Padmanabhan
+ * @since 1.2
+ */
+public class FaultInjectingRdRandBackendTest {
+
+	/**
+	 * Makes draws, returning which of them failed.
+	 * @param random The generator to draw from.
+	 * @param draws Number of draws.
+	 * @return Whether each draw failed.
+	 */
+	private boolean[] failed(Random random, int draws) {
+		boolean[] failed = new boolean[draws];
+		for (int i = 0; i < draws; i++) {
+			try {
+				random.nextInt();
+			} catch (RdRandException e) {
+				assertEquals(RdRandStatus.NOT_READY, e.getStatus());
+				failed[i] = true;
+			}
+		}
+		return failed;
+	}
+
+	/**
+	 * Verifies bursts fail the last draws of every period.
+	 */
+	@Test
+	public final void testBursts() {
+		FaultInjectingRdRandBackend backend = new FaultInjectingRdRandBackend(1);
+		Random random = new RdRandRandom(backend);
+		backend.setFailureBursts(RdRandStatus.NOT_READY, 10, 3);
+		boolean[] failed = failed(random, 100);
+		for (int i = 0; i < failed.length; i++) {
+			assertEquals("Draw " + i, i % 10 >= 7, failed[i]);
+		}
+		assertEquals(30, backend.getFailures());
+		backend.setFailureBursts(RdRandStatus.NOT_READY, 10, 0);
+		failed(random, 100);
+		assertEquals(30, backend.getFailures());
+	}
+
+	/**
+	 * Verifies random failures occur at about the configured rate and are
+	 * reproducible from the seed.
+	 */
+	@Test
+	public final void testFailureRate() {
+		boolean[][] runs = new boolean[2][];
+		for (int run = 0; run < runs.length; run++) {
+			FaultInjectingRdRandBackend backend = new FaultInjectingRdRandBackend(42);
+			Random random = new RdRandRandom(backend);
+			backend.setFailureRate(RdRandStatus.NOT_READY, 0.1);
+			runs[run] = failed(random, 10000);
+			assertTrue("Unlikely failures " + backend.getFailures(),
+					backend.getFailures() > 800 && backend.getFailures() < 1200);
+		}
+		assertTrue(Arrays.equals(runs[0], runs[1]));
+	}
+
+	/**
+	 * Verifies each thread draws random failures from its own generator,
+	 * seeded in the order threads first draw so runs repeating that order
+	 * are reproducible.
+	 */
+	@Test
+	public final void testPerThreadFailureRate() throws InterruptedException {
+		boolean[][] first = new boolean[2][];
+		final boolean[][] second = new boolean[2][];
+		for (int run = 0; run < 2; run++) {
+			final FaultInjectingRdRandBackend backend = new FaultInjectingRdRandBackend(42);
+			final Random random = new RdRandRandom(backend);
+			backend.setFailureRate(RdRandStatus.NOT_READY, 0.1);
+			first[run] = failed(random, 1000);
+			final int index = run;
+			Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					second[index] = failed(random, 1000);
+				}
+			});
+			thread.start();
+			thread.join();
+		}
+		assertTrue(Arrays.equals(first[0], first[1]));
+		assertTrue(Arrays.equals(second[0], second[1]));
+		assertFalse("Threads share a generator", Arrays.equals(first[0], second[0]));
+	}
+
+	/**
+	 * Verifies every draw fails once the host loses RdRand, including
+	 * seeds, and that verification reports it.
+	 */
+	@Test
+	public final void testFailureAfter() throws SeedException {
+		FaultInjectingRdRandBackend backend = new FaultInjectingRdRandBackend(1);
+		RdRandSeedGenerator seeds = new RdRandSeedGenerator(backend);
+		backend.setFailureAfter(RdRandStatus.UNSUPPORTED, 5);
+		for (int i = 0; i < 5; i++) {
+			assertEquals(16, seeds.generateSeed(16).length);
+		}
+		assertEquals(RdRandStatus.UNSUPPORTED, backend.verify());
+		try {
+			seeds.generateSeed(16);
+			fail("Seed generated after losing RdRand");
+		} catch (SeedException e) {
+			assertEquals(RdRandStatus.UNSUPPORTED.getDesc(), e.getMessage());
+		}
+		assertEquals("FaultInjectingRdRandBackend[net.lizalab.util.RdRandUtil, 6 draws, 1 failed]",
+				seeds.toString());
+		assertEquals("net.lizalab.util.RdRandUtil", new RdRandSeedGenerator().toString());
+		try {
+			new RdRandRandom(backend);
+			fail("Generator verified after losing RdRand");
+		} catch (RdRandException e) {
+			assertEquals(RdRandStatus.UNSUPPORTED, e.getStatus());
+		}
+	}
+
+	/**
+	 * Verifies latency spikes delay draws.
+	 */
+	@Test
+	public final void testLatencySpikes() {
+		FaultInjectingRdRandBackend backend = new FaultInjectingRdRandBackend(1);
+		backend.setLatencySpikes(1, TimeUnit.MILLISECONDS.toNanos(2));
+		long start = System.nanoTime();
+		for (int i = 0; i < 10; i++) {
+			backend.next(32);
+		}
+		assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(20));
+		assertEquals(10, backend.getSpikes());
+		assertEquals(0, backend.getFailures());
+	}
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright 2013 Hemant Padmanabhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.lizalab.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tests for MixingRdRandBackend and its ChaCha20 core, including a
+ * throughput comparison against raw RdRand and SecureRandom.
+ *
+ * @author Hemant Padmanabhan
+ * @since 1.2
+ */
+public class MixingRdRandBackendTest {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(MixingRdRandBackendTest.class);
+
+	/**
+	 * Compromised source serving nothing but zeros.
+	 */
+	private static final RdRandBackend ZEROS = new AbstractRdRandBackend() {
+		@Override
+		public RdRandStatus verify() {
+			return RdRandStatus.SUCCESS;
+		}
+
+		@Override
+		public void nextBytes(byte[] bytes) {
+			Arrays.fill(bytes, (byte) 0);
+		}
+
+		@Override
+		public int next(int bits) {
+			return 0;
+		}
+	};
+
+	/**
+	 * Parses hex digits into bytes.
+	 * @param hex The hex digits.
+	 * @return The bytes.
+	 */
+	private static byte[] bytes(String hex) {
+		byte[] bytes = new byte[hex.length() / 2];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+		}
+		return bytes;
+	}
+
+	/**
+	 * Reads little endian words.
+	 * @param bytes The bytes.
+	 * @return The words.
+	 */
+	private static int[] words(byte[] bytes) {
+		int[] words = new int[bytes.length / 4];
+		for (int i = 0; i < words.length; i++) {
+			words[i] = ChaCha20.getInt(bytes, 4 * i);
+		}
+		return words;
+	}
+
+	/**
+	 * Verifies the ChaCha20 block function against RFC 7539 section 2.3.2
+	 * and HChaCha20 against the XChaCha20 draft, section 2.2.1.
+	 */
+	@Test
+	public final void testChaCha20Vectors() {
+		int[] key = words(bytes("000102030405060708090a0b0c0d0e0f101112131415161718191a1b1c1d1e1f"));
+		byte[] block = new byte[ChaCha20.BLOCK_SIZE];
+		ChaCha20.block(key, 1, words(bytes("000000090000004a00000000")), block, 0);
+		assertArrayEquals(bytes("10f1e7e4d13b5915500fdd1fa32071c4c7d1f4c733c068030422aa9ac3d46c4e"
+				+ "d2826446079faa0914c2d705d98b02a2b5129cd1de164eb9cbd083e8a2503c4e"), block);
+
+		ChaCha20.hchacha(key, bytes("000000090000004a0000000031415927"), 0);
+		assertArrayEquals(words(bytes("82413b4227b27bfed30e42508a877d73a0f9e4d58a74a853c12ec41326d3ecdc")), key);
+	}
+
+	/**
+	 * Verifies the output depends on each input alone: instances with one
+	 * compromised input still differ, instances with both compromised agree.
+	 */
+	@Test
+	public final void testEitherInputSuffices() {
+		byte[][] outputs = new byte[4][];
+		RdRandBackend[][] inputs = {
+			{ZEROS, new MixingRdRandBackend(ZEROS)},
+			{ZEROS, new MixingRdRandBackend(ZEROS)},
+			{new NativeRdRandBackend(), ZEROS},
+			{new NativeRdRandBackend(), ZEROS}
+		};
+		for (int i = 0; i < inputs.length; i++) {
+			MixingRdRandBackend mixer = new MixingRdRandBackend(inputs[i][0], inputs[i][1],
+					MixingRdRandBackend.DEFAULT_RESEED_NANOS);
+			outputs[i] = new byte[100];
+			mixer.nextBytes(outputs[i]);
+		}
+		assertFalse("Output predictable with compromised RdRand", Arrays.equals(outputs[0], outputs[1]));
+		assertFalse("Output predictable with compromised system entropy", Arrays.equals(outputs[2], outputs[3]));
+
+		MixingRdRandBackend first = new MixingRdRandBackend(ZEROS, ZEROS, 0);
+		MixingRdRandBackend second = new MixingRdRandBackend(ZEROS, ZEROS, 0);
+		byte[] expected = new byte[3 * MixingRdRandBackend.CHUNK_SIZE + 17];
+		first.nextBytes(expected);
+		// Split differently, the stream is the same.
+		byte[] actual = new byte[expected.length];
+		byte[] part = new byte[5];
+		int offset = 0;
+		while (offset + part.length <= 2 * MixingRdRandBackend.CHUNK_SIZE) {
+			second.nextBytes(part);
+			System.arraycopy(part, 0, actual, offset, part.length);
+			offset += part.length;
+		}
+		byte[] rest = new byte[actual.length - offset];
+		second.nextBytes(rest);
+		System.arraycopy(rest, 0, actual, offset, rest.length);
+		assertArrayEquals(expected, actual);
+		assertFalse(Arrays.equals(new byte[16], Arrays.copyOf(expected, 16)));
+	}
+
+	/**
+	 * Verifies system entropy is absorbed once per reseed interval and
+	 * RdRand input for every chunk.
+	 */
+	@Test
+	public final void testReseed() {
+		MixingRdRandBackend mixer = new MixingRdRandBackend();
+		assertEquals(RdRandStatus.SUCCESS, mixer.verify());
+		assertEquals(0, mixer.next(0));
+		Random random = new RdRandRandom(mixer);
+		random.nextBytes(new byte[10 * MixingRdRandBackend.CHUNK_SIZE]);
+		random.nextInt();
+		assertEquals(11, mixer.getChunks());
+		assertEquals(1, mixer.getReseeds());
+
+		MixingRdRandBackend always = new MixingRdRandBackend(new NativeRdRandBackend(), ZEROS, 0);
+		always.nextBytes(new byte[10 * MixingRdRandBackend.CHUNK_SIZE]);
+		assertEquals(10, always.getReseeds());
+	}
+
+	/**
+	 * Compares the throughput of raw RdRand, the mixer and SecureRandom in
+	 * 16 byte key sized and 64 KiB bulk draws, logging the results.
+	 */
+	@Test
+	public final void testThroughput() {
+		final String methodName = "testThroughput : ";
+
+		RdRandBackend raw = new NativeRdRandBackend();
+		RdRandBackend mixer = new MixingRdRandBackend();
+		SecureRandom secure = new SecureRandom();
+		SecureRandom drbg = null;
+		try {
+			drbg = SecureRandom.getInstance("DRBG");
+		} catch (NoSuchAlgorithmException e) {
+			LOGGER.info("{} No DRBG SecureRandom available", methodName);
+		}
+		for (int size : new int[] {16, 65536}) {
+			byte[] bytes = new byte[size];
+			int draws = (int) ((64L << 20) / size);
+			for (int run = 0; run < 2; run++) {
+				long rawRate = rate(raw, null, bytes, draws);
+				long mixerRate = rate(mixer, null, bytes, draws);
+				long secureRate = rate(null, secure, bytes, draws / 16);
+				long drbgRate = drbg == null ? 0 : rate(null, drbg, bytes, draws / 16);
+				LOGGER.info("{} {} byte draws: raw RdRand {} MB/s, mixer {} MB/s, SecureRandom ({}) {} MB/s, DRBG {} MB/s",
+						methodName, size, rawRate, mixerRate, secure.getAlgorithm(), secureRate, drbgRate);
+			}
+		}
+		assertTrue(mixer.verify() == RdRandStatus.SUCCESS);
+	}
+
+	/**
+	 * Measures the rate of draws from a backend or SecureRandom.
+	 * @param backend The backend, or null to draw from random.
+	 * @param random The SecureRandom drawn from if there is no backend.
+	 * @param bytes The array drawn into.
+	 * @param draws Number of draws.
+	 * @return Rate in MB/s.
+	 */
+	private long rate(RdRandBackend backend, SecureRandom random, byte[] bytes, int draws) {
+		long start = System.nanoTime();
+		for (int i = 0; i < draws; i++) {
+			if (backend != null) {
+				backend.nextBytes(bytes);
+			} else {
+				random.nextBytes(bytes);
+			}
+		}
+		return (long) draws * bytes.length * 1000L / Math.max(1, System.nanoTime() - start);
+	}
+}
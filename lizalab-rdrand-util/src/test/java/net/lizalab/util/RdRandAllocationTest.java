@@ -0,0 +1,217 @@
+/*
+ * Copyright 2013 Hemant Padmanabhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.lizalab.util;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Allocation regression tests verifying the scalar generation paths of
+ * RdRandRandom and RdRandUtil do not allocate on the Java heap per call.
+ * Uses the per thread allocation counter exposed by the HotSpot
+ * <code>com.sun.management.ThreadMXBean</code>.
+ * 
+ * @author Hemant Padmanabhan
+ * @since 1.2
+ */
+public class RdRandAllocationTest {
+	
+	private static final Logger LOGGER = LoggerFactory.getLogger(RdRandAllocationTest.class);
+	
+	/**
+	 * Calls made before measuring, giving the JIT a chance to compile the paths under test.
+	 */
+	private static final int WARMUP_CALLS = 50000;
+	
+	/**
+	 * Calls made while measuring.
+	 */
+	private static final int MEASURED_CALLS = 100000;
+	
+	/**
+	 * Allowance in bytes for incidental allocation by the measurement itself,
+	 * well below a single allocation per call.
+	 */
+	private static final long ALLOWED_BYTES = 1024;
+	
+	/**
+	 * A single draw from the generator under test.
+	 */
+	private interface Draw {
+		/**
+		 * Performs one draw.
+		 * @return A value derived from the draw, accumulated to keep it live.
+		 */
+		long draw();
+	}
+	
+	private com.sun.management.ThreadMXBean threadBean;
+	
+	private Random random;
+	
+	/**
+	 * Accumulates drawn values so the draws cannot be eliminated.
+	 */
+	private long sink;
+	
+	/**
+	 * Skips the tests unless allocation counting and RdRand are available.
+	 */
+	@Before
+	public final void setUp() {
+		assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+		threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+		threadBean.setThreadAllocatedMemoryEnabled(true);
+		assumeTrue(RdRandUtil.verify() == RdRandStatus.SUCCESS);
+		random = new RdRandRandom();
+	}
+	
+	/**
+	 * Runs the specified draw repeatedly and asserts it does not allocate per call.
+	 * @param name Name of the path under test used in messages.
+	 * @param draw The draw to run.
+	 */
+	private void assertAllocationFree(String name, Draw draw) {
+		final String methodName = "assertAllocationFree : ";
+		
+		for (int i = 0; i < WARMUP_CALLS; i++) {
+			sink += draw.draw();
+		}
+		long threadId = Thread.currentThread().getId();
+		long before = threadBean.getThreadAllocatedBytes(threadId);
+		for (int i = 0; i < MEASURED_CALLS; i++) {
+			sink += draw.draw();
+		}
+		long allocated = threadBean.getThreadAllocatedBytes(threadId) - before;
+		LOGGER.info("{} {} allocated {} bytes over {} calls", methodName, name, allocated, MEASURED_CALLS);
+		assertTrue(name + " allocated " + allocated + " bytes over " + MEASURED_CALLS + " calls",
+				allocated <= ALLOWED_BYTES);
+	}
+	
+	@Test
+	public final void testUtilNext() {
+		assertAllocationFree("RdRandUtil.next", new Draw() {
+			@Override
+			public long draw() {
+				return RdRandUtil.next(32);
+			}
+		});
+	}
+	
+	@Test
+	public final void testUtilNextBytes() {
+		final byte[] bytes = new byte[16];
+		assertAllocationFree("RdRandUtil.nextBytes", new Draw() {
+			@Override
+			public long draw() {
+				RdRandUtil.nextBytes(bytes);
+				return bytes[0];
+			}
+		});
+	}
+	
+	@Test
+	public final void testNextInt() {
+		assertAllocationFree("RdRandRandom.nextInt", new Draw() {
+			@Override
+			public long draw() {
+				return random.nextInt();
+			}
+		});
+	}
+	
+	@Test
+	public final void testNextIntBounded() {
+		assertAllocationFree("RdRandRandom.nextInt(bound)", new Draw() {
+			@Override
+			public long draw() {
+				return random.nextInt(1000);
+			}
+		});
+	}
+	
+	@Test
+	public final void testNextLong() {
+		assertAllocationFree("RdRandRandom.nextLong", new Draw() {
+			@Override
+			public long draw() {
+				return random.nextLong();
+			}
+		});
+	}
+	
+	@Test
+	public final void testNextBoolean() {
+		assertAllocationFree("RdRandRandom.nextBoolean", new Draw() {
+			@Override
+			public long draw() {
+				return random.nextBoolean() ? 1 : 0;
+			}
+		});
+	}
+	
+	@Test
+	public final void testNextFloat() {
+		assertAllocationFree("RdRandRandom.nextFloat", new Draw() {
+			@Override
+			public long draw() {
+				return Float.floatToRawIntBits(random.nextFloat());
+			}
+		});
+	}
+	
+	@Test
+	public final void testNextDouble() {
+		assertAllocationFree("RdRandRandom.nextDouble", new Draw() {
+			@Override
+			public long draw() {
+				return Double.doubleToRawLongBits(random.nextDouble());
+			}
+		});
+	}
+	
+	@Test
+	public final void testNextGaussian() {
+		assertAllocationFree("RdRandRandom.nextGaussian", new Draw() {
+			@Override
+			public long draw() {
+				return Double.doubleToRawLongBits(random.nextGaussian());
+			}
+		});
+	}
+	
+	@Test
+	public final void testNextBytes() {
+		final byte[] bytes = new byte[16];
+		assertAllocationFree("RdRandRandom.nextBytes", new Draw() {
+			@Override
+			public long draw() {
+				random.nextBytes(bytes);
+				return bytes[0];
+			}
+		});
+	}
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright 2013 Hemant Padmanabhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.lizalab.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for the RdRandAsync class.
+ *
+ * @author Hemant Padmanabhan
+ * @since 1.2
+ */
+public class RdRandAsyncTest {
+
+	/**
+	 * Instance of class under test.
+	 */
+	private RdRandAsync async;
+
+	@Before
+	public final void setUp() {
+		async = new RdRandAsync(2, 16);
+	}
+
+	@After
+	public final void tearDown() {
+		async.close();
+	}
+
+	/**
+	 * Verifies an asynchronous fill completes with the requested number of random bytes.
+	 */
+	@Test
+	public final void testNextBytesAsync() throws Exception {
+		ByteBuffer buffer = async.nextBytesAsync(1 << 16).get(10, TimeUnit.SECONDS);
+		assertEquals(1 << 16, buffer.remaining());
+		boolean nonZero = false;
+		while (buffer.hasRemaining()) {
+			nonZero |= buffer.get() != 0;
+		}
+		assertTrue("Buffer was not filled with random bytes", nonZero);
+	}
+
+	/**
+	 * Verifies a subscription delivers exactly the requested number of blocks.
+	 */
+	@Test
+	public final void testSubscribeHonoursDemand() throws Exception {
+		final int blocks = 5;
+		final int blockSize = 64;
+		final CountDownLatch received = new CountDownLatch(blocks);
+		final AtomicInteger count = new AtomicInteger();
+		final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+		async.subscribe(blockSize, new RdRandAsync.Subscriber() {
+			@Override
+			public void onSubscribe(RdRandAsync.Subscription subscription) {
+				subscription.request(blocks);
+			}
+
+			@Override
+			public void onNext(ByteBuffer block) {
+				assertEquals(blockSize, block.remaining());
+				count.incrementAndGet();
+				received.countDown();
+			}
+
+			@Override
+			public void onError(Throwable e) {
+				error.set(e);
+			}
+		});
+		assertTrue("Requested blocks not delivered", received.await(10, TimeUnit.SECONDS));
+		// Give the pool a chance to deliver anything beyond the demand.
+		Thread.sleep(100);
+		assertEquals(blocks, count.get());
+		assertNull(error.get());
+	}
+
+	/**
+	 * Verifies blocks requested from within onSubscribe are only delivered
+	 * once it returns, and no two signals overlap.
+	 */
+	@Test
+	public final void testSubscribeSerializesSignals() throws Exception {
+		final int blocks = 20;
+		final CountDownLatch received = new CountDownLatch(blocks);
+		final AtomicInteger active = new AtomicInteger();
+		final AtomicInteger overlaps = new AtomicInteger();
+		async.subscribe(16, new RdRandAsync.Subscriber() {
+			@Override
+			public void onSubscribe(RdRandAsync.Subscription subscription) {
+				active.incrementAndGet();
+				subscription.request(blocks);
+				try {
+					// Leave the pool time to deliver blocks if it were not held back.
+					Thread.sleep(100);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				active.decrementAndGet();
+			}
+
+			@Override
+			public void onNext(ByteBuffer block) {
+				if (active.incrementAndGet() != 1) {
+					overlaps.incrementAndGet();
+				}
+				Thread.yield();
+				active.decrementAndGet();
+				received.countDown();
+			}
+
+			@Override
+			public void onError(Throwable e) {
+				overlaps.incrementAndGet();
+			}
+		});
+		assertTrue("Requested blocks not delivered", received.await(10, TimeUnit.SECONDS));
+		assertEquals(0, overlaps.get());
+	}
+
+	/**
+	 * Verifies no further blocks are delivered once a subscription is cancelled.
+	 */
+	@Test
+	public final void testSubscribeCancel() throws Exception {
+		final int blocks = 3;
+		final AtomicInteger count = new AtomicInteger();
+		final CountDownLatch cancelled = new CountDownLatch(1);
+		final AtomicReference<RdRandAsync.Subscription> handle = new AtomicReference<RdRandAsync.Subscription>();
+		async.subscribe(16, new RdRandAsync.Subscriber() {
+			@Override
+			public void onSubscribe(RdRandAsync.Subscription subscription) {
+				handle.set(subscription);
+				subscription.request(Long.MAX_VALUE);
+			}
+
+			@Override
+			public void onNext(ByteBuffer block) {
+				if (count.incrementAndGet() == blocks) {
+					handle.get().cancel();
+					cancelled.countDown();
+				}
+			}
+
+			@Override
+			public void onError(Throwable e) {
+			}
+		});
+		assertTrue("Unbounded stream stopped unexpectedly", cancelled.await(10, TimeUnit.SECONDS));
+		// Give the pool a chance to deliver anything after the cancellation.
+		Thread.sleep(100);
+		assertEquals(blocks, count.get());
+	}
+
+	/**
+	 * Verifies a non-positive request fails the subscription.
+	 */
+	@Test
+	public final void testSubscribeInvalidRequest() {
+		final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+		async.subscribe(16, new RdRandAsync.Subscriber() {
+			@Override
+			public void onSubscribe(RdRandAsync.Subscription subscription) {
+				subscription.request(0);
+			}
+
+			@Override
+			public void onNext(ByteBuffer block) {
+			}
+
+			@Override
+			public void onError(Throwable e) {
+				error.set(e);
+			}
+		});
+		assertTrue(error.get() instanceof IllegalArgumentException);
+	}
+
+	/**
+	 * Verifies a subscriber throwing from onNext is cancelled with that
+	 * error and receives nothing further.
+	 */
+	@Test
+	public final void testSubscriberFailure() throws Exception {
+		final AtomicInteger count = new AtomicInteger();
+		final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+		final CountDownLatch failed = new CountDownLatch(1);
+		final IllegalStateException thrown = new IllegalStateException("Subscriber failure");
+		async.subscribe(16, new RdRandAsync.Subscriber() {
+			@Override
+			public void onSubscribe(RdRandAsync.Subscription subscription) {
+				subscription.request(Long.MAX_VALUE);
+			}
+
+			@Override
+			public void onNext(ByteBuffer block) {
+				count.incrementAndGet();
+				throw thrown;
+			}
+
+			@Override
+			public void onError(Throwable e) {
+				error.set(e);
+				failed.countDown();
+			}
+		});
+		assertTrue("Subscriber failure not signalled", failed.await(10, TimeUnit.SECONDS));
+		// Give the pool a chance to deliver anything after the failure.
+		Thread.sleep(100);
+		assertEquals(1, count.get());
+		assertSame(thrown, error.get());
+	}
+
+	/**
+	 * Verifies streams outnumbering the pool queue wait for room instead of
+	 * failing, and each is delivered its demand.
+	 */
+	@Test
+	public final void testSubscribeBackpressure() throws Exception {
+		final int streams = 50;
+		final int blocks = 4;
+		RdRandAsync small = new RdRandAsync(1, 1);
+		try {
+			final CountDownLatch received = new CountDownLatch(streams * blocks);
+			final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+			for (int i = 0; i < streams; i++) {
+				small.subscribe(16, new RdRandAsync.Subscriber() {
+					@Override
+					public void onSubscribe(RdRandAsync.Subscription subscription) {
+						subscription.request(blocks);
+					}
+
+					@Override
+					public void onNext(ByteBuffer block) {
+						received.countDown();
+					}
+
+					@Override
+					public void onError(Throwable e) {
+						error.set(e);
+					}
+				});
+			}
+			assertTrue("Waiting streams not delivered", received.await(10, TimeUnit.SECONDS));
+			assertNull(error.get());
+		} finally {
+			small.close();
+		}
+	}
+}
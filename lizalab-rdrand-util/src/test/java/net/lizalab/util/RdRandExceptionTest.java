@@ -16,6 +16,7 @@
 
 package net.lizalab.util;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import org.junit.Test;
@@ -64,4 +65,23 @@ public class RdRandExceptionTest {
 		rdRandException = new RdRandException(RdRandStatus.SUCCESS);
 	}
 	
+	/**
+	 * Verifies a stackless RdRandException does not capture a stack trace.
+	 */
+	@Test
+	public final void testStacklessException() {
+		rdRandException = new RdRandException(testStatus, false);
+		
+		assertTrue(testStatus == rdRandException.getStatus());
+		assertEquals(0, rdRandException.getStackTrace().length);
+	}
+	
+	/**
+	 * Verifies a stackless RdRandException cannot be instantiated with a success status.
+	 */
+	@Test(expected=IllegalArgumentException.class)
+	public final void testStacklessExceptionSuccessStatus() {
+		rdRandException = new RdRandException(RdRandStatus.SUCCESS, false);
+	}
+	
 }
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2013 Hemant Padmanabhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.lizalab.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tests recording RdRand output with RecordingRdRandBackend and replaying
+ * it through RdRandRandom with ReplayRdRandBackend.
+ *
+ * @author Hemant Padmanabhan
+ * @since 1.2
+ */
+public class RdRandRecordReplayTest {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(RdRandRecordReplayTest.class);
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * Runs a fixed mix of draws against the specified RNG.
+	 * @param random The RNG to draw from.
+	 * @return The drawn values, encoded as bytes.
+	 */
+	private byte[] drawSequence(Random random) {
+		byte[] result = new byte[4096 + 8 * 400];
+		random.nextBytes(new byte[0]);
+		byte[] bytes = new byte[4096];
+		random.nextBytes(bytes);
+		System.arraycopy(bytes, 0, result, 0, bytes.length);
+		int offset = bytes.length;
+		for (int i = 0; i < 100; i++) {
+			offset = putLong(result, offset, random.nextInt());
+			offset = putLong(result, offset, random.nextLong());
+			offset = putLong(result, offset, Double.doubleToLongBits(random.nextDouble()));
+			offset = putLong(result, offset, random.nextBoolean() ? 1 : 0);
+		}
+		return result;
+	}
+
+	private int putLong(byte[] bytes, int offset, long value) {
+		for (int i = 0; i < 8; i++) {
+			bytes[offset++] = (byte) (value >>> (56 - 8 * i));
+		}
+		return offset;
+	}
+
+	/**
+	 * Verifies replay reproduces a recorded run exactly, using small segments
+	 * so the recording spans several segments, also when replayed from small
+	 * mapped regions.
+	 */
+	@Test
+	public final void testRecordAndReplay() throws IOException {
+		File log = folder.newFile("rdrand.log");
+		RecordingRdRandBackend recorder = new RecordingRdRandBackend(new NativeRdRandBackend(), log, 1000);
+		byte[] recorded = drawSequence(new RdRandRandom(recorder));
+		recorder.close();
+
+		ReplayRdRandBackend replay = new ReplayRdRandBackend(log);
+		byte[] replayed = drawSequence(new RdRandRandom(replay));
+		assertArrayEquals(recorded, replayed);
+		assertEquals(0, replay.remaining());
+		replay.close();
+
+		// Odd sized regions make values straddle two of them.
+		replay = new ReplayRdRandBackend(log, 7);
+		assertEquals(log.length(), replay.remaining());
+		assertArrayEquals(recorded, drawSequence(new RdRandRandom(replay)));
+		assertEquals(0, replay.remaining());
+		replay.close();
+	}
+
+	/**
+	 * Verifies replaying past the end of a recording fails.
+	 */
+	@Test(expected=IllegalStateException.class)
+	public final void testReplayExhausted() throws IOException {
+		File log = folder.newFile("rdrand.log");
+		RecordingRdRandBackend recorder = new RecordingRdRandBackend(new NativeRdRandBackend(), log);
+		new RdRandRandom(recorder).nextBytes(new byte[10]);
+		recorder.close();
+
+		Random random = new RdRandRandom(new ReplayRdRandBackend(log));
+		random.nextBytes(new byte[10]);
+		random.nextInt();
+	}
+
+	/**
+	 * Verifies an RNG replaying a log still serializes, and deserializes
+	 * drawing from RdRand directly.
+	 */
+	@Test
+	public final void testSerialization() throws IOException, ClassNotFoundException {
+		File log = folder.newFile("rdrand.log");
+		RecordingRdRandBackend recorder = new RecordingRdRandBackend(new NativeRdRandBackend(), log);
+		new RdRandRandom(recorder).nextBytes(new byte[10]);
+		recorder.close();
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(new RdRandRandom(new ReplayRdRandBackend(log)));
+		out.close();
+		ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+		Random random = (Random) in.readObject();
+		assertTrue(random instanceof RdRandRandom);
+		// Beyond the 10 replayable bytes, so only served by RdRand.
+		random.nextBytes(new byte[100]);
+	}
+
+	/**
+	 * Measures recording overhead and replay throughput against direct
+	 * RdRand fills, logging the results.
+	 */
+	@Test
+	public final void testRecordAndReplayThroughput() throws IOException {
+		final String methodName = "testRecordAndReplayThroughput : ";
+
+		File log = folder.newFile("rdrand.log");
+		byte[] bytes = new byte[1 << 16];
+		int fills = 2048;
+		RdRandBackend direct = new NativeRdRandBackend();
+		long start = System.nanoTime();
+		for (int i = 0; i < fills; i++) {
+			direct.nextBytes(bytes);
+		}
+		long end = System.nanoTime();
+		LOGGER.info("{} Direct: {} MB/s", methodName, (long) fills * bytes.length * 1000L / (end - start));
+
+		RecordingRdRandBackend recorder = new RecordingRdRandBackend(direct, log);
+		start = System.nanoTime();
+		for (int i = 0; i < fills; i++) {
+			recorder.nextBytes(bytes);
+		}
+		recorder.close();
+		end = System.nanoTime();
+		LOGGER.info("{} Recording: {} MB/s", methodName, (long) fills * bytes.length * 1000L / (end - start));
+
+		ReplayRdRandBackend replay = new ReplayRdRandBackend(log);
+		start = System.nanoTime();
+		for (int i = 0; i < fills; i++) {
+			replay.nextBytes(bytes);
+		}
+		end = System.nanoTime();
+		LOGGER.info("{} Replay: {} MB/s", methodName, (long) fills * bytes.length * 1000L / (end - start));
+		replay.close();
+	}
+}
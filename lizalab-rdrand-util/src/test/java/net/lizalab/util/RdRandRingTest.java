@@ -0,0 +1,274 @@
+/*
+ * Copyright 2013 Hemant Padmanabhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.lizalab.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tests for the shared memory ring filled by RdRandRingProducer and
+ * drained by RdRandRingBackend, including a per-draw latency comparison
+ * against direct RdRand calls.
+ *
+ * @author Hemant Padmanabhan
+ * @since 1.2
+ */
+public class RdRandRingTest {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(RdRandRingTest.class);
+
+	private static final int SLOT_COUNT = 1024;
+
+	private static final int SLOT_SIZE = 64;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * Waits for the producer to fill the ring.
+	 * @param file The ring file.
+	 */
+	private void awaitFull(File file) throws IOException, InterruptedException {
+		RdRandRing ring = RdRandRing.open(file);
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (!isFull(ring) && System.nanoTime() < deadline) {
+			Thread.sleep(1);
+		}
+	}
+
+	/**
+	 * Checks whether every slot of the ring is filled.
+	 * @param ring The ring.
+	 * @return True if no slot is empty.
+	 */
+	private boolean isFull(RdRandRing ring) {
+		for (int i = 0; i < ring.getSlotCount(); i++) {
+			if (ring.isEmpty(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Verifies draws are served from the ring while the producer runs.
+	 */
+	@Test
+	public final void testServesFromRing() throws IOException, InterruptedException {
+		File file = new File(folder.getRoot(), "ring");
+		RdRandRingProducer producer = new RdRandRingProducer(file, SLOT_COUNT, SLOT_SIZE);
+		producer.start();
+		try {
+			awaitFull(file);
+			RdRandRingBackend backend = new RdRandRingBackend(file);
+			Random random = new RdRandRandom(backend);
+			byte[] bytes = new byte[3 * SLOT_SIZE + 5];
+			random.nextBytes(bytes);
+			assertFalse(Arrays.equals(new byte[8], Arrays.copyOfRange(bytes, bytes.length - 8, bytes.length)));
+			assertEquals(0, backend.next(0));
+			for (int i = 0; i < 1000; i++) {
+				int value = random.nextInt(10);
+				assertTrue("Bounded draw out of range: " + value, value >= 0 && value < 10);
+			}
+			assertTrue(backend.getSlotsClaimed() > 0);
+			assertEquals(0, backend.getFallbackDraws());
+		} finally {
+			producer.close();
+		}
+	}
+
+	/**
+	 * Verifies concurrent consumers are each served distinct slots, every
+	 * slot exactly once, and the ring is zeroed behind them.
+	 */
+	@Test
+	public final void testSlotsServedOnceAndZeroed() throws Exception {
+		File file = new File(folder.getRoot(), "ring");
+		RdRandRingProducer producer = new RdRandRingProducer(file, SLOT_COUNT, SLOT_SIZE);
+		Thread thread = producer.start();
+		awaitFull(file);
+		// Stop the producer so the ring is drained exactly once.
+		final RdRandRing ring = RdRandRing.open(file);
+		producer.close();
+		thread.join();
+		final Set<BigInteger> served = Collections.synchronizedSet(new HashSet<BigInteger>());
+		Thread[] consumers = new Thread[4];
+		for (int i = 0; i < consumers.length; i++) {
+			consumers[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					byte[] bytes = new byte[SLOT_SIZE];
+					while (ring.claim(bytes, 0)) {
+						assertTrue("Slot served twice", served.add(new BigInteger(1, bytes)));
+					}
+				}
+			});
+			consumers[i].start();
+		}
+		for (Thread consumer : consumers) {
+			consumer.join();
+		}
+		assertEquals(SLOT_COUNT, served.size());
+		assertTrue("Ring not zeroed after draining", ring.isZeroed());
+	}
+
+	/**
+	 * Verifies draws fall back to direct RdRand when there is no ring and
+	 * once the producer is gone and the ring drained.
+	 */
+	@Test
+	public final void testFallback() throws IOException, InterruptedException {
+		File file = new File(folder.getRoot(), "ring");
+		RdRandRingBackend missing = new RdRandRingBackend(file);
+		missing.nextBytes(new byte[100]);
+		missing.next(32);
+		assertEquals(2, missing.getFallbackDraws());
+
+		RdRandRingProducer producer = new RdRandRingProducer(file, SLOT_COUNT, SLOT_SIZE);
+		Thread thread = producer.start();
+		awaitFull(file);
+		RdRandRingBackend backend = new RdRandRingBackend(file);
+		producer.close();
+		thread.join();
+		assertFalse(file.exists());
+		byte[] bytes = new byte[SLOT_SIZE];
+		for (int i = 0; i < SLOT_COUNT + 10; i++) {
+			backend.nextBytes(bytes);
+		}
+		assertEquals(SLOT_COUNT, backend.getSlotsClaimed());
+		assertTrue(backend.getFallbackDraws() > 0);
+	}
+
+	/**
+	 * Verifies rings are created private to their owner and rings other
+	 * users could access, or reached through a symbolic link, are refused.
+	 */
+	@Test
+	public final void testRefusesSharedRing() throws IOException, InterruptedException {
+		File file = new File(folder.getRoot(), "ring");
+		RdRandRingProducer producer = new RdRandRingProducer(file, SLOT_COUNT, SLOT_SIZE);
+		producer.start();
+		try {
+			awaitFull(file);
+			Path path = file.toPath();
+			assumeTrue(PrivateFiles.isPosix(path));
+			assertEquals("rw-------", PosixFilePermissions.toString(Files.getPosixFilePermissions(path)));
+			assertEquals(1, folder.getRoot().list().length);
+
+			Path link = new File(folder.getRoot(), "link").toPath();
+			Files.createSymbolicLink(link, path);
+			RdRandRingBackend linked = new RdRandRingBackend(link.toFile());
+			linked.nextBytes(new byte[SLOT_SIZE]);
+			assertEquals(0, linked.getSlotsClaimed());
+
+			Files.setPosixFilePermissions(path, PosixFilePermissions.fromString("rw-rw-rw-"));
+			try {
+				RdRandRing.open(file);
+				fail("Ring writable by other users opened");
+			} catch (IOException e) {
+				// Expected.
+			}
+			RdRandRingBackend backend = new RdRandRingBackend(file);
+			backend.nextBytes(new byte[SLOT_SIZE]);
+			assertEquals(0, backend.getSlotsClaimed());
+			assertEquals(1, backend.getFallbackDraws());
+		} finally {
+			producer.close();
+		}
+	}
+
+	/**
+	 * Compares per-draw latency of single int and 64 byte draws from the
+	 * ring against direct RdRand calls, logging the results. Ring draws are
+	 * timed from a full ring and within its capacity, so they are not
+	 * served by the fallback.
+	 */
+	@Test
+	public final void testLatency() throws IOException, InterruptedException {
+		final String methodName = "testLatency : ";
+
+		File file = new File(folder.getRoot(), "ring");
+		RdRandRingProducer producer = new RdRandRingProducer(file);
+		producer.start();
+		try {
+			LOGGER.info("{} Running for direct RdRand..", methodName);
+			RdRandBackend direct = new NativeRdRandBackend();
+			benchmark(direct);
+			benchmark(direct);
+			RdRandRingBackend backend = new RdRandRingBackend(file);
+			// Warm up, then time again once the ring has refilled.
+			awaitFull(file);
+			benchmark(backend);
+			LOGGER.info("{} Running for ring..", methodName);
+			awaitFull(file);
+			benchmark(backend);
+			LOGGER.info("{} Ring served {} slots with {} fallback draws", methodName,
+					backend.getSlotsClaimed(), backend.getFallbackDraws());
+		} finally {
+			producer.close();
+		}
+	}
+
+	/**
+	 * Measures and logs next and nextBytes latency for the specified backend.
+	 * @param backend The backend to measure.
+	 */
+	private void benchmark(RdRandBackend backend) {
+		final String methodName = "benchmark : ";
+
+		// Half the default ring in int draws, a quarter in 64 byte draws.
+		int draws = RdRandRingProducer.DEFAULT_SLOT_COUNT * RdRandRingProducer.DEFAULT_SLOT_SIZE / 8;
+		long sink = 0;
+		long start = System.nanoTime();
+		for (int i = 0; i < draws; i++) {
+			sink += backend.next(32);
+		}
+		long end = System.nanoTime();
+		LOGGER.info("{} next latency: {}ns per draw ({})", methodName, (end - start) / draws, sink & 1);
+
+		draws = RdRandRingProducer.DEFAULT_SLOT_COUNT / 4;
+		byte[] bytes = new byte[SLOT_SIZE];
+		start = System.nanoTime();
+		for (int i = 0; i < draws; i++) {
+			backend.nextBytes(bytes);
+		}
+		end = System.nanoTime();
+		LOGGER.info("{} nextBytes({}) latency: {}ns per draw", methodName, SLOT_SIZE, (end - start) / draws);
+	}
+}
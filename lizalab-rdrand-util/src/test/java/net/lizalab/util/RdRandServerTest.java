@@ -0,0 +1,312 @@
+/*
+ * Copyright 2013 Hemant Padmanabhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.lizalab.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tests for RdRandServer and its RemoteRdRandRandom client, including a
+ * local throughput and latency comparison against RdRandRandom.
+ *
+ * @author Hemant Padmanabhan
+ * @since 1.2
+ */
+public class RdRandServerTest {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(RdRandServerTest.class);
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * Secret shared by the server and client under test.
+	 */
+	private byte[] secret;
+
+	/**
+	 * Server under test.
+	 */
+	private RdRandServer server;
+
+	/**
+	 * Client under test.
+	 */
+	private RemoteRdRandRandom random;
+
+	@Before
+	public final void setUp() throws IOException {
+		secret = RdRandServer.createSecret(new File(folder.getRoot(), "secret"));
+		server = new RdRandServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), secret);
+		server.start();
+		random = new RemoteRdRandRandom(server.getAddress(), secret);
+	}
+
+	@After
+	public final void tearDown() throws IOException {
+		random.close();
+		server.close();
+	}
+
+	/**
+	 * Verifies small and large fills, the latter spanning several pipelined requests.
+	 */
+	@Test
+	public final void testNextBytes() {
+		for (int size : new int[] {1, 32, RemoteRdRandRandom.DEFAULT_BUFFER_SIZE + 1, 3 * RdRandServer.MAX_REQUEST + 5}) {
+			byte[] bytes = new byte[size];
+			random.nextBytes(bytes);
+			byte[] tail = Arrays.copyOfRange(bytes, Math.max(0, size - 32), size);
+			assertFalse("Fill of " + size + " bytes left the tail empty",
+					size > 1 && Arrays.equals(tail, new byte[tail.length]));
+		}
+	}
+
+	/**
+	 * Verifies the bits returned by next are right justified, which bounded
+	 * draws rely on to stay within range.
+	 */
+	@Test
+	public final void testNextBits() {
+		for (int i = 0; i < 100000; i++) {
+			int value = random.nextInt(10);
+			assertTrue("Bounded draw out of range: " + value, value >= 0 && value < 10);
+		}
+	}
+
+	/**
+	 * Verifies buffers too small for an int are refused and the smallest
+	 * allowed buffers serve ints across refills.
+	 */
+	@Test
+	public final void testBufferSize() throws IOException {
+		for (int bufferSize = 1; bufferSize < 4; bufferSize++) {
+			try {
+				new RemoteRdRandRandom(server.getAddress(), secret, bufferSize, RemoteRdRandRandom.DEFAULT_TIMEOUT_MILLIS);
+				fail("Buffer of " + bufferSize + " bytes accepted");
+			} catch (IllegalArgumentException e) {
+				// Expected.
+			}
+		}
+		for (int bufferSize = 4; bufferSize < 8; bufferSize++) {
+			RemoteRdRandRandom small = new RemoteRdRandRandom(server.getAddress(), secret, bufferSize,
+					RemoteRdRandRandom.DEFAULT_TIMEOUT_MILLIS);
+			try {
+				for (int i = 0; i < 100; i++) {
+					int value = small.nextInt(10);
+					assertTrue("Bounded draw out of range: " + value, value >= 0 && value < 10);
+				}
+			} finally {
+				small.close();
+			}
+		}
+	}
+
+	/**
+	 * Verifies responses to pipelined requests come back in order and whole.
+	 */
+	@Test
+	public final void testPipelinedProtocol() throws IOException {
+		int[] lengths = {16, 1, 4096, 7};
+		Socket socket = new Socket(server.getAddress().getAddress(), server.getAddress().getPort());
+		try {
+			DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+			DataInputStream in = new DataInputStream(socket.getInputStream());
+			RemoteRdRandRandom.authenticate(in, out, RdRandServer.mac(secret));
+			for (int length : lengths) {
+				out.writeInt(length);
+			}
+			out.flush();
+			for (int length : lengths) {
+				assertEquals(RdRandStatus.SUCCESS.getCode(), in.readInt());
+				in.readFully(new byte[length]);
+			}
+		} finally {
+			socket.close();
+		}
+	}
+
+	/**
+	 * Verifies the server closes connections sending invalid requests.
+	 */
+	@Test
+	public final void testInvalidRequest() throws IOException {
+		Socket socket = new Socket(server.getAddress().getAddress(), server.getAddress().getPort());
+		try {
+			DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+			RemoteRdRandRandom.authenticate(new DataInputStream(socket.getInputStream()), out,
+					RdRandServer.mac(secret));
+			out.writeInt(RdRandServer.MAX_REQUEST + 1);
+			out.flush();
+			assertEquals(-1, socket.getInputStream().read());
+		} finally {
+			socket.close();
+		}
+	}
+
+	/**
+	 * Verifies clients without the secret are refused, and clients refuse
+	 * servers without it.
+	 */
+	@Test
+	public final void testAuthentication() throws IOException {
+		byte[] other = secret.clone();
+		other[0] ^= 1;
+		try {
+			new RemoteRdRandRandom(server.getAddress(), other);
+			fail("Client with the wrong secret connected");
+		} catch (IOException e) {
+			// Expected, the server proof does not match.
+		}
+		Socket socket = new Socket(server.getAddress().getAddress(), server.getAddress().getPort());
+		try {
+			// Requests without a handshake are taken as a bad nonce and proof.
+			DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+			for (int i = 0; i < 12; i++) {
+				out.writeInt(16);
+			}
+			out.flush();
+			// At most the server handshake comes back before the connection is closed.
+			socket.setSoTimeout(10000);
+			int received = 0;
+			while (socket.getInputStream().read() >= 0) {
+				received++;
+			}
+			assertTrue(received <= RdRandServer.NONCE_LENGTH + RdRandServer.PROOF_LENGTH);
+		} finally {
+			socket.close();
+		}
+		RdRandServer impostor = new RdRandServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), other);
+		impostor.start();
+		try {
+			new RemoteRdRandRandom(impostor.getAddress(), secret);
+			fail("Client accepted a server with the wrong secret");
+		} catch (IOException e) {
+			// Expected.
+		} finally {
+			impostor.close();
+		}
+	}
+
+	/**
+	 * Verifies the client times out on a server that never answers.
+	 */
+	@Test
+	public final void testTimeout() throws IOException {
+		ServerSocket silent = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+		try {
+			new RemoteRdRandRandom(new InetSocketAddress(InetAddress.getLoopbackAddress(), silent.getLocalPort()),
+					secret, RemoteRdRandRandom.DEFAULT_BUFFER_SIZE, 100);
+			fail("Client did not time out");
+		} catch (SocketTimeoutException e) {
+			// Expected.
+		} finally {
+			silent.close();
+		}
+	}
+
+	/**
+	 * Verifies secrets are created private to their owner and secrets other
+	 * users could read are refused.
+	 */
+	@Test
+	public final void testSecretFile() throws IOException {
+		File file = new File(folder.getRoot(), "secret");
+		assertTrue(Arrays.equals(secret, RdRandServer.readSecret(file)));
+		try {
+			RdRandServer.createSecret(file);
+			fail("Existing secret overwritten");
+		} catch (IOException e) {
+			// Expected.
+		}
+		if (PrivateFiles.isPosix(file.toPath())) {
+			assertEquals("rw-------", PosixFilePermissions.toString(Files.getPosixFilePermissions(file.toPath())));
+			Files.setPosixFilePermissions(file.toPath(), PosixFilePermissions.fromString("rw-r--r--"));
+			try {
+				RdRandServer.readSecret(file);
+				fail("Readable secret accepted");
+			} catch (IOException e) {
+				// Expected.
+			}
+		}
+	}
+
+	/**
+	 * Compares latency of single int draws and throughput of bulk fills for
+	 * the remote client against the local RdRandRandom, logging the results.
+	 */
+	@Test
+	public final void testThroughputAndLatency() {
+		final String methodName = "testThroughputAndLatency : ";
+
+		LOGGER.info("{} Running for RdRandRandom..", methodName);
+		benchmark(new RdRandRandom());
+		LOGGER.info("{} Running for RemoteRdRandRandom..", methodName);
+		benchmark(random);
+	}
+
+	/**
+	 * Measures and logs nextInt latency and nextBytes throughput for the specified RNG.
+	 * @param rng The RNG to measure.
+	 */
+	private void benchmark(Random rng) {
+		final String methodName = "benchmark : ";
+
+		int draws = 1000000;
+		long sink = 0;
+		long start = System.nanoTime();
+		for (int i = 0; i < draws; i++) {
+			sink += rng.nextInt();
+		}
+		long end = System.nanoTime();
+		LOGGER.info("{} nextInt latency: {}ns per draw ({})", methodName, (end - start) / draws, sink & 1);
+
+		byte[] bytes = new byte[RdRandServer.MAX_REQUEST];
+		int fills = 64;
+		start = System.nanoTime();
+		for (int i = 0; i < fills; i++) {
+			rng.nextBytes(bytes);
+		}
+		end = System.nanoTime();
+		LOGGER.info("{} nextBytes throughput: {} MB/s", methodName,
+				(long) fills * bytes.length * 1000L / Math.max(1, end - start));
+	}
+}
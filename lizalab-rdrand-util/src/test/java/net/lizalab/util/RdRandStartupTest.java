@@ -0,0 +1,130 @@
+/*
+ * Copyright 2013 Hemant Padmanabhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.lizalab.util;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeNotNull;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Startup benchmark measuring the time to the first random byte in fresh
+ * JVMs, as seen by command line tools and serverless functions.
+ *
+ * @author Hemant Padmanabhan
+ * @since 1.2
+ */
+public class RdRandStartupTest {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(RdRandStartupTest.class);
+
+	private static final int RUNS = 5;
+
+	/**
+	 * Entry point of the measured JVM, printing the milliseconds from
+	 * entering main to the first random byte.
+	 */
+	public static final class Probe {
+
+		/**
+		 * @param args Unused.
+		 */
+		public static void main(String[] args) {
+			long start = System.nanoTime();
+			byte[] bytes = new byte[1];
+			RdRandUtil.nextBytes(bytes);
+			System.out.println((System.nanoTime() - start) / 1000 + " " + bytes[0]);
+		}
+	}
+
+	/**
+	 * Measures the time to the first random byte with the library extracted
+	 * from the class path, with a preinstalled library and without JFR
+	 * events, logging the median of several runs of each. Skipped where the
+	 * library is not bundled or the host lacks RdRand.
+	 */
+	@Test
+	public final void testTimeToFirstByte() throws IOException, InterruptedException {
+		final String methodName = "testTimeToFirstByte : ";
+
+		URL resource = RdRandUtil.class.getResource("/" + RdRandUtil.LIB_NAME);
+		assumeNotNull(resource);
+		assumeTrue(RdRandUtil.verify() == RdRandStatus.SUCCESS);
+		File library = new File(resource.getPath());
+		String[][] variants = {
+			{},
+			{"-D" + RdRandUtil.LIBRARY_PROPERTY + "=" + library.getAbsolutePath()},
+			{"-D" + RdRandUtil.LIBRARY_PROPERTY + "=" + library.getAbsolutePath(),
+				"-D" + RdRandMonitor.DISABLED_PROPERTY + "=true"}
+		};
+		String[] names = {"extracted", "preinstalled", "preinstalled without JFR events"};
+		for (int v = 0; v < variants.length; v++) {
+			long[] mains = new long[RUNS];
+			long[] processes = new long[RUNS];
+			for (int run = 0; run < RUNS; run++) {
+				long start = System.nanoTime();
+				mains[run] = probe(variants[v]);
+				processes[run] = (System.nanoTime() - start) / 1000;
+			}
+			Arrays.sort(mains);
+			Arrays.sort(processes);
+			LOGGER.info("{} {}: {}us in main to first byte, {}ms for the whole JVM", methodName, names[v],
+					mains[RUNS / 2], processes[RUNS / 2] / 1000);
+		}
+	}
+
+	/**
+	 * Runs the probe in a new JVM.
+	 * @param options JVM options.
+	 * @return Microseconds from entering main to the first random byte.
+	 */
+	private long probe(String... options) throws IOException, InterruptedException {
+		String classPath = System.getProperty("surefire.test.class.path", System.getProperty("java.class.path"));
+		List<String> command = new ArrayList<String>();
+		command.add(new File(new File(System.getProperty("java.home"), "bin"), "java").getPath());
+		command.addAll(Arrays.asList(options));
+		command.add("-cp");
+		command.add(classPath);
+		command.add(Probe.class.getName());
+		Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), "UTF-8"));
+		String line;
+		String last = null;
+		try {
+			while ((line = reader.readLine()) != null) {
+				last = line;
+			}
+		} finally {
+			reader.close();
+		}
+		int exit = process.waitFor();
+		assertTrue("Probe failed with " + exit + ": " + last, exit == 0 && last != null);
+		return Long.parseLong(last.split(" ")[0]);
+	}
+}
@@ -17,6 +17,7 @@
 package net.lizalab.util;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 
 import java.util.Arrays;
 import java.util.Collection;
@@ -101,4 +102,16 @@ public class RdRandStatusTest {
 				status, RdRandStatus.getStatusByCode(status.getCode()));
 	}
 
+	/**
+	 * Verifies code based lookup returns null for codes neighbouring
+	 * the status under test that do not belong to any status.
+	 */
+	@Test
+	public final void testGetStatusByUnknownCode() {
+		assertNull("Status returned for unknown code", RdRandStatus.getStatusByCode(0));
+		assertNull("Status returned for unknown code", RdRandStatus.getStatusByCode(status.getCode() + 10));
+		assertNull("Status returned for unknown code", RdRandStatus.getStatusByCode(status.getCode() - 10));
+		assertNull("Status returned for unknown code", RdRandStatus.getStatusByCode(Integer.MIN_VALUE));
+	}
+
 }
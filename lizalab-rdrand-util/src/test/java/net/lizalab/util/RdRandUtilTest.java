@@ -19,6 +19,8 @@ package net.lizalab.util;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.util.Arrays;
 
@@ -67,5 +69,102 @@ public class RdRandUtilTest {
 			assertEquals("Different status returned by nextBytes vs verify..", status, error.getStatus());
 		}
 	}
-
+	
+	@Test
+	public final void testTryNextBytes() {
+		final String methodName = "testTryNextBytes : ";
+		
+		// Verify library is loaded and available
+		RdRandStatus status = RdRandUtil.verify();
+		// Prepare array to receive random bytes
+		byte[] bytes = new byte[32];
+		RdRandStatus result = RdRandUtil.tryNextBytes(bytes);
+		byte[] emptyBytes = new byte[32];
+		// Proceed depending on the verify result.
+		if (status == RdRandStatus.SUCCESS) {
+			LOGGER.debug("{} Native Shared Library loaded successfully, running success branch tests.", methodName);
+			assertEquals("Failure status returned by tryNextBytes..", RdRandStatus.SUCCESS, result);
+			// Verify the library filled the provided array with random byte values.
+			assertFalse(Arrays.equals(bytes, emptyBytes));
+		}
+		else {
+			// Verify failed, tryNextBytes should report the same status without filling the array.
+			LOGGER.debug("{} Native Shared Library load failed with {}, running failure branch tests.", 
+					methodName, status);
+			assertEquals("Different status returned by tryNextBytes vs verify..", status, result);
+			assertTrue(Arrays.equals(bytes, emptyBytes));
+		}
+	}
+	
+	/**
+	 * Verifies fills sized outside the array are refused before reaching
+	 * native code, which would otherwise write past the array.
+	 */
+	@Test
+	public final void testTryNextBytesSize() {
+		for (int size : new int[] {-1, 17, 1024}) {
+			try {
+				RdRandUtil.tryNextBytes(new byte[16], size);
+				fail("Fill of " + size + " bytes into 16 accepted");
+			} catch (IllegalArgumentException e) {
+				// Expected.
+			}
+		}
+	}
+	
+	/**
+	 * Verifies both native fill paths fill exactly the requested bytes for
+	 * sizes around the word size, leaving the rest of the array untouched.
+	 */
+	@Test
+	public final void testFillPaths() {
+		if (RdRandUtil.verify() != RdRandStatus.SUCCESS) {
+			return;
+		}
+		for (boolean librdrand : new boolean[] {false, true}) {
+			for (int size : new int[] {0, 1, 7, 8, 9, 31, 32, 33, 255, 256, 257, 16 * 1024 + 3, 100 * 1024 + 5}) {
+				byte[] bytes = new byte[size + 16];
+				assertEquals(RdRandStatus.SUCCESS.getCode(), RdRandUtil.fillNative(bytes, size, librdrand));
+				assertTrue("Fill of " + size + " bytes wrote past the end, librdrand " + librdrand,
+						Arrays.equals(new byte[16], Arrays.copyOfRange(bytes, size, size + 16)));
+				if (size >= 8) {
+					assertFalse("Fill of " + size + " bytes left the tail empty, librdrand " + librdrand,
+							Arrays.equals(new byte[8], Arrays.copyOfRange(bytes, size - 8, size)));
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Compares the throughput of the 64 bit word path against librdrand for
+	 * fills from 8 bytes to 1 MiB, logging the results.
+	 */
+	@Test
+	public final void testFillThroughput() {
+		final String methodName = "testFillThroughput : ";
+		
+		if (RdRandUtil.verify() != RdRandStatus.SUCCESS) {
+			return;
+		}
+		long total = 8L << 20;
+		for (int size : new int[] {8, 64, 512, 4096, 32768, 262144, 1 << 20}) {
+			byte[] bytes = new byte[size];
+			int fills = (int) (total / size);
+			long[] elapsed = new long[2];
+			for (int path = 0; path < 2; path++) {
+				// Warm up before timing.
+				for (int i = 0; i < Math.min(fills, 1000); i++) {
+					RdRandUtil.fillNative(bytes, size, path == 1);
+				}
+				long start = System.nanoTime();
+				for (int i = 0; i < fills; i++) {
+					RdRandUtil.fillNative(bytes, size, path == 1);
+				}
+				elapsed[path] = Math.max(1, System.nanoTime() - start);
+			}
+			LOGGER.info("{} {} byte fills: words {} MB/s, librdrand {} MB/s, gain {}%", methodName, size,
+					(long) fills * size * 1000L / elapsed[0], (long) fills * size * 1000L / elapsed[1],
+					(elapsed[1] - elapsed[0]) * 100 / elapsed[0]);
+		}
+	}
 }
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2013 Hemant Padmanabhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.lizalab.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.uncommons.maths.random.AESCounterRNG;
+import org.uncommons.maths.random.MersenneTwisterRNG;
+import org.uncommons.maths.random.SeedException;
+
+/**
+ * Tests for batch seeding through RdRandSeedGenerator and RdRandSeeds and
+ * fleet construction through SeededRngFactory, including a comparison of
+ * fleet startup against seeding each RNG on its own.
+ *
+ * @author Hemant Padmanabhan
+ * @since 1.2
+ */
+public class SeededRngFactoryTest {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(SeededRngFactoryTest.class);
+
+	/**
+	 * Verifies a batch holds distinct seeds of the requested length and is
+	 * wiped by clear, on and off the heap.
+	 */
+	@Test
+	public final void testGenerateSeeds() throws SeedException {
+		RdRandSeedGenerator generator = new RdRandSeedGenerator();
+		RdRandSeedGenerator wrapped = new RdRandSeedGenerator(new FaultInjectingRdRandBackend(1));
+		for (RdRandSeeds seeds : new RdRandSeeds[] {generator.generateSeeds(1000, 16),
+				generator.generateDirectSeeds(1000, 16), wrapped.generateDirectSeeds(1000, 16)}) {
+			assertEquals(1000, seeds.getCount());
+			assertEquals(16, seeds.getLength());
+			assertEquals(16000, seeds.getBuffer().remaining());
+			Set<BigInteger> distinct = new HashSet<BigInteger>();
+			for (int i = 0; i < seeds.getCount(); i++) {
+				byte[] seed = seeds.getSeed(i);
+				assertEquals(16, seed.length);
+				assertTrue("Seed " + i + " repeated", distinct.add(new BigInteger(1, seed)));
+				assertEquals(ByteBuffer.wrap(seed).getLong(), seeds.getLong(i));
+			}
+			byte[] copy = new byte[20];
+			seeds.copySeed(999, copy, 4);
+			assertArrayEquals(seeds.getSeed(999), Arrays.copyOfRange(copy, 4, 20));
+			seeds.clear();
+			for (int i = 0; i < seeds.getCount(); i++) {
+				assertArrayEquals(new byte[16], seeds.getSeed(i));
+			}
+			try {
+				seeds.getSeed(1000);
+				fail("Seed index out of range accepted");
+			} catch (IndexOutOfBoundsException e) {
+				// Expected.
+			}
+		}
+		assertEquals(0, generator.generateSeeds(0, 16).getCount());
+		try {
+			generator.generateSeeds(Integer.MAX_VALUE, 16);
+			fail("Batch larger than an array accepted");
+		} catch (IllegalArgumentException e) {
+			// Expected.
+		}
+	}
+
+	/**
+	 * Verifies direct and heap buffers, including slices of an array, are
+	 * filled from position to limit and read-only buffers are rejected.
+	 */
+	@Test
+	public final void testNextBytesBuffer() {
+		ByteBuffer array = ByteBuffer.allocate(1041);
+		array.position(10);
+		for (ByteBuffer buffer : new ByteBuffer[] {ByteBuffer.allocateDirect(1031), ByteBuffer.allocate(1031),
+				array.slice()}) {
+			buffer.position(3).limit(1027);
+			RdRandUtil.nextBytes(buffer);
+			assertEquals(1027, buffer.position());
+			buffer.clear();
+			assertEquals(0, buffer.get(0) | buffer.get(1) | buffer.get(2));
+			assertEquals(0, buffer.get(1027) | buffer.get(1028) | buffer.get(1029) | buffer.get(1030));
+			buffer.position(1019);
+			assertFalse(buffer.getLong() == 0);
+		}
+		assertArrayEquals(new byte[13], Arrays.copyOfRange(array.array(), 0, 13));
+		try {
+			RdRandUtil.nextBytes(ByteBuffer.allocateDirect(16).asReadOnlyBuffer());
+			fail("Read-only buffer accepted");
+		} catch (ReadOnlyBufferException e) {
+			// Expected.
+		}
+	}
+
+	/**
+	 * Verifies fleets are created in seed order with distinct seeds, and
+	 * construction failures are surfaced.
+	 */
+	@Test
+	public final void testCreateFleets() throws SeedException {
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			SeededRngFactory factory = new SeededRngFactory(new RdRandSeedGenerator(), pool);
+			List<MersenneTwisterRNG> twisters = factory.mersenneTwisters(500);
+			assertEquals(500, twisters.size());
+			Set<BigInteger> seeds = new HashSet<BigInteger>();
+			for (MersenneTwisterRNG rng : twisters) {
+				assertTrue("Seed repeated", seeds.add(new BigInteger(1, rng.getSeed())));
+			}
+			List<AESCounterRNG> counters = factory.aesCounters(100);
+			assertEquals(100, counters.size());
+			assertEquals(16, counters.get(99).getSeed().length);
+
+			// Random stands in for SplittableRandom, which needs Java 8.
+			List<Random> randoms = factory.createFromLongs(1000, new SeededRngFactory.LongSeededConstructor<Random>() {
+				@Override
+				public Random create(long seed) {
+					return new Random(seed);
+				}
+			});
+			Set<Long> firsts = new HashSet<Long>();
+			for (Random random : randoms) {
+				firsts.add(random.nextLong());
+			}
+			assertEquals(1000, firsts.size());
+
+			try {
+				factory.create(100, 8, new SeededRngFactory.SeededConstructor<Random>() {
+					@Override
+					public Random create(byte[] seed) throws Exception {
+						throw new Exception("Bad seed");
+					}
+				});
+				fail("Construction failure not surfaced");
+			} catch (IllegalStateException e) {
+				// Expected.
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Compares fleet startup, seeding and constructing each Mersenne
+	 * Twister RNG on its own against a batch seeded and parallel
+	 * constructed fleet, logging the results.
+	 */
+	@Test
+	public final void testFleetStartup() throws SeedException {
+		final String methodName = "testFleetStartup : ";
+
+		final int count = 10000;
+		RdRandSeedGenerator generator = new RdRandSeedGenerator();
+		SeededRngFactory factory = new SeededRngFactory();
+		for (int round = 0; round < 3; round++) {
+			long start = System.nanoTime();
+			List<MersenneTwisterRNG> serial = new ArrayList<MersenneTwisterRNG>(count);
+			for (int i = 0; i < count; i++) {
+				serial.add(new MersenneTwisterRNG(generator.generateSeed(SeededRngFactory.UNCOMMONS_SEED_LENGTH)));
+			}
+			long serialNanos = System.nanoTime() - start;
+			start = System.nanoTime();
+			List<MersenneTwisterRNG> fleet = factory.mersenneTwisters(count);
+			long fleetNanos = System.nanoTime() - start;
+			assertEquals(count, fleet.size());
+			LOGGER.info("{} {} RNGs seeded one at a time: {}ms, as a fleet: {}ms", methodName, count,
+					serialNanos / 1000000.0, fleetNanos / 1000000.0);
+		}
+	}
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2013 Hemant Padmanabhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.lizalab.util.jfr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.text.ParseException;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import net.lizalab.util.BufferedRdRandBackend;
+import net.lizalab.util.NativeRdRandBackend;
+import net.lizalab.util.RdRandMonitor;
+import net.lizalab.util.RdRandUtil;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tests for the JDK Flight Recorder events reported by JfrRdRandMonitor,
+ * including the cost of a fill with and without a recording running.
+ *
+ * @author Hemant Padmanabhan
+ * @since 1.2
+ */
+public class JfrRdRandMonitorTest {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(JfrRdRandMonitorTest.class);
+
+	private static final String FILL = "net.lizalab.util.RdRandFill";
+
+	private static final String REFILL = "net.lizalab.util.RdRandRefill";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * Starts the recording and waits for the monitor to notice it.
+	 * @param recording The recording to start.
+	 */
+	private void start(Recording recording) throws InterruptedException {
+		recording.start();
+		long deadline = System.currentTimeMillis() + 5000;
+		while (!RdRandMonitor.isActive() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertTrue("Monitor not enabled by the recording", RdRandMonitor.isActive());
+	}
+
+	/**
+	 * Verifies fills and buffer refills are recorded with their sizes.
+	 */
+	@Test
+	public final void testEventsRecorded() throws IOException, InterruptedException {
+		Recording recording = new Recording();
+		recording.enable(FILL).withThreshold(Duration.ZERO);
+		recording.enable(REFILL).withThreshold(Duration.ZERO);
+		start(recording);
+		try {
+			RdRandUtil.nextBytes(new byte[1000]);
+			BufferedRdRandBackend backend = new BufferedRdRandBackend(new NativeRdRandBackend());
+			backend.nextBytes(new byte[10]);
+		} finally {
+			recording.stop();
+		}
+		File file = new File(folder.getRoot(), "rdrand.jfr");
+		recording.dump(file.toPath());
+		recording.close();
+
+		Map<String, RecordedEvent> events = new HashMap<String, RecordedEvent>();
+		List<RecordedEvent> recorded = RecordingFile.readAllEvents(file.toPath());
+		for (RecordedEvent event : recorded) {
+			String name = event.getEventType().getName();
+			// Keep the first event of each type, the one drawn directly.
+			if (!events.containsKey(name)) {
+				events.put(name, event);
+			}
+		}
+		RecordedEvent fill = events.get(FILL);
+		assertTrue("No fill recorded in " + recorded, fill != null);
+		assertEquals(1000, fill.getInt("bytes"));
+		assertEquals("SUCCESS", fill.getString("status"));
+		RecordedEvent refill = events.get(REFILL);
+		assertTrue("No refill recorded in " + recorded, refill != null);
+		assertEquals(BufferedRdRandBackend.DEFAULT_BUFFER_SIZE, refill.getInt("bytes"));
+		assertEquals("BufferedRdRandBackend", refill.getString("source"));
+	}
+
+	/**
+	 * Verifies the bundled settings parse and enable every event.
+	 */
+	@Test
+	public final void testBundledConfiguration() throws IOException, ParseException {
+		Reader reader = new InputStreamReader(getClass().getResourceAsStream("rdrand.jfc"), "UTF-8");
+		try {
+			Map<String, String> settings = Configuration.create(reader).getSettings();
+			for (String event : new String[] {"RdRandFill", "RdRandRetry", "RdRandFailure",
+					"RdRandLibraryLoad", "RdRandRefill"}) {
+				assertEquals(event, "true", settings.get("net.lizalab.util." + event + "#enabled"));
+			}
+			assertEquals("1 ms", settings.get(FILL + "#threshold"));
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Compares the cost of small fills without a recording, with a recording
+	 * filtering fills by the bundled threshold, and with every fill recorded,
+	 * logging the results.
+	 */
+	@Test
+	public final void testOverhead() throws InterruptedException {
+		final String methodName = "testOverhead : ";
+
+		byte[] bytes = new byte[16];
+		LOGGER.info("{} No recording, warming up: {}ns per fill", methodName, time(bytes));
+		LOGGER.info("{} No recording: {}ns per fill", methodName, time(bytes));
+		Recording recording = new Recording();
+		recording.enable(FILL).withThreshold(Duration.ofMillis(1));
+		start(recording);
+		try {
+			LOGGER.info("{} Recording over 1 ms: {}ns per fill", methodName, time(bytes));
+		} finally {
+			recording.close();
+		}
+		recording = new Recording();
+		recording.enable(FILL).withThreshold(Duration.ZERO);
+		start(recording);
+		try {
+			LOGGER.info("{} Recording all: {}ns per fill", methodName, time(bytes));
+		} finally {
+			recording.close();
+		}
+	}
+
+	/**
+	 * Times fills of the specified array.
+	 * @param bytes The array to fill.
+	 * @return Average nanoseconds per fill.
+	 */
+	private long time(byte[] bytes) {
+		int fills = 200000;
+		long start = System.nanoTime();
+		for (int i = 0; i < fills; i++) {
+			RdRandUtil.nextBytes(bytes);
+		}
+		return (System.nanoTime() - start) / fills;
+	}
+}
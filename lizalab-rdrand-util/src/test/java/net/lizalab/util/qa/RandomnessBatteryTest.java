@@ -0,0 +1,136 @@
+/*
+ * Copyright 2013 Hemant Padmanabhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.lizalab.util.qa;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Random;
+
+import net.lizalab.util.RdRandRandom;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the RandomnessBattery against RdRandRandom and against sources
+ * known to be defective.
+ * 
+ * @author Hemant Padmanabhan
+ * @since 1.2
+ */
+public class RandomnessBatteryTest {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(RandomnessBatteryTest.class);
+
+	/**
+	 * Number of bytes tested for each source.
+	 */
+	private static final long BYTES = 64L << 20;
+
+	/**
+	 * Instance of class under test.
+	 */
+	private RandomnessBattery battery = new RandomnessBattery();
+
+	/**
+	 * Runs the battery and logs the results.
+	 * @param name Name of the source used in the log.
+	 * @param source The source to test.
+	 * @return The results of the battery.
+	 */
+	private List<TestResult> run(String name, ByteSource source) {
+		final String methodName = "run : ";
+
+		long start = System.currentTimeMillis();
+		List<TestResult> results = battery.run(source, BYTES);
+		long end = System.currentTimeMillis();
+		LOGGER.info("{} {}: tested {} MB in {}ms", methodName, name, BYTES >> 20, end - start);
+		for (TestResult result : results) {
+			LOGGER.info("{} {}: {}", methodName, name, result);
+		}
+		return results;
+	}
+
+	/**
+	 * Verifies RdRandRandom passes every test of the battery.
+	 */
+	@Test
+	public final void testRdRandRandom() {
+		List<TestResult> results = run("RdRandRandom", RandomnessBattery.fromRandom(new RdRandRandom()));
+		assertEquals(7, results.size());
+		for (TestResult result : results) {
+			assertTrue(result.toString(), result.passed(RandomnessBattery.DEFAULT_ALPHA));
+		}
+	}
+
+	/**
+	 * Verifies a source biased towards ones fails the frequency tests.
+	 */
+	@Test
+	public final void testBiasedSource() {
+		final Random random = new Random();
+		List<TestResult> results = run("Biased", new ByteSource() {
+			@Override
+			public void nextBytes(byte[] bytes) {
+				random.nextBytes(bytes);
+				// Set one extra bit in every 64th byte.
+				for (int i = 0; i < bytes.length; i += 64) {
+					bytes[i] |= 1;
+				}
+			}
+		});
+		assertFalse(find(results, "Monobit").passed(RandomnessBattery.DEFAULT_ALPHA));
+		assertFalse(find(results, "Chi-Square").passed(RandomnessBattery.DEFAULT_ALPHA));
+	}
+
+	/**
+	 * Verifies a source repeating a short cycle fails the pattern based tests.
+	 */
+	@Test
+	public final void testCyclicSource() {
+		List<TestResult> results = run("Cyclic", new ByteSource() {
+			@Override
+			public void nextBytes(byte[] bytes) {
+				for (int i = 0; i < bytes.length; i++) {
+					bytes[i] = (byte) i;
+				}
+			}
+		});
+		assertFalse(find(results, "Serial Correlation").passed(RandomnessBattery.DEFAULT_ALPHA));
+		assertFalse(find(results, "Approximate Entropy").passed(RandomnessBattery.DEFAULT_ALPHA));
+		assertFalse(find(results, "Birthday Spacings").passed(RandomnessBattery.DEFAULT_ALPHA));
+	}
+
+	/**
+	 * Finds the result of the named test.
+	 * @param results The results of the battery.
+	 * @param name Name of the test.
+	 * @return The result of the test.
+	 */
+	private TestResult find(List<TestResult> results, String name) {
+		for (TestResult result : results) {
+			if (result.getName().equals(name)) {
+				return result;
+			}
+		}
+		throw new AssertionError("Missing result for " + name);
+	}
+}
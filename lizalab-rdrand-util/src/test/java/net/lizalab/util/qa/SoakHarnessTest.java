@@ -0,0 +1,97 @@
+/*
+ * Copyright 2013 Hemant Padmanabhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.lizalab.util.qa;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import net.lizalab.util.FaultInjectingRdRandBackend;
+import net.lizalab.util.RdRandRandom;
+import net.lizalab.util.RdRandStatus;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tests for LatencyHistogram and a short soak through injected faults.
+ *
+ * @author Hemant Padmanabhan
+ * @since 1.2
+ */
+public class SoakHarnessTest {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(SoakHarnessTest.class);
+
+	/**
+	 * Verifies percentiles are reported within the histogram precision.
+	 */
+	@Test
+	public final void testHistogram() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		assertEquals(0, histogram.getValueAtPercentile(99));
+		for (long value = 1; value <= 100000; value++) {
+			histogram.record(value * 1000);
+		}
+		assertEquals(100000, histogram.getCount());
+		assertWithin(50000000, histogram.getValueAtPercentile(50));
+		assertWithin(99000000, histogram.getValueAtPercentile(99));
+		assertWithin(99900000, histogram.getValueAtPercentile(99.9));
+		assertWithin(100000000, histogram.getMax());
+		assertEquals(1000, histogram.getValueAtPercentile(0) / 1000 * 1000);
+		histogram.record(Long.MAX_VALUE);
+		assertEquals(Long.MAX_VALUE, histogram.getMax());
+	}
+
+	/**
+	 * Checks a reported value is at or just above the expected one.
+	 * @param expected The expected value.
+	 * @param actual The reported value.
+	 */
+	private void assertWithin(long expected, long actual) {
+		assertTrue(actual + " for " + expected, actual >= expected && actual <= expected * 1.01);
+	}
+
+	/**
+	 * Soaks RdRandRandom through injected failures and latency spikes,
+	 * logging the result.
+	 */
+	@Test
+	public final void testSoak() throws InterruptedException {
+		final String methodName = "testSoak : ";
+
+		FaultInjectingRdRandBackend faults = new FaultInjectingRdRandBackend(1);
+		faults.setFailureRate(RdRandStatus.NOT_READY, 0.01);
+		faults.setLatencySpikes(0.001, TimeUnit.MILLISECONDS.toNanos(1));
+		final Random random = new RdRandRandom(faults);
+		SoakHarness.Result result = new SoakHarness(2, 500, TimeUnit.MILLISECONDS).soak("RdRandRandom.nextInt",
+				new SoakHarness.Draw() {
+					@Override
+					public void draw() {
+						random.nextInt();
+					}
+				});
+		LOGGER.info("{} {}", methodName, result);
+		assertEquals(faults.getDraws(), result.getLatencies().getCount());
+		assertEquals(faults.getFailures(), result.getFailures());
+		assertTrue(result.getFailures() > 0);
+		assertTrue("Spikes missing from the tail", result.getLatencies().getMax() >= TimeUnit.MILLISECONDS.toNanos(1));
+	}
+}